@@ -32,8 +32,6 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Iterator;
-import java.util.LinkedList;
 
 
 
@@ -211,7 +209,8 @@ public class BitmapPoolFactory {
         around 8mb is an entire fullhd screen, we will cache just two screens at once, this is not sufficient for 4k which needs at least 32mb
          */
         private int mCapacity = 1024 * 1024 * 8 * 2;
-        private LinkedList<Bitmap> mCache = new LinkedList<Bitmap>();
+        //only bitmaps of the exact dimension and config are reused
+        private final SizeClassPool<Bitmap> mCache = new SizeClassPool<>(new DimensionAllocation(), mCapacity, false);
         private boolean mDebug;
 
         public void setDebug(boolean b) {
@@ -221,34 +220,25 @@ public class BitmapPoolFactory {
         @Override
         public Bitmap borrowBitmap(int width, int height, Config config) {
             synchronized (mCache) {
-                Iterator<Bitmap> it = mCache.iterator();
-                while (it.hasNext()) {
-                    Bitmap bmp = it.next();
-                    if (bmp.isRecycled()) {
-                        it.remove();
-                        if (mDebug)
-                            LoggerFactory.getLogger(getClass()).debug("found already recycled bitmap {}", bmp);
-                        continue;
-                    }
-                    if (bmp.getWidth() == width && bmp.getHeight() == height && bmp.getConfig() == config) {
-                        it.remove();
-                        if (mDebug)
-                            LoggerFactory.getLogger(getClass()).debug("found bitmap {}x{}@{}, having {} entries", width, height, config, mCache.size());
-                        if (VERSION.SDK_INT >= VERSION_CODES.HONEYCOMB_MR1) {
-                            if (!bmp.hasAlpha()) {
-                                bmp.setHasAlpha(true);
-                            }
+                int bytes = width * height * 4;
+                Bitmap bmp = mCache.take(DimensionAllocation.getKey(width, height, config), bytes, bytes);
+                if (bmp != null) {
+                    if (mDebug)
+                        LoggerFactory.getLogger(getClass()).debug("found bitmap {}x{}@{}, having {} entries", width, height, config, mCache.getCount());
+                    if (VERSION.SDK_INT >= VERSION_CODES.HONEYCOMB_MR1) {
+                        if (!bmp.hasAlpha()) {
+                            bmp.setHasAlpha(true);
                         }
-                        //important to clear, otherwise we would violate our "create" contract
-                        bmp.eraseColor(0);
-                        return bmp;
                     }
+                    //important to clear, otherwise we would violate our "create" contract
+                    bmp.eraseColor(0);
+                    return bmp;
                 }
             }
 
             Bitmap bmp = Bitmap.createBitmap(width, height, config);
             if (mDebug) {
-                LoggerFactory.getLogger(getClass()).debug("cache miss {}x{}@{}, having {} entries", width, height, config, mCache.size());
+                LoggerFactory.getLogger(getClass()).debug("cache miss {}x{}@{}, having {} entries", width, height, config, mCache.getCount());
                 LoggerFactory.getLogger(getClass()).debug("created {}", bmp);
             }
             return bmp;
@@ -257,30 +247,15 @@ public class BitmapPoolFactory {
         @Override
         public void clear() {
             synchronized (mCache) {
-                for (Bitmap b : mCache) {
-                    b.recycle();
-                }
                 mCache.clear();
             }
         }
 
         @Override
         public int countBitmaps(int width, int height, Config config) {
-            int c = 0;
             synchronized (mCache) {
-                Iterator<Bitmap> it = mCache.iterator();
-                while (it.hasNext()) {
-                    Bitmap bmp = it.next();
-                    if (bmp.isRecycled()) {
-                        it.remove();
-                        continue;
-                    }
-                    if (bmp.getWidth() == width && bmp.getHeight() == height && bmp.getConfig() == config) {
-                        c++;
-                    }
-                }
+                return mCache.count(DimensionAllocation.getKey(width, height, config), width * height * 4);
             }
-            return c;
         }
 
         @Override
@@ -297,49 +272,25 @@ public class BitmapPoolFactory {
                 synchronized (mCache) {
                     if (mDebug)
                         checkIfAlreayIn(bmp);
-                    int currentSize = getCurrentSize();
-                    int additionalSize = bmp.getWidth() * bmp.getHeight() * 4;
-                    if (additionalSize > 0.7f * mCapacity) {
+                    if (!mCache.offer(bmp)) {
                         if (mDebug)
                             LoggerFactory.getLogger(getClass()).debug("bitmap is larger than pool capacity {}", bmp);
-                        bmp.recycle();
                         return;
                     }
-
-                    while (additionalSize + currentSize > mCapacity && mCache.size() > 0) {
-                        Bitmap toDel = mCache.remove();
-                        additionalSize -= toDel.getWidth() * toDel.getHeight() * 4;
-                        toDel.recycle();
-                        if (mDebug)
-                            LoggerFactory.getLogger(getClass()).debug("exceeding limit - free bitmap for {}x{}@{} {}", toDel.getWidth(), toDel.getHeight(), toDel.getConfig(), toDel);
-                    }
                     if (mDebug)
                         LoggerFactory.getLogger(getClass()).debug("added to cache {}x{}@{} {}", bmp.getWidth(), bmp.getHeight(), bmp.getConfig(), bmp);
-                    mCache.add(bmp);
                 }
             }));
         }
 
         private void checkIfAlreayIn(Bitmap bmp) {
-            for (Bitmap b : mCache)
-                if (b == bmp)
-                    throw new IllegalArgumentException("you cannot return bitmaps multiple times " + bmp);
-        }
-
-        private int getCurrentSize() {
-            int size = 0;
-            for (Bitmap bmp : mCache) {
-                size += bmp.getWidth() * bmp.getHeight() * 4;
-            }
-            return size;
+            if (mCache.contains(bmp))
+                throw new IllegalArgumentException("you cannot return bitmaps multiple times " + bmp);
         }
 
         @Override
         public void destroy() {
             synchronized (mCache) {
-                for (Bitmap bmp : mCache)
-                    if (!bmp.isRecycled())
-                        bmp.recycle();
                 mCache.clear();
             }
         }
@@ -351,7 +302,8 @@ public class BitmapPoolFactory {
         around 8mb is an entire fullhd screen, we will cache just two screens at once, this is not sufficient for 4k which needs at least 32mb
          */
         private int mCapacity = 1024 * 1024 * 8 * 2;
-        private LinkedList<Bitmap> mCache = new LinkedList<Bitmap>();
+        //any bitmap with a sufficient allocation can be reconfigured
+        private final SizeClassPool<Bitmap> mCache = new SizeClassPool<>(new ReconfigurableAllocation(), mCapacity, true);
         private boolean mDebug;
 
         private float mAcceptableMaxTrash = 1000;
@@ -367,43 +319,17 @@ public class BitmapPoolFactory {
                 throw new Panic("only argb8888 images are supported");
             }
             int expectedBytes = (width * height * 32) / 8;
-            Bitmap bestMatch = null;
-            int capacityDelta = Integer.MAX_VALUE;
-            float trashPercent;
+            int maxBytes = (int) Math.min(Integer.MAX_VALUE, (long) (expectedBytes * (1 + mAcceptableMaxTrash / 100)));
+            Bitmap bestMatch;
             synchronized (mCache) {
-                Iterator<Bitmap> it = mCache.iterator();
-
-                while (it.hasNext()) {
-                    Bitmap bmp = it.next();
-                    if (bmp.isRecycled()) {
-                        it.remove();
-                        if (mDebug)
-                            LoggerFactory.getLogger(getClass()).debug("found already recycled bitmap {}", bmp);
-                        continue;
-                    }
-                    int bytes = bmp.getAllocationByteCount();
-                    if (bytes < expectedBytes) {
-                        continue;
-                    }
-                    if (bestMatch == null || bytes - expectedBytes < capacityDelta) {
-                        bestMatch = bmp;
-                        capacityDelta = bytes - expectedBytes;
-                    }
-                }
-                trashPercent = (capacityDelta / (float) expectedBytes) * 100;
-                if (trashPercent < mAcceptableMaxTrash) {
-                    mCache.remove(bestMatch);
-                } else {
-                    if (mDebug)
-                        LoggerFactory.getLogger(getClass()).debug("Best bitmap is to inefficient: {}x{}@{}, having {} entries. Trash: {}%", width, height, config, mCache.size(), trashPercent);
-                    bestMatch = null;
-                }
+                bestMatch = mCache.take(expectedBytes, expectedBytes, maxBytes);
             }
 
-
             if (bestMatch != null) {
-                if (mDebug)
-                    LoggerFactory.getLogger(getClass()).debug("found bitmap to reconfigure {}x{}@{}, having {} entries. Trash: {}%", width, height, config, mCache.size(), trashPercent);
+                if (mDebug) {
+                    float trashPercent = ((bestMatch.getAllocationByteCount() - expectedBytes) / (float) expectedBytes) * 100;
+                    LoggerFactory.getLogger(getClass()).debug("found bitmap to reconfigure {}x{}@{}, having {} entries. Trash: {}%", width, height, config, mCache.getCount(), trashPercent);
+                }
 
                 bestMatch.reconfigure(width, height, config);
                 bestMatch.setHasAlpha(true);
@@ -420,7 +346,7 @@ public class BitmapPoolFactory {
             Bitmap bmp = Bitmap.createBitmap(width, height, config);
             bmp.setHasAlpha(true);
             if (mDebug) {
-                LoggerFactory.getLogger(getClass()).debug("cache miss {}x{}@{}, having {} entries", width, height, config, mCache.size());
+                LoggerFactory.getLogger(getClass()).debug("cache miss {}x{}@{}, having {} entries", width, height, config, mCache.getCount());
                 LoggerFactory.getLogger(getClass()).debug("created {}", bmp);
             }
             return bmp;
@@ -429,30 +355,15 @@ public class BitmapPoolFactory {
         @Override
         public void clear() {
             synchronized (mCache) {
-                for (Bitmap b : mCache) {
-                    b.recycle();
-                }
                 mCache.clear();
             }
         }
 
         @Override
         public int countBitmaps(int width, int height, Config config) {
-            int c = 0;
             synchronized (mCache) {
-                Iterator<Bitmap> it = mCache.iterator();
-                while (it.hasNext()) {
-                    Bitmap bmp = it.next();
-                    if (bmp.isRecycled()) {
-                        it.remove();
-                        continue;
-                    }
-                    if (bmp.getWidth() == width && bmp.getHeight() == height && bmp.getConfig() == config) {
-                        c++;
-                    }
-                }
+                return mCache.count(bmp -> bmp.getWidth() == width && bmp.getHeight() == height && bmp.getConfig() == config);
             }
-            return c;
         }
 
         @Override
@@ -469,52 +380,85 @@ public class BitmapPoolFactory {
                 synchronized (mCache) {
                     if (mDebug)
                         checkIfAlreayIn(bmp);
-                    int currentSize = getCurrentSize();
-                    int additionalSize = bmp.getAllocationByteCount();
-                    if (additionalSize > 0.7f * mCapacity) {
+                    if (!mCache.offer(bmp)) {
                         if (mDebug) {
                             LoggerFactory.getLogger(getClass()).debug("bitmap is larger than pool capacity {}", bmp);
                         }
-                        bmp.recycle();
                         return;
                     }
-
-                    while (additionalSize + currentSize > mCapacity && mCache.size() > 0) {
-                        Bitmap toDel = mCache.remove();
-                        additionalSize -= toDel.getWidth() * toDel.getHeight() * 4;
-                        toDel.recycle();
-                        if (mDebug)
-                            LoggerFactory.getLogger(getClass()).debug("exceeding limit - free bitmap for {}x{}@{} {}", toDel.getWidth(), toDel.getHeight(), toDel.getConfig(), toDel);
-                    }
                     if (mDebug)
                         LoggerFactory.getLogger(getClass()).debug("added to cache {}bytes {}", bmp.getAllocationByteCount(), bmp);
-                    mCache.add(bmp);
                 }
             }));
         }
 
         private void checkIfAlreayIn(Bitmap bmp) {
-            for (Bitmap b : mCache)
-                if (b == bmp)
-                    throw new IllegalArgumentException("you cannot return bitmaps multiple times " + bmp);
-        }
-
-        private int getCurrentSize() {
-            int size = 0;
-            for (Bitmap bmp : mCache) {
-                size += bmp.getWidth() * bmp.getHeight() * 4;
-            }
-            return size;
+            if (mCache.contains(bmp))
+                throw new IllegalArgumentException("you cannot return bitmaps multiple times " + bmp);
         }
 
         @Override
         public void destroy() {
             synchronized (mCache) {
-                for (Bitmap bmp : mCache)
-                    if (!bmp.isRecycled())
-                        bmp.recycle();
                 mCache.clear();
             }
         }
     }
+
+    /**
+     * Bitmaps are exchangeable, if they have the same dimension and config.
+     */
+    private static class DimensionAllocation implements SizeClassPool.Allocation<Bitmap> {
+
+        static Long getKey(int width, int height, Config config) {
+            return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+        }
+
+        @Override
+        public int getByteCount(Bitmap bmp) {
+            return bmp.getWidth() * bmp.getHeight() * 4;
+        }
+
+        @Override
+        public Object getKey(Bitmap bmp) {
+            return getKey(bmp.getWidth(), bmp.getHeight(), bmp.getConfig());
+        }
+
+        @Override
+        public boolean isRecycled(Bitmap bmp) {
+            return bmp.isRecycled();
+        }
+
+        @Override
+        public void recycle(Bitmap bmp) {
+            bmp.recycle();
+        }
+    }
+
+    /**
+     * Bitmaps are exchangeable, if they have the same allocation size, because they can be reconfigured.
+     */
+    @TargetApi(VERSION_CODES.KITKAT)
+    private static class ReconfigurableAllocation implements SizeClassPool.Allocation<Bitmap> {
+
+        @Override
+        public int getByteCount(Bitmap bmp) {
+            return bmp.getAllocationByteCount();
+        }
+
+        @Override
+        public Object getKey(Bitmap bmp) {
+            return bmp.getAllocationByteCount();
+        }
+
+        @Override
+        public boolean isRecycled(Bitmap bmp) {
+            return bmp.isRecycled();
+        }
+
+        @Override
+        public void recycle(Bitmap bmp) {
+            bmp.recycle();
+        }
+    }
 }
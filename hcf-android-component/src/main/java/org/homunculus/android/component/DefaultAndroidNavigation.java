@@ -20,6 +20,8 @@ import android.content.Context;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
 import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.FrameLayout.LayoutParams;
 import android.widget.ProgressBar;
@@ -36,11 +38,16 @@ import org.homunculusframework.navigation.BackActionConsumer;
 import org.homunculusframework.navigation.DefaultNavigation;
 import org.homunculusframework.navigation.Navigation;
 
+import java.util.Map;
+import java.util.WeakHashMap;
+
 /**
  * A default implementation of {@link Navigation} with Android flavor. {@link #backward()}
  * has a special behavior, in which it asks the content view of a potential {@link EventAppCompatActivity}
  * for a {@link BackActionConsumer#backward()} action before delegating to {@link DefaultNavigation#backward()}
  * which in turn asks the {@link UserInterfaceState#getBean()} the same before popping the actual stack.
+ * A retained state (see {@link #setRetainedScopeCache(long, org.homunculusframework.lang.Function)}) is reattached
+ * by setting the content view again, which it had when it has been left.
  *
  * @author Torben Schinke
  * @since 1.0
@@ -49,6 +56,8 @@ public class DefaultAndroidNavigation extends DefaultNavigation implements Navig
 
     @Nullable
     private NavigationBlockingDialog blockingIndicatorDialog;
+    //the content views of the applied states, which are only reachable as long as the state is alive or retained
+    private final Map<UserInterfaceState, View> contentViews = new WeakHashMap<>();
 
     public DefaultAndroidNavigation(Scope scope, Handler methodBindingHandler, Handler objectBindingHandler) {
         super(scope, methodBindingHandler, objectBindingHandler);
@@ -100,11 +109,29 @@ public class DefaultAndroidNavigation extends DefaultNavigation implements Navig
             dlg.cancel();
             blockingIndicatorDialog = null;
         }
+        UserInterfaceState uis = getUserInterfaceState();
+        EventAppCompatActivity activity = getScope().resolve(EventAppCompatActivity.class);
+        if (details == null && uis != null && activity != null && activity.getContentView() != null) {
+            contentViews.put(uis, activity.getContentView());
+        }
         if (details != null) {
             redirect(onError(details, currentRequest, nextRequest));
         }
     }
 
+    @Override
+    protected void onReattach(UserInterfaceState uis) {
+        super.onReattach(uis);
+        View view = contentViews.get(uis);
+        EventAppCompatActivity activity = getScope().resolve(EventAppCompatActivity.class);
+        if (view != null && activity != null) {
+            if (view.getParent() instanceof ViewGroup) {
+                ((ViewGroup) view.getParent()).removeView(view);
+            }
+            activity.setContentView(view);
+        }
+    }
+
     /**
      * Called to redirect after applying and an error occured.
      *
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculus.android.component;
+
+import androidx.annotation.Nullable;
+
+import org.homunculusframework.lang.Function;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The bookkeeping of the bitmap pools, independent of any android type, so that it can be used (and tested) with
+ * any kind of entry on a plain jvm. Entries are grouped into size classes by their byte count rounded down to a
+ * power of two, within a class they are sorted by their byte count and grouped by an exact key (e.g. the dimension
+ * or the allocation size of a bitmap). The best fit is the smallest entry with at least the requested bytes. It is
+ * either the ceiling within the requested class or the smallest entry of the next non empty class, which is found
+ * by a bit mask. So a borrow and a return only depend logarithmically on the amount of entries within a single
+ * class and not on the pool as a whole. The maximum waste of a lookup is limited by the caller.
+ * <p>
+ * All entries are linked in the order of returning, so that the least recently returned entries are evicted and
+ * recycled in constant time when the capacity is exceeded. The sum of bytes is maintained on each change instead of
+ * being recalculated. The most recently returned entry of a key is reused first, because it is most likely still warm.
+ * <p>
+ * Not thread safe.
+ *
+ * @param <B> the type of the pooled entries
+ * @since 1.0
+ */
+public class SizeClassPool<B> {
+
+    private static final int CLASSES = 32;
+    //a single entry must not take more than 70% of the capacity, otherwise the pool is useless
+    private static final float MAX_ENTRY_RATIO = 0.7f;
+
+    private final Allocation<B> allocation;
+    private final int capacity;
+    private final boolean bestFit;
+    //per size class the entries sorted by their bytes and grouped by their key, each deque in the order of returning
+    private final List<TreeMap<Integer, Map<Object, ArrayDeque<Node<B>>>>> classes;
+    //bit n is set, if the class n is not empty
+    private int nonEmpty;
+    //the least and the most recently returned entry of a doubly linked list of all entries
+    @Nullable
+    private Node<B> eldest;
+    @Nullable
+    private Node<B> youngest;
+    private int count;
+    private int size;
+
+    /**
+     * @param allocation the accessor of the entries
+     * @param capacity   the maximum amount of bytes of all entries
+     * @param bestFit    true, if an entry of another key with more bytes may be taken
+     */
+    public SizeClassPool(Allocation<B> allocation, int capacity, boolean bestFit) {
+        this.allocation = allocation;
+        this.capacity = capacity;
+        this.bestFit = bestFit;
+        this.classes = new ArrayList<>(CLASSES);
+        for (int i = 0; i < CLASSES; i++) {
+            classes.add(new TreeMap<Integer, Map<Object, ArrayDeque<Node<B>>>>());
+        }
+    }
+
+    /**
+     * Takes the most recently returned entry of the key or, if this pool is a best fit pool, the smallest fitting
+     * entry of another key. Recycled entries are discarded.
+     *
+     * @param key      the exact key
+     * @param bytes    the required bytes, which are also the bytes of the entries of the key
+     * @param maxBytes the maximum bytes of an entry of another key
+     * @return the entry or null
+     */
+    @Nullable
+    public B take(Object key, int bytes, int maxBytes) {
+        Node<B> node;
+        while ((node = pollLast(bytes, key)) != null) {
+            if (!allocation.isRecycled(node.value)) {
+                return node.value;
+            }
+        }
+        if (!bestFit) {
+            return null;
+        }
+        while ((node = pollBestFit(bytes, maxBytes)) != null) {
+            if (!allocation.isRecycled(node.value)) {
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Puts the entry into the pool and evicts the oldest entries as required. An entry which is too large for this
+     * pool is recycled.
+     *
+     * @param value the entry
+     * @return true if the entry has been pooled
+     */
+    public boolean offer(B value) {
+        int bytes = allocation.getByteCount(value);
+        if (bytes > MAX_ENTRY_RATIO * capacity) {
+            allocation.recycle(value);
+            return false;
+        }
+        while (count > 0 && size + bytes > capacity) {
+            evict();
+        }
+        Node<B> node = new Node<>(value, allocation.getKey(value), bytes);
+        int sizeClass = sizeClassOf(bytes);
+        TreeMap<Integer, Map<Object, ArrayDeque<Node<B>>>> entries = classes.get(sizeClass);
+        Map<Object, ArrayDeque<Node<B>>> keys = entries.get(bytes);
+        if (keys == null) {
+            keys = new LinkedHashMap<>();
+            entries.put(bytes, keys);
+            nonEmpty |= 1 << sizeClass;
+        }
+        ArrayDeque<Node<B>> deque = keys.get(node.key);
+        if (deque == null) {
+            deque = new ArrayDeque<>();
+            keys.put(node.key, deque);
+        }
+        deque.offerLast(node);
+        node.before = youngest;
+        if (youngest == null) {
+            eldest = node;
+        } else {
+            youngest.after = node;
+        }
+        youngest = node;
+        count++;
+        size += bytes;
+        return true;
+    }
+
+    /**
+     * Returns the amount of pooled entries of the key, which are not recycled.
+     */
+    public int count(Object key, int bytes) {
+        ArrayDeque<Node<B>> deque = dequeOf(bytes, key);
+        if (deque == null) {
+            return 0;
+        }
+        int c = 0;
+        for (Node<B> node : deque) {
+            if (!allocation.isRecycled(node.value)) {
+                c++;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Returns the amount of pooled entries, which are not recycled and accepted by the filter. Iterates all entries.
+     */
+    public int count(Function<B, Boolean> filter) {
+        int c = 0;
+        for (Node<B> node = eldest; node != null; node = node.after) {
+            if (!allocation.isRecycled(node.value) && filter.apply(node.value)) {
+                c++;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Checks if the entry is pooled, by identity. Iterates all entries, so only use it for debugging.
+     */
+    public boolean contains(B value) {
+        for (Node<B> node = eldest; node != null; node = node.after) {
+            if (node.value == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the amount of pooled entries.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the sum of bytes of all pooled entries.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Removes and recycles all entries.
+     */
+    public void clear() {
+        for (Node<B> node = eldest; node != null; node = node.after) {
+            if (!allocation.isRecycled(node.value)) {
+                allocation.recycle(node.value);
+            }
+        }
+        for (TreeMap<Integer, Map<Object, ArrayDeque<Node<B>>>> entries : classes) {
+            entries.clear();
+        }
+        eldest = null;
+        youngest = null;
+        nonEmpty = 0;
+        count = 0;
+        size = 0;
+    }
+
+    /**
+     * Removes and recycles the least recently returned entry.
+     */
+    private void evict() {
+        Node<B> oldest = eldest;
+        //the oldest entry is also the oldest of its key
+        ArrayDeque<Node<B>> deque = dequeOf(oldest.bytes, oldest.key);
+        deque.pollFirst();
+        removed(oldest, deque);
+        if (!allocation.isRecycled(oldest.value)) {
+            allocation.recycle(oldest.value);
+        }
+    }
+
+    @Nullable
+    private ArrayDeque<Node<B>> dequeOf(int bytes, Object key) {
+        Map<Object, ArrayDeque<Node<B>>> keys = classes.get(sizeClassOf(bytes)).get(bytes);
+        if (keys == null) {
+            return null;
+        }
+        return keys.get(key);
+    }
+
+    @Nullable
+    private Node<B> pollLast(int bytes, Object key) {
+        ArrayDeque<Node<B>> deque = dequeOf(bytes, key);
+        if (deque == null) {
+            return null;
+        }
+        Node<B> node = deque.pollLast();
+        removed(node, deque);
+        return node;
+    }
+
+    /**
+     * Removes the most recently returned entry of the smallest byte count, which is at least the given one.
+     */
+    @Nullable
+    private Node<B> pollBestFit(int bytes, int maxBytes) {
+        int sizeClass = sizeClassOf(bytes);
+        Map.Entry<Integer, Map<Object, ArrayDeque<Node<B>>>> fit = classes.get(sizeClass).ceilingEntry(bytes);
+        if (fit == null) {
+            //all entries of a higher class have at least 2^class bytes and therefore fit
+            int mask = nonEmpty & (-2 << sizeClass);
+            if (mask == 0) {
+                return null;
+            }
+            fit = classes.get(Integer.numberOfTrailingZeros(mask)).firstEntry();
+        }
+        if (fit.getKey() > maxBytes) {
+            return null;
+        }
+        //all keys of the same byte count are equally good
+        ArrayDeque<Node<B>> deque = fit.getValue().values().iterator().next();
+        Node<B> node = deque.pollLast();
+        removed(node, deque);
+        return node;
+    }
+
+    private void removed(Node<B> node, ArrayDeque<Node<B>> deque) {
+        if (node.before == null) {
+            eldest = node.after;
+        } else {
+            node.before.after = node.after;
+        }
+        if (node.after == null) {
+            youngest = node.before;
+        } else {
+            node.after.before = node.before;
+        }
+        node.before = null;
+        node.after = null;
+        count--;
+        size -= node.bytes;
+        if (deque.isEmpty()) {
+            int sizeClass = sizeClassOf(node.bytes);
+            TreeMap<Integer, Map<Object, ArrayDeque<Node<B>>>> entries = classes.get(sizeClass);
+            Map<Object, ArrayDeque<Node<B>>> keys = entries.get(node.bytes);
+            keys.remove(node.key);
+            if (keys.isEmpty()) {
+                entries.remove(node.bytes);
+                if (entries.isEmpty()) {
+                    nonEmpty &= ~(1 << sizeClass);
+                }
+            }
+        }
+    }
+
+    private static int sizeClassOf(int bytes) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(1, bytes));
+    }
+
+    /**
+     * Accessor of the pooled entries, e.g. of android bitmaps.
+     *
+     * @param <B> the type of the entries
+     */
+    public interface Allocation<B> {
+        /**
+         * The amount of bytes, which the entry occupies. Must not change while the entry is pooled.
+         */
+        int getByteCount(B entry);
+
+        /**
+         * The key of entries, which are exchangeable without any waste. Must implement equals and hashcode.
+         */
+        Object getKey(B entry);
+
+        boolean isRecycled(B entry);
+
+        void recycle(B entry);
+    }
+
+    private static final class Node<B> {
+        private final B value;
+        private final Object key;
+        private final int bytes;
+        @Nullable
+        private Node<B> before;
+        @Nullable
+        private Node<B> after;
+
+        private Node(B value, Object key, int bytes) {
+            this.value = value;
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+}
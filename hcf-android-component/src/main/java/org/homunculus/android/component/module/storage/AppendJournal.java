@@ -0,0 +1,298 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculus.android.component.module.storage;
+
+import androidx.annotation.Nullable;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Stores a byte array as a snapshot file plus an append only journal of changes, so that a small change of a large
+ * value only appends a small record instead of rewriting the whole file. Each record replaces a single range of the
+ * previous state, which is the difference between the previous and the new state (common prefix and suffix are
+ * kept). When the journal becomes too large relative to the snapshot, the current state is written as a new snapshot
+ * (tmp file and rename) and the journal is removed.
+ * <p>
+ * Recovery reads the snapshot and applies all intact records. A truncated or corrupted record (e.g. after a crash
+ * while appending) and everything behind it is cut off, so the state of the last complete save is restored.
+ * The journal header contains the length and the crc of its snapshot, so a journal which survived a compaction
+ * is never applied to the newer snapshot.
+ * <p>
+ * Not thread safe. The last state is kept in memory to calculate the differences.
+ *
+ * @since 1.0
+ */
+final class AppendJournal {
+
+    //"HCJ1"
+    private static final int MAGIC = 0x48434A31;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    //start, removed, inserted length and crc
+    private static final int RECORD_OVERHEAD = 4 + 4 + 4 + 4;
+    //a journal is never compacted below this size
+    private static final int MIN_COMPACT_SIZE = 64 * 1024;
+
+    private final File snapshot;
+    private final File journal;
+    @Nullable
+    private byte[] current;
+    private int snapshotLength;
+    private long snapshotCrc;
+    private long journalLength;
+
+    AppendJournal(File snapshot) {
+        this.snapshot = snapshot;
+        this.journal = new File(snapshot.getPath() + ".journal");
+    }
+
+    /**
+     * Reads the snapshot and applies the journal. A corrupted tail of the journal is truncated.
+     *
+     * @return the last saved state or null if there is none
+     */
+    @Nullable
+    byte[] recover() throws IOException {
+        current = null;
+        journalLength = 0;
+        if (!snapshot.exists()) {
+            //a journal without a snapshot cannot be applied
+            deleteJournal();
+            return null;
+        }
+        byte[] data = readFully(snapshot);
+        snapshotLength = data.length;
+        snapshotCrc = crc(data, 0, data.length);
+        if (journal.exists()) {
+            data = replay(data);
+        }
+        current = data;
+        return data;
+    }
+
+    /**
+     * Saves the new state, either by appending a record or by compacting.
+     */
+    void append(byte[] data) throws IOException {
+        byte[] last = current;
+        if (last == null) {
+            compact(data);
+            return;
+        }
+        int prefix = 0;
+        int max = Math.min(last.length, data.length);
+        while (prefix < max && last[prefix] == data[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        max -= prefix;
+        while (suffix < max && last[last.length - 1 - suffix] == data[data.length - 1 - suffix]) {
+            suffix++;
+        }
+        int removed = last.length - prefix - suffix;
+        int inserted = data.length - prefix - suffix;
+        if (removed == 0 && inserted == 0) {
+            return;
+        }
+        long size = (journalLength == 0 ? HEADER_SIZE : 0) + RECORD_OVERHEAD + inserted;
+        if (journalLength + size > Math.max(MIN_COMPACT_SIZE, data.length / 2)) {
+            compact(data);
+            return;
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journal, journalLength > 0), Math.min(64 * 1024, (int) size)));
+        try {
+            if (journalLength == 0) {
+                out.writeInt(MAGIC);
+                out.writeInt(snapshotLength);
+                out.writeLong(snapshotCrc);
+            }
+            CRC32 crc = new CRC32();
+            updateInt(crc, prefix);
+            updateInt(crc, removed);
+            updateInt(crc, inserted);
+            crc.update(data, prefix, inserted);
+            out.writeInt(prefix);
+            out.writeInt(removed);
+            out.writeInt(inserted);
+            out.write(data, prefix, inserted);
+            out.writeInt((int) crc.getValue());
+        } finally {
+            out.close();
+        }
+        journalLength += size;
+        current = data;
+    }
+
+    /**
+     * Writes the state as the new snapshot and removes the journal.
+     */
+    void compact(byte[] data) throws IOException {
+        File tmp = new File(snapshot.getParentFile(), UUID.randomUUID().toString());
+        if (!snapshot.getParentFile().exists()) {
+            snapshot.getParentFile().mkdirs();
+        }
+        FileOutputStream fout = new FileOutputStream(tmp);
+        try {
+            fout.write(data);
+        } finally {
+            fout.close();
+        }
+        //rename replaces atomically on posix, only fall back to delete first where it does not
+        if (!tmp.renameTo(snapshot)) {
+            if (!snapshot.delete() && snapshot.exists()) {
+                tmp.delete();
+                throw new IOException("unable to delete " + snapshot);
+            }
+            if (!tmp.renameTo(snapshot)) {
+                throw new IOException("unable to move " + tmp + " -> " + snapshot);
+            }
+        }
+        //a crash before this point leaves a journal, which does not match the snapshot and is discarded
+        deleteJournal();
+        snapshotLength = data.length;
+        snapshotCrc = crc(data, 0, data.length);
+        journalLength = 0;
+        current = data;
+    }
+
+    /**
+     * Compacts the current state, if the journal is not empty.
+     */
+    void compact() throws IOException {
+        if (current != null && journalLength > 0) {
+            compact(current);
+        }
+    }
+
+    /**
+     * Removes the snapshot and the journal.
+     */
+    void delete() throws IOException {
+        deleteJournal();
+        if (!snapshot.delete() && snapshot.exists()) {
+            throw new IOException("cannot remove " + snapshot);
+        }
+        current = null;
+        journalLength = 0;
+    }
+
+    /**
+     * The current size of the journal in bytes.
+     */
+    long getJournalLength() {
+        return journalLength;
+    }
+
+    private byte[] replay(byte[] data) throws IOException {
+        long fileLength = journal.length();
+        long valid = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+        try {
+            if (fileLength < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != snapshotLength || in.readLong() != snapshotCrc) {
+                LoggerFactory.getLogger(getClass()).warn("discarding journal {}, it does not belong to the snapshot", journal);
+                in.close();
+                deleteJournal();
+                return data;
+            }
+            valid = HEADER_SIZE;
+            while (valid < fileLength) {
+                int start = in.readInt();
+                int removed = in.readInt();
+                int inserted = in.readInt();
+                if (start < 0 || removed < 0 || inserted < 0 || start > data.length - removed || inserted > fileLength - valid - RECORD_OVERHEAD) {
+                    break;
+                }
+                byte[] bytes = new byte[inserted];
+                in.readFully(bytes);
+                CRC32 crc = new CRC32();
+                updateInt(crc, start);
+                updateInt(crc, removed);
+                updateInt(crc, inserted);
+                crc.update(bytes);
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+                byte[] next = new byte[data.length - removed + inserted];
+                System.arraycopy(data, 0, next, 0, start);
+                System.arraycopy(bytes, 0, next, start, inserted);
+                System.arraycopy(data, start + removed, next, start + inserted, data.length - start - removed);
+                data = next;
+                valid += RECORD_OVERHEAD + inserted;
+            }
+        } catch (EOFException e) {
+            //a truncated record, cut off below
+        } finally {
+            in.close();
+        }
+        if (valid < fileLength) {
+            LoggerFactory.getLogger(getClass()).warn("truncating corrupted journal {} from {} to {} bytes", journal, fileLength, valid);
+            RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+            try {
+                raf.setLength(valid);
+            } finally {
+                raf.close();
+            }
+        }
+        journalLength = valid;
+        return data;
+    }
+
+    private void deleteJournal() throws IOException {
+        if (!journal.delete() && journal.exists()) {
+            throw new IOException("cannot remove " + journal);
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("file too large: " + file);
+        }
+        byte[] data = new byte[(int) length];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private static long crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    private static void updateInt(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculus.android.component.module.storage;
+
+import androidx.annotation.Nullable;
+
+import org.homunculusframework.factory.serializer.BufferSerializer;
+import org.homunculusframework.factory.serializer.Serializer;
+import org.homunculusframework.lang.Panic;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * A key value store of serialized objects in a single memory mapped file, e.g. for many small settings, which would
+ * otherwise require a file per {@link Persistent}. The index of all keys is kept in memory, so a read is a hash lookup
+ * and a deserialization from the mapped memory, without any file access. The value area of a record has room for two
+ * versions of the value (plus some slack), so a value is updated in place by writing it beside the current one and
+ * then switching to it. If it does not fit beside the current one, a new record is appended and the old one is marked
+ * as dead. The file is compacted when more than half of it is dead.
+ * <p>
+ * The file layout is a header (magic, version, end of the used area) followed by records of state, key length,
+ * value capacity, value length, utf-8 key and value area. A non-negative length denotes a value at the start of the
+ * value area, a negative length (the complement of the length) a value at its end. Each change becomes visible by
+ * writing a single int: the length for an update in place, the end for an append and the state for a removal. So an
+ * interrupted change always leaves the previous value, and on opening the last live record of a key wins. Written
+ * data is in the page cache immediately and survives a crash of the process, use {@link #flush()} to force it to the
+ * storage. A truncated file is opened with the records, which are complete.
+ * <p>
+ * This class is thread safe.
+ *
+ * @since 1.0
+ */
+public class MappedStore implements Closeable {
+
+    //"HCFM"
+    private static final int MAGIC = 0x4843464D;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4;
+    private static final int END_OFFSET = 8;
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 4 + 4;
+    private static final int LIVE = 0x4C495645;
+    private static final int DEAD = 0x44454144;
+    private static final int MIN_FILE_SIZE = 16 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final Serializer serializer;
+    private final Map<String, Record> index = new HashMap<>();
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    //the end of the used area
+    private int end;
+    //the bytes of dead records
+    private int dead;
+
+    /**
+     * Opens or creates the store.
+     *
+     * @param file       the file
+     * @param serializer the serializer of the values, a {@link BufferSerializer} reads directly from the mapped memory
+     */
+    public MappedStore(File file, Serializer serializer) throws IOException {
+        this.file = file;
+        this.serializer = serializer;
+        if (file.getParentFile() != null && !file.getParentFile().exists()) {
+            file.getParentFile().mkdirs();
+        }
+        open();
+    }
+
+    public Serializer getSerializer() {
+        return serializer;
+    }
+
+    /**
+     * Returns the value of the key or null.
+     */
+    @Nullable
+    public synchronized <T> T get(String key, Class<T> type) throws IOException {
+        ensureOpen();
+        Record record = index.get(key);
+        if (record == null) {
+            return null;
+        }
+        ByteBuffer value = buffer.duplicate();
+        value.limit(record.valuePosition() + record.length);
+        value.position(record.valuePosition());
+        if (serializer instanceof BufferSerializer) {
+            return ((BufferSerializer) serializer).deserialize(value.slice(), type);
+        }
+        byte[] tmp = new byte[record.length];
+        value.get(tmp);
+        return serializer.deserialize(new ByteArrayInputStream(tmp), type);
+    }
+
+    /**
+     * Puts the value, a null value removes the key.
+     */
+    public synchronized void put(String key, @Nullable Object value) throws IOException {
+        ensureOpen();
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        if (!serializer.serialize(value, bout)) {
+            throw new Panic("the serializer " + serializer + " rejected serialization");
+        }
+        byte[] data = bout.toByteArray();
+        Record record = index.get(key);
+        if (record != null && data.length <= record.capacity - record.length) {
+            //in place, beside the current value, which stays intact until the length is switched
+            boolean atEnd = !record.atEnd;
+            buffer.position(atEnd ? record.valueOffset() + record.capacity - data.length : record.valueOffset());
+            buffer.put(data);
+            buffer.putInt(record.offset + 12, atEnd ? ~data.length : data.length);
+            record.length = data.length;
+            record.atEnd = atEnd;
+            return;
+        }
+        byte[] keyBytes = key.getBytes(UTF8);
+        Record appended = append(keyBytes, capacityOf(data.length), data, 0, data.length);
+        if (record != null) {
+            buffer.putInt(record.offset, DEAD);
+            dead += record.size();
+        }
+        index.put(key, appended);
+        compactIfRequired();
+    }
+
+    /**
+     * Removes the key.
+     *
+     * @return true if the key existed
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        ensureOpen();
+        Record record = index.remove(key);
+        if (record == null) {
+            return false;
+        }
+        buffer.putInt(record.offset, DEAD);
+        dead += record.size();
+        compactIfRequired();
+        return true;
+    }
+
+    public synchronized boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Returns a sorted copy of all keys.
+     */
+    public synchronized Set<String> keys() {
+        return new TreeSet<>(index.keySet());
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Forces all changes to the storage device.
+     */
+    public synchronized void flush() throws IOException {
+        ensureOpen();
+        buffer.force();
+    }
+
+    /**
+     * Rewrites the live records into a new file, without the dead records and the slack.
+     */
+    public synchronized void compact() throws IOException {
+        ensureOpen();
+        File tmp = new File(file.getParentFile(), UUID.randomUUID().toString());
+        List<String> keys = new ArrayList<>(index.keySet());
+        RandomAccessFile dst = new RandomAccessFile(tmp, "rw");
+        try {
+            int size = HEADER_SIZE;
+            for (String key : keys) {
+                Record record = index.get(key);
+                size += RECORD_HEADER_SIZE + record.keyLength + capacityOf(record.length);
+            }
+            MappedByteBuffer out = dst.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(MIN_FILE_SIZE, size + size / 2));
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(0);
+            for (String key : keys) {
+                Record record = index.get(key);
+                int capacity = capacityOf(record.length);
+                out.putInt(LIVE);
+                out.putInt(record.keyLength);
+                out.putInt(capacity);
+                out.putInt(record.length);
+                ByteBuffer src = buffer.duplicate();
+                src.limit(record.valueOffset());
+                src.position(record.offset + RECORD_HEADER_SIZE);
+                out.put(src);
+                src.limit(record.valuePosition() + record.length);
+                src.position(record.valuePosition());
+                out.put(src);
+                out.position(out.position() + capacity - record.length);
+            }
+            out.putInt(END_OFFSET, out.position());
+            out.force();
+        } finally {
+            dst.close();
+        }
+        raf.close();
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            //the old file is still intact
+            open();
+            throw new IOException("unable to move " + tmp + " -> " + file);
+        }
+        open();
+    }
+
+    /**
+     * Closes the file. The mapped memory is released by the garbage collector.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            buffer.force();
+            raf.close();
+            raf = null;
+            buffer = null;
+            index.clear();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (raf == null) {
+            throw new IOException("store is closed: " + file);
+        }
+    }
+
+    private void open() throws IOException {
+        index.clear();
+        dead = 0;
+        raf = new RandomAccessFile(file, "rw");
+        long length = raf.length();
+        if (length < HEADER_SIZE) {
+            map(MIN_FILE_SIZE);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            setEnd(HEADER_SIZE);
+            return;
+        }
+        if (length > Integer.MAX_VALUE) {
+            raf.close();
+            raf = null;
+            throw new IOException("file too large: " + file);
+        }
+        map((int) length);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) > VERSION) {
+            raf.close();
+            raf = null;
+            throw new IOException("not a store or an unsupported version: " + file);
+        }
+        end = buffer.getInt(END_OFFSET);
+        if (end < HEADER_SIZE) {
+            raf.close();
+            raf = null;
+            throw new IOException("corrupted store, invalid end " + end + ": " + file);
+        }
+        if (end > length) {
+            LoggerFactory.getLogger(getClass()).warn("truncated store {}, the end {} is behind the file length {}", file, end, length);
+            end = (int) length;
+        }
+        int pos = HEADER_SIZE;
+        while (pos < end) {
+            if (end - pos < RECORD_HEADER_SIZE) {
+                LoggerFactory.getLogger(getClass()).warn("truncated record at {} in {}", pos, file);
+                break;
+            }
+            int keyLength = buffer.getInt(pos + 4);
+            int capacity = buffer.getInt(pos + 8);
+            int rawLength = buffer.getInt(pos + 12);
+            int dataLength = rawLength < 0 ? ~rawLength : rawLength;
+            //each field on its own and in long arithmetic, damaged fields must not overflow the record size
+            long available = (long) end - pos - RECORD_HEADER_SIZE;
+            if (keyLength < 0 || keyLength > available || capacity < 0 || capacity > available - keyLength || dataLength > capacity) {
+                //the end is only moved behind complete records, so the file has been truncated or damaged
+                LoggerFactory.getLogger(getClass()).error("corrupted record at {} in {}, ignoring the remaining records", pos, file);
+                break;
+            }
+            Record record = new Record(pos, keyLength, capacity, dataLength);
+            record.atEnd = rawLength < 0;
+            if (buffer.getInt(pos) == LIVE) {
+                byte[] key = new byte[record.keyLength];
+                ByteBuffer src = buffer.duplicate();
+                src.position(pos + RECORD_HEADER_SIZE);
+                src.get(key);
+                Record previous = index.put(new String(key, UTF8), record);
+                if (previous != null) {
+                    //an interrupted replacement, the later record wins
+                    buffer.putInt(previous.offset, DEAD);
+                    dead += previous.size();
+                }
+            } else {
+                dead += record.size();
+            }
+            pos += record.size();
+        }
+        if (pos != buffer.getInt(END_OFFSET)) {
+            //appending behind the damaged area would make the new records unreachable on the next opening
+            setEnd(pos);
+        }
+    }
+
+    private void map(int size) throws IOException {
+        if (raf.length() < size) {
+            raf.setLength(size);
+        }
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void setEnd(int end) {
+        this.end = end;
+        buffer.putInt(END_OFFSET, end);
+    }
+
+    private Record append(byte[] key, int capacity, byte[] data, int offset, int length) throws IOException {
+        Record record = new Record(end, key.length, capacity, length);
+        long required = (long) end + record.size();
+        if (required > Integer.MAX_VALUE) {
+            throw new IOException("store is full: " + file);
+        }
+        if (required > buffer.capacity()) {
+            long grown = Math.max(required, 2L * buffer.capacity());
+            map((int) Math.min(Integer.MAX_VALUE, grown));
+        }
+        buffer.position(end + 4);
+        buffer.putInt(key.length);
+        buffer.putInt(capacity);
+        buffer.putInt(length);
+        buffer.put(key);
+        buffer.put(data, offset, length);
+        buffer.putInt(end, LIVE);
+        setEnd(end + record.size());
+        return record;
+    }
+
+    /**
+     * The capacity of a value area, which has room for two versions of the value and some slack for growing values,
+     * e.g. strings.
+     */
+    private static int capacityOf(int length) throws IOException {
+        long capacity = 2L * length + Math.max(8, length / 4);
+        if (capacity > Integer.MAX_VALUE - RECORD_HEADER_SIZE) {
+            throw new IOException("value too large: " + length);
+        }
+        return (int) capacity;
+    }
+
+    private void compactIfRequired() throws IOException {
+        if (end > MIN_FILE_SIZE && dead > end / 2) {
+            compact();
+        }
+    }
+
+    private static final class Record {
+        private final int offset;
+        private final int keyLength;
+        private final int capacity;
+        private int length;
+        //true, if the value is at the end of the value area
+        private boolean atEnd;
+
+        private Record(int offset, int keyLength, int capacity, int length) {
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.capacity = capacity;
+            this.length = length;
+        }
+
+        private int valueOffset() {
+            return offset + RECORD_HEADER_SIZE + keyLength;
+        }
+
+        private int valuePosition() {
+            return atEnd ? valueOffset() + capacity - length : valueOffset();
+        }
+
+        private int size() {
+            return RECORD_HEADER_SIZE + keyLength + capacity;
+        }
+    }
+}
@@ -19,21 +19,31 @@ import android.content.Context;
 
 import androidx.annotation.Nullable;
 
-import org.homunculusframework.factory.serializer.Serializable;
+import org.homunculusframework.concurrent.Task;
+import org.homunculusframework.factory.scope.Scope;
 import org.homunculusframework.factory.serializer.Serializer;
 import org.homunculusframework.lang.Destroyable;
 import org.homunculusframework.lang.Panic;
 import org.homunculusframework.lang.Reference;
 import org.homunculusframework.lang.Reflection;
+import org.homunculusframework.lang.Result;
+import org.homunculusframework.scope.SettableTask;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A simple persistent wrapper to easily serialize objects. This is more or less an anti pattern and should be
@@ -45,15 +55,47 @@ import java.util.UUID;
  */
 public class Persistent<T> implements Reference<T>, Destroyable {
 
+    @Nullable
     private final File targetDir;
     private final String name;
     private final Serializer serializer;
+    @Nullable
+    private final AppendJournal journal;
+    @Nullable
+    private final MappedStore store;
     private volatile T value;
+    //true if set has been called after the last load or save
+    private volatile boolean dirty;
+    @Nullable
+    private volatile Executor writeBehind;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    //the amount of requested and written saves, to complete the flushes
+    private final AtomicLong requestedSaves = new AtomicLong();
+    private volatile long writtenSaves;
+    private final List<PendingFlush> pendingFlushes = new ArrayList<>();
 
     public Persistent(File targetDir, String name, Serializer serializer) {
+        this(targetDir, name, serializer, false);
+    }
+
+    /**
+     * Creates a persistent value, which is optionally journaled. Without a journal, each save writes the entire value
+     * into a tmp file and renames it. With a journal, only the changed range of the serialized value is appended
+     * to a journal file, which is compacted into the snapshot file, if it grows too large. After a crash, the state
+     * of the last complete save is recovered. This is the better choice for large values with small changes,
+     * but the serialized value is kept in memory, see {@link AppendJournal}.
+     *
+     * @param targetDir  the folder
+     * @param name       the unique name
+     * @param serializer the serializer, which should create similar output for similar values
+     * @param journaled  true to append changes to a journal
+     */
+    public Persistent(File targetDir, String name, Serializer serializer, boolean journaled) {
         this.serializer = serializer;
         this.targetDir = targetDir;
         this.name = name;
+        this.journal = journaled ? new AppendJournal(getFile(targetDir, name, serializer, Object.class)) : null;
+        this.store = null;
         try {
             load();
         } catch (Exception e) {
@@ -62,14 +104,35 @@ public class Persistent<T> implements Reference<T>, Destroyable {
     }
 
     /**
-     * Writes into a "persistent" folder in the app's private folder using the default java serializable pattern.
+     * Creates a persistent value, which is the entry of the given name in a shared store. This avoids a file per value
+     * and loading is a lookup in the mapped memory of the store, so use it for many small values.
+     *
+     * @param store the store, which also defines the serializer
+     * @param name  the unique key within the store
+     */
+    public Persistent(MappedStore store, String name) {
+        this.serializer = store.getSerializer();
+        this.targetDir = null;
+        this.name = name;
+        this.journal = null;
+        this.store = store;
+        try {
+            load();
+        } catch (Exception e) {
+            LoggerFactory.getLogger(getClass()).error("failed to load", e);
+        }
+    }
+
+    /**
+     * Writes into a "persistent" folder in the app's private folder using the {@link PersistentSerializer}, which
+     * still reads the files of the former default java serializable pattern.
      * Don't forget to choose a unique name.
      *
      * @param context
      * @param name
      */
     public Persistent(Context context, String name) {
-        this(new File(context.getFilesDir(), "persistent"), name, new Serializable());
+        this(new File(context.getFilesDir(), "persistent"), name, new PersistentSerializer());
     }
 
     @Override
@@ -78,9 +141,35 @@ public class Persistent<T> implements Reference<T>, Destroyable {
         return value;
     }
 
+    /**
+     * Sets the value and marks it as dirty, also if it is the same instance. An instance which is modified in place
+     * must be set again, to be saved in the write behind mode.
+     */
     @Override
     public void set(@Nullable T value) {
         this.value = value;
+        this.dirty = true;
+    }
+
+    /**
+     * Returns true, if the value has been set after the last load or save.
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Enables or disables the write behind mode. In this mode {@link #save()} and {@link #destroy()} skip unchanged
+     * values (see {@link #isDirty()}) and otherwise only schedule the write on the given executor, so the caller thread
+     * (typically the main thread) neither serializes nor writes. Subsequent saves before the write has been started
+     * are coalesced into a single write of the latest value. The value is serialized in the background, so it should
+     * be replaced by {@link #set(Object)} instead of being modified in place. Use {@link #flush(Scope)} for points of
+     * durability.
+     *
+     * @param executor the executor for the writes, e.g. a single background thread, or null to write synchronously
+     */
+    public void setWriteBehind(@Nullable Executor executor) {
+        this.writeBehind = executor;
     }
 
     /**
@@ -89,22 +178,156 @@ public class Persistent<T> implements Reference<T>, Destroyable {
      */
     public void load() throws IOException {
         synchronized (this) {
-            this.value = (T) read(targetDir, name, serializer, Object.class);
+            dirty = false;
+            if (store != null) {
+                this.value = (T) store.get(name, Object.class);
+                return;
+            }
+            if (journal == null) {
+                this.value = (T) read(targetDir, name, serializer, Object.class);
+                return;
+            }
+            byte[] data = journal.recover();
+            if (data == null || data.length == 0) {
+                this.value = null;
+            } else {
+                this.value = (T) serializer.deserialize(new ByteArrayInputStream(data), Object.class);
+            }
         }
     }
 
     /**
      * Explicitly tries to save the current value of this reference, ignoring failures.
-     * See also {@link #write(File, String, Serializer, Class, Object)}
+     * See also {@link #write(File, String, Serializer, Class, Object)}. In write behind mode (see
+     * {@link #setWriteBehind(Executor)}), this only schedules the write, if the value is dirty.
      */
     public void save() throws IOException {
+        Executor executor = writeBehind;
+        if (executor == null) {
+            requestedSaves.incrementAndGet();
+            long covered;
+            try {
+                synchronized (this) {
+                    //all saves requested until now are covered by this write
+                    covered = requestedSaves.get();
+                    writeNow();
+                }
+            } catch (IOException | RuntimeException e) {
+                written(requestedSaves.get(), e instanceof IOException ? (IOException) e : new IOException(e));
+                throw e;
+            }
+            written(covered, null);
+            return;
+        }
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        requestedSaves.incrementAndGet();
+        if (writeScheduled.compareAndSet(false, true)) {
+            executor.execute(this::writeBehind);
+        }
+    }
+
+    /**
+     * Saves a dirty value and returns a task, which is done when all saves requested so far have been written.
+     * The result contains the failure of the last write, if any.
+     *
+     * @param scope the scope for the callbacks of the task, may be null
+     */
+    public Task<Result<Void>> flush(@Nullable Scope scope) {
+        SettableTask<Result<Void>> task = SettableTask.create(scope, "flush-" + name);
+        try {
+            save();
+        } catch (IOException e) {
+            task.set(Result.<Void>create().setThrowable(e));
+            return task;
+        }
+        synchronized (pendingFlushes) {
+            long target = requestedSaves.get();
+            if (writtenSaves >= target) {
+                task.set(Result.<Void>create());
+            } else {
+                pendingFlushes.add(new PendingFlush(target, task));
+            }
+        }
+        return task;
+    }
+
+    private void writeBehind() {
+        writeScheduled.set(false);
+        //all saves requested until now are covered by this write
+        long covered = requestedSaves.get();
+        IOException failure = null;
         synchronized (this) {
-            write(targetDir, name, serializer, Object.class, value);
+            try {
+                writeNow();
+            } catch (IOException | RuntimeException e) {
+                LoggerFactory.getLogger(getClass()).error("failed to save " + name, e);
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                //try again with the next save
+                dirty = true;
+            }
         }
+        written(covered, failure);
     }
 
     /**
-     * Saves the value, whatever that is, ignoring any failure.
+     * Completes the flushes, which wait for the covered saves.
+     */
+    private void written(long covered, @Nullable IOException failure) {
+        synchronized (pendingFlushes) {
+            if (covered > writtenSaves) {
+                writtenSaves = covered;
+            }
+            for (int i = pendingFlushes.size() - 1; i >= 0; i--) {
+                PendingFlush flush = pendingFlushes.get(i);
+                if (flush.target <= covered) {
+                    pendingFlushes.remove(i);
+                    flush.task.set(Result.<Void>create().setThrowable(failure));
+                }
+            }
+        }
+    }
+
+    private void writeNow() throws IOException {
+        //cleared before reading, so that a concurrent set is written again
+        dirty = false;
+        T current = value;
+        if (store != null) {
+            store.put(name, current);
+            return;
+        }
+        if (journal == null) {
+            write(targetDir, name, serializer, Object.class, current);
+            return;
+        }
+        if (current == null) {
+            journal.delete();
+            return;
+        }
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        if (!serializer.serialize(current, bout)) {
+            throw new Panic("the serializer " + serializer + " rejected serialization");
+        }
+        journal.append(bout.toByteArray());
+    }
+
+    /**
+     * Writes the last saved state of a journaled value into a single file and removes the journal. This happens
+     * automatically when saving, if the journal becomes too large. Does nothing if not journaled.
+     */
+    public void compact() throws IOException {
+        synchronized (this) {
+            if (journal != null) {
+                journal.compact();
+            }
+        }
+    }
+
+    /**
+     * Saves the value, whatever that is, ignoring any failure. In write behind mode, an unchanged value is not saved
+     * at all and the write does not block the caller.
      */
     @Override
     public void destroy() {
@@ -127,8 +350,12 @@ public class Persistent<T> implements Reference<T>, Destroyable {
 
     }
 
+    private static File getFile(File targetDir, String name, Serializer serializer, Class<?> type) {
+        return new File(targetDir, Reflection.getName(type) + "_" + name + "." + serializer.getId());
+    }
+
     public static void write(File targetDir, String name, Serializer serializer, Class<?> type, Object obj) throws IOException {
-        File dstFile = new File(targetDir, Reflection.getName(type) + "_" + name + "." + serializer.getId());
+        File dstFile = getFile(targetDir, name, serializer, type);
         if (obj == null) {
             if (!dstFile.delete()) {
                 if (dstFile.exists()) {
@@ -171,7 +398,7 @@ public class Persistent<T> implements Reference<T>, Destroyable {
 
     @Nullable
     public static <T> T read(File targetDir, String name, Serializer serializer, Class<T> type) throws IOException {
-        File dstFile = new File(targetDir, Reflection.getName(type) + "_" + name + "." + serializer.getId());
+        File dstFile = getFile(targetDir, name, serializer, type);
         if (dstFile.length() == 0) {
             return null;
         }
@@ -185,4 +412,14 @@ public class Persistent<T> implements Reference<T>, Destroyable {
             fin.close();
         }
     }
+
+    private static final class PendingFlush {
+        private final long target;
+        private final SettableTask<Result<Void>> task;
+
+        private PendingFlush(long target, SettableTask<Result<Void>> task) {
+            this.target = target;
+            this.task = task;
+        }
+    }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculus.android.component.module.storage;
+
+import org.homunculusframework.factory.serializer.CompactValues;
+import org.homunculusframework.factory.serializer.Serializable;
+import org.homunculusframework.factory.serializer.Serializer;
+import org.homunculusframework.factory.serializer.SerializerRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The default serializer of {@link Persistent}. Values are written by {@link CompactValues}, behind the header of the
+ * {@link SerializerRegistry}. Any value with a header of a registered serializer, or without a header but written by
+ * {@link Serializable} (as all files written by former versions), can be read. So existing files are migrated on the
+ * next save. The id is the one of {@link Serializable}, so that the existing files are found.
+ *
+ * @since 1.0
+ */
+public class PersistentSerializer implements Serializer {
+
+    private static final SerializerRegistry REGISTRY = SerializerRegistry.createDefault();
+    private static final String WRITER_ID = new CompactValues().getId();
+    private static final String ID = new Serializable().getId();
+
+    @Override
+    public boolean serialize(Object src, OutputStream dst) throws IOException {
+        return REGISTRY.serialize(src, WRITER_ID, dst);
+    }
+
+    @Override
+    public <T> T deserialize(InputStream in, Class<T> type) throws IOException {
+        return REGISTRY.deserialize(in, type);
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculus.android.component;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The lookups, the size accounting and the eviction of the {@link SizeClassPool} with fake bitmaps on the plain jvm,
+ * as used by the exact dimension pool and by the best fit pool of reconfigurable bitmaps.
+ *
+ * @since 1.0
+ */
+public class SizeClassPoolTest {
+
+    private static final int KB = 1024;
+
+    private static SizeClassPool<FakeBitmap> exactPool(int capacity) {
+        return new SizeClassPool<>(new DimensionAllocation(), capacity, false);
+    }
+
+    private static SizeClassPool<FakeBitmap> bestFitPool(int capacity) {
+        return new SizeClassPool<>(new ReconfigurableAllocation(), capacity, true);
+    }
+
+    private static FakeBitmap take(SizeClassPool<FakeBitmap> pool, int bytes) {
+        return pool.take(bytes, bytes, bytes * 11);
+    }
+
+    @Test
+    public void reusesTheMostRecentlyReturnedEntryOfAKey() {
+        SizeClassPool<FakeBitmap> pool = exactPool(10 * 1000 * 1000);
+        FakeBitmap first = new FakeBitmap(100, 100);
+        FakeBitmap second = new FakeBitmap(100, 100);
+        FakeBitmap other = new FakeBitmap(50, 200);
+        pool.offer(first);
+        pool.offer(other);
+        pool.offer(second);
+        assertEquals(2, pool.count(FakeBitmap.key(100, 100), 100 * 100 * 4));
+
+        assertSame(second, pool.take(FakeBitmap.key(100, 100), 100 * 100 * 4, 100 * 100 * 4));
+        assertSame(first, pool.take(FakeBitmap.key(100, 100), 100 * 100 * 4, 100 * 100 * 4));
+        //same bytes but another dimension is not exchangeable without reconfiguration
+        assertNull(pool.take(FakeBitmap.key(100, 100), 100 * 100 * 4, 100 * 100 * 4));
+        assertSame(other, pool.take(FakeBitmap.key(50, 200), 50 * 200 * 4, 50 * 200 * 4));
+        assertEquals(0, pool.getCount());
+    }
+
+    @Test
+    public void bestFitWithinTheRequestedClass() {
+        SizeClassPool<FakeBitmap> pool = bestFitPool(10 * 1000 * 1000);
+        FakeBitmap fit = FakeBitmap.allocated(450 * KB);
+        pool.offer(fit);
+        //400 and 450 KB have the same size class, but another key
+        assertSame(fit, take(pool, 400 * KB));
+
+        FakeBitmap larger = FakeBitmap.allocated(500 * KB);
+        FakeBitmap smaller = FakeBitmap.allocated(300 * KB);
+        pool.offer(FakeBitmap.allocated(500 * KB));
+        pool.offer(fit);
+        pool.offer(larger);
+        pool.offer(smaller);
+        assertSame(fit, take(pool, 400 * KB));
+        assertSame(larger, take(pool, 400 * KB));
+        assertEquals(500 * KB, take(pool, 400 * KB).allocation);
+        assertNull(take(pool, 400 * KB));
+        assertSame(smaller, take(pool, 300 * KB));
+    }
+
+    @Test
+    public void bestFitFromTheSmallestHigherClass() {
+        SizeClassPool<FakeBitmap> pool = bestFitPool(100 * 1000 * 1000);
+        FakeBitmap smaller = FakeBitmap.allocated(300 * KB);
+        FakeBitmap next = FakeBitmap.allocated(600 * KB);
+        FakeBitmap huge = FakeBitmap.allocated(4000 * KB);
+        pool.offer(huge);
+        pool.offer(next);
+        pool.offer(smaller);
+        assertSame(next, take(pool, 400 * KB));
+        assertSame(huge, take(pool, 400 * KB));
+        assertNull(take(pool, 400 * KB));
+        assertSame(smaller, take(pool, 200 * KB));
+    }
+
+    @Test
+    public void bestFitRespectsTheMaximumWaste() {
+        SizeClassPool<FakeBitmap> pool = bestFitPool(100 * 1000 * 1000);
+        FakeBitmap sameClass = FakeBitmap.allocated(500 * KB);
+        FakeBitmap higherClass = FakeBitmap.allocated(2000 * KB);
+        pool.offer(sameClass);
+        pool.offer(higherClass);
+        assertNull(pool.take(400 * KB, 400 * KB, 450 * KB));
+        assertSame(sameClass, pool.take(400 * KB, 400 * KB, 500 * KB));
+        assertNull(pool.take(400 * KB, 400 * KB, 1999 * KB));
+        assertSame(higherClass, pool.take(400 * KB, 400 * KB, 2000 * KB));
+    }
+
+    @Test
+    public void exactPoolDoesNotTakeOtherKeys() {
+        SizeClassPool<FakeBitmap> pool = exactPool(10 * 1000 * 1000);
+        pool.offer(new FakeBitmap(200, 200));
+        assertNull(pool.take(FakeBitmap.key(100, 100), 100 * 100 * 4, Integer.MAX_VALUE));
+        assertEquals(1, pool.getCount());
+    }
+
+    @Test
+    public void discardsRecycledEntries() {
+        SizeClassPool<FakeBitmap> pool = bestFitPool(10 * 1000 * 1000);
+        FakeBitmap recycled = FakeBitmap.allocated(450 * KB);
+        FakeBitmap alive = FakeBitmap.allocated(500 * KB);
+        pool.offer(alive);
+        pool.offer(recycled);
+        recycled.recycled = true;
+        assertEquals(0, pool.count(450 * KB, 450 * KB));
+        assertSame(alive, take(pool, 400 * KB));
+        assertEquals(0, pool.getCount());
+        assertEquals(0, pool.getSize());
+    }
+
+    @Test
+    public void countsByFilter() {
+        SizeClassPool<FakeBitmap> pool = bestFitPool(10 * 1000 * 1000);
+        pool.offer(new FakeBitmap(100, 100));
+        pool.offer(new FakeBitmap(100, 100));
+        pool.offer(new FakeBitmap(50, 200));
+        FakeBitmap recycled = new FakeBitmap(100, 100);
+        pool.offer(recycled);
+        recycled.recycled = true;
+        assertEquals(2, pool.count(bmp -> bmp.width == 100 && bmp.height == 100));
+        assertEquals(1, pool.count(bmp -> bmp.width == 50));
+        assertFalse(pool.contains(new FakeBitmap(100, 100)));
+        assertTrue(pool.contains(recycled));
+    }
+
+    /**
+     * Checks that count and size are the sum of the pooled entries and that only recycled entries have left the pool.
+     *
+     * @param offered the entries, which have been offered and not taken
+     */
+    private static void assertAccounting(SizeClassPool<FakeBitmap> pool, List<FakeBitmap> offered) {
+        int count = 0;
+        int size = 0;
+        for (FakeBitmap bmp : offered) {
+            if (pool.contains(bmp)) {
+                count++;
+                size += bmp.allocation;
+            } else {
+                assertTrue(bmp.recycled);
+            }
+        }
+        assertEquals(count, pool.getCount());
+        assertEquals(size, pool.getSize());
+        assertTrue(pool.getSize() <= pool.getCapacity());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyReturnedEntries() {
+        SizeClassPool<FakeBitmap> pool = bestFitPool(300 * KB);
+        FakeBitmap first = FakeBitmap.allocated(100 * KB);
+        FakeBitmap second = FakeBitmap.allocated(100 * KB);
+        FakeBitmap third = FakeBitmap.allocated(50 * KB);
+        pool.offer(first);
+        pool.offer(second);
+        pool.offer(third);
+        assertEquals(250 * KB, pool.getSize());
+
+        //returning again makes an entry the youngest
+        assertSame(second, take(pool, 100 * KB));
+        pool.offer(second);
+        assertTrue(pool.offer(FakeBitmap.allocated(150 * KB)));
+        assertTrue(first.recycled);
+        assertFalse(third.recycled);
+        assertFalse(second.recycled);
+        assertEquals(300 * KB, pool.getSize());
+
+        assertTrue(pool.offer(FakeBitmap.allocated(100 * KB)));
+        assertTrue(third.recycled);
+        assertTrue(second.recycled);
+        assertEquals(2, pool.getCount());
+        assertEquals(250 * KB, pool.getSize());
+    }
+
+    @Test
+    public void recyclesEntriesLargerThanTheCapacityAllows() {
+        SizeClassPool<FakeBitmap> pool = exactPool(1000 * KB);
+        FakeBitmap pooled = FakeBitmap.allocated(100 * KB);
+        pool.offer(pooled);
+        FakeBitmap large = new FakeBitmap(1000, 200);
+        assertFalse(pool.offer(large));
+        assertTrue(large.recycled);
+        assertFalse(pooled.recycled);
+        assertEquals(1, pool.getCount());
+        assertEquals(100 * KB, pool.getSize());
+    }
+
+    @Test
+    public void clearRecyclesAllEntries() {
+        SizeClassPool<FakeBitmap> pool = bestFitPool(1000 * KB);
+        List<FakeBitmap> offered = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            FakeBitmap bmp = FakeBitmap.allocated(i * 10 * KB);
+            offered.add(bmp);
+            pool.offer(bmp);
+        }
+        pool.clear();
+        for (FakeBitmap bmp : offered) {
+            assertTrue(bmp.recycled);
+        }
+        assertAccounting(pool, offered);
+        assertNull(take(pool, 1));
+    }
+
+    @Test
+    public void keepsTheAccountingInvariants() {
+        Random random = new Random(42);
+        for (boolean bestFit : new boolean[]{false, true}) {
+            SizeClassPool<FakeBitmap> pool = bestFit ? bestFitPool(2000 * KB) : exactPool(2000 * KB);
+            List<FakeBitmap> offered = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                int width = 16 << random.nextInt(5);
+                int height = 16 << random.nextInt(5);
+                if (random.nextBoolean()) {
+                    FakeBitmap bmp = new FakeBitmap(width, height);
+                    offered.add(bmp);
+                    assertTrue(pool.offer(bmp));
+                } else if (random.nextInt(10) == 0 && !offered.isEmpty()) {
+                    //recycled while pooled, e.g. by a careless caller
+                    offered.get(random.nextInt(offered.size())).recycled = true;
+                    //the pool still accounts for it, until it is discarded
+                    continue;
+                } else {
+                    int bytes = width * height * 4;
+                    FakeBitmap bmp = bestFit ? take(pool, bytes) : pool.take(FakeBitmap.key(width, height), bytes, bytes);
+                    if (bmp != null) {
+                        assertFalse(bmp.recycled);
+                        assertTrue(bmp.allocation >= bytes);
+                        assertFalse(pool.contains(bmp));
+                        assertTrue(offered.remove(bmp));
+                    }
+                }
+                assertAccounting(pool, offered);
+            }
+        }
+    }
+
+    /**
+     * Borrows and returns random bitmaps of a pool with 500 entries and compares it with the former linear scan
+     * of a list, which also recalculated the size on each return. The numbers are printed and not asserted.
+     */
+    @Test
+    public void benchmarkPoolWith500Entries() {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        int entries = 500;
+        int rounds = 100000;
+        int[] sizes = new int[entries];
+        Random random = new Random(7);
+        for (int i = 0; i < entries; i++) {
+            sizes[i] = (64 + random.nextInt(512)) * (64 + random.nextInt(512)) * 4;
+        }
+        SizeClassPool<FakeBitmap> pool = bestFitPool(Integer.MAX_VALUE);
+        LinearPool linear = new LinearPool(Integer.MAX_VALUE);
+        for (int size : sizes) {
+            pool.offer(FakeBitmap.allocated(size));
+            linear.offer(FakeBitmap.allocated(size));
+        }
+        long poolNanos = 0;
+        long linearNanos = 0;
+        //the first round is the warm up
+        for (int warmup = 0; warmup < 2; warmup++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                int bytes = sizes[(i * 31) % entries] - 1;
+                FakeBitmap bmp = pool.take(bytes, bytes, Integer.MAX_VALUE);
+                pool.offer(bmp);
+            }
+            poolNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                int bytes = sizes[(i * 31) % entries] - 1;
+                FakeBitmap bmp = linear.take(bytes);
+                linear.offer(bmp);
+            }
+            linearNanos = System.nanoTime() - start;
+        }
+        System.out.printf("borrow and return with %d pooled bitmaps: size classes %.3f us, linear scan %.3f us%n",
+                entries, poolNanos / 1000.0 / rounds, linearNanos / 1000.0 / rounds);
+        assertEquals(entries, pool.getCount());
+        assertEquals(entries, linear.entries.size());
+    }
+
+    /**
+     * The former bookkeeping of the bitmap pools, as a baseline.
+     */
+    private static final class LinearPool {
+        private final LinkedList<FakeBitmap> entries = new LinkedList<>();
+        private final int capacity;
+
+        private LinearPool(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private FakeBitmap take(int bytes) {
+            FakeBitmap best = null;
+            Iterator<FakeBitmap> it = entries.iterator();
+            while (it.hasNext()) {
+                FakeBitmap bmp = it.next();
+                if (bmp.allocation >= bytes && (best == null || bmp.allocation < best.allocation)) {
+                    best = bmp;
+                }
+            }
+            entries.remove(best);
+            return best;
+        }
+
+        private void offer(FakeBitmap bmp) {
+            long size = 0;
+            for (FakeBitmap pooled : entries) {
+                size += pooled.allocation;
+            }
+            while (!entries.isEmpty() && size + bmp.allocation > capacity) {
+                size -= entries.removeFirst().allocation;
+            }
+            entries.add(bmp);
+        }
+    }
+
+    /**
+     * A bitmap without pixels. The allocation may be larger than required by the dimension, like a reconfigured
+     * android bitmap.
+     */
+    static final class FakeBitmap {
+        final int width;
+        final int height;
+        final int allocation;
+        boolean recycled;
+
+        FakeBitmap(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.allocation = width * height * 4;
+        }
+
+        private FakeBitmap(int allocation) {
+            this.width = allocation / 4;
+            this.height = 1;
+            this.allocation = allocation;
+        }
+
+        static FakeBitmap allocated(int bytes) {
+            return new FakeBitmap(bytes);
+        }
+
+        static Long key(int width, int height) {
+            return ((long) width << 32) | height;
+        }
+    }
+
+    static final class DimensionAllocation implements SizeClassPool.Allocation<FakeBitmap> {
+
+        @Override
+        public int getByteCount(FakeBitmap bmp) {
+            return bmp.width * bmp.height * 4;
+        }
+
+        @Override
+        public Object getKey(FakeBitmap bmp) {
+            return FakeBitmap.key(bmp.width, bmp.height);
+        }
+
+        @Override
+        public boolean isRecycled(FakeBitmap bmp) {
+            return bmp.recycled;
+        }
+
+        @Override
+        public void recycle(FakeBitmap bmp) {
+            bmp.recycled = true;
+        }
+    }
+
+    static final class ReconfigurableAllocation implements SizeClassPool.Allocation<FakeBitmap> {
+
+        @Override
+        public int getByteCount(FakeBitmap bmp) {
+            return bmp.allocation;
+        }
+
+        @Override
+        public Object getKey(FakeBitmap bmp) {
+            return bmp.allocation;
+        }
+
+        @Override
+        public boolean isRecycled(FakeBitmap bmp) {
+            return bmp.recycled;
+        }
+
+        @Override
+        public void recycle(FakeBitmap bmp) {
+            bmp.recycled = true;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculus.android.component.module.storage;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Appending, compaction and the recovery of damaged journals of the {@link AppendJournal} in a temporary directory
+ * and a benchmark against rewriting the whole file.
+ *
+ * @since 1.0
+ */
+public class AppendJournalTest {
+
+    //start, removed, inserted length and crc
+    private static final int RECORD_OVERHEAD = 16;
+    private static final int HEADER_SIZE = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Returns a copy of the data with the bytes at the offset replaced.
+     */
+    private static byte[] change(byte[] data, int offset, byte... bytes) {
+        byte[] res = Arrays.copyOf(data, data.length);
+        System.arraycopy(bytes, 0, res, offset, bytes.length);
+        return res;
+    }
+
+    private static File journalOf(File snapshot) {
+        return new File(snapshot.getPath() + ".journal");
+    }
+
+    private static byte[] recover(File snapshot) throws IOException {
+        return new AppendJournal(snapshot).recover();
+    }
+
+    @Test
+    public void recoversTheLastState() throws Exception {
+        File file = new File(folder.getRoot(), "value");
+        AppendJournal journal = new AppendJournal(file);
+        assertNull(journal.recover());
+        byte[] v0 = random(100_000, 1);
+        journal.append(v0);
+        assertTrue(file.exists());
+        assertEquals(0, journal.getJournalLength());
+
+        byte[] v1 = change(v0, 10, (byte) 1, (byte) 2, (byte) 3);
+        journal.append(v1);
+        //only the changed range is appended
+        assertEquals(HEADER_SIZE + RECORD_OVERHEAD + 3, journal.getJournalLength());
+        assertEquals(journal.getJournalLength(), journalOf(file).length());
+
+        //insert, remove and grow
+        byte[] v2 = new byte[v1.length + 5];
+        System.arraycopy(v1, 0, v2, 0, 500);
+        System.arraycopy(v1, 500, v2, 505, v1.length - 500);
+        byte[] v3 = Arrays.copyOfRange(v2, 0, v2.length - 1000);
+        byte[] v4 = Arrays.copyOf(v3, v3.length + 10);
+        journal.append(v2);
+        journal.append(v3);
+        journal.append(v4);
+        //an unchanged state is not appended
+        long length = journal.getJournalLength();
+        journal.append(v4.clone());
+        assertEquals(length, journal.getJournalLength());
+
+        assertArrayEquals(v4, recover(file));
+        assertEquals(v0.length, file.length());
+    }
+
+    @Test
+    public void compactsALargeJournal() throws Exception {
+        File file = new File(folder.getRoot(), "value");
+        AppendJournal journal = new AppendJournal(file);
+        byte[] data = random(256 * 1024, 2);
+        journal.append(data);
+        for (int i = 0; i < 100; i++) {
+            data = change(data, i * 1024, random(1024, i));
+            journal.append(data);
+            //never larger than half of the value
+            assertTrue(journal.getJournalLength() <= data.length / 2);
+        }
+        assertArrayEquals(data, recover(file));
+
+        journal.compact();
+        assertEquals(0, journal.getJournalLength());
+        assertFalse(journalOf(file).exists());
+        assertArrayEquals(data, recover(file));
+    }
+
+    @Test
+    public void cutsATruncatedRecord() throws Exception {
+        File file = new File(folder.getRoot(), "value");
+        AppendJournal journal = new AppendJournal(file);
+        byte[] v0 = random(10_000, 3);
+        byte[] v1 = change(v0, 100, random(50, 4));
+        byte[] v2 = change(v1, 200, random(50, 5));
+        journal.append(v0);
+        journal.append(v1);
+        journal.append(v2);
+        File jfile = journalOf(file);
+        long complete = jfile.length();
+        long first = HEADER_SIZE + RECORD_OVERHEAD + 50;
+
+        //each cut within the last record restores the state before it
+        for (long cut = complete - 1; cut > first; cut -= 7) {
+            truncate(jfile, cut);
+            AppendJournal recovered = new AppendJournal(file);
+            assertArrayEquals("cut at " + cut, v1, recovered.recover());
+            assertEquals(first, jfile.length());
+            assertEquals(first, recovered.getJournalLength());
+        }
+
+        //a torn header discards the journal entirely
+        truncate(jfile, HEADER_SIZE - 3);
+        assertArrayEquals(v0, recover(file));
+        assertFalse(jfile.exists());
+    }
+
+    @Test
+    public void continuesAfterARecovery() throws Exception {
+        File file = new File(folder.getRoot(), "value");
+        AppendJournal journal = new AppendJournal(file);
+        byte[] v0 = random(10_000, 6);
+        byte[] v1 = change(v0, 100, random(50, 7));
+        journal.append(v0);
+        journal.append(v1);
+        journal.append(change(v1, 300, random(50, 8)));
+        File jfile = journalOf(file);
+        truncate(jfile, jfile.length() - 10);
+
+        AppendJournal recovered = new AppendJournal(file);
+        assertArrayEquals(v1, recovered.recover());
+        byte[] v2 = change(v1, 400, random(50, 9));
+        recovered.append(v2);
+        assertArrayEquals(v2, recover(file));
+    }
+
+    @Test
+    public void cutsAtABadCrc() throws Exception {
+        File file = new File(folder.getRoot(), "value");
+        AppendJournal journal = new AppendJournal(file);
+        byte[] v0 = random(10_000, 10);
+        byte[] v1 = change(v0, 100, random(50, 11));
+        byte[] v2 = change(v1, 200, random(50, 12));
+        byte[] v3 = change(v2, 300, random(50, 13));
+        journal.append(v0);
+        journal.append(v1);
+        journal.append(v2);
+        journal.append(v3);
+        File jfile = journalOf(file);
+        long record = RECORD_OVERHEAD + 50;
+
+        //a flipped payload byte of the second record, so the third is cut off as well
+        long second = HEADER_SIZE + record;
+        flip(jfile, second + 12 + 20);
+        AppendJournal recovered = new AppendJournal(file);
+        assertArrayEquals(v1, recovered.recover());
+        assertEquals(second, jfile.length());
+
+        //a flipped crc
+        recovered.append(v2);
+        flip(jfile, jfile.length() - 1);
+        assertArrayEquals(v1, recover(file));
+
+        //a flipped length, which points behind the end of the file
+        recovered = new AppendJournal(file);
+        recovered.recover();
+        recovered.append(v2);
+        flip(jfile, second + 8);
+        assertArrayEquals(v1, recover(file));
+    }
+
+    @Test
+    public void discardsTheJournalOfAnotherSnapshot() throws Exception {
+        File file = new File(folder.getRoot(), "value");
+        AppendJournal journal = new AppendJournal(file);
+        byte[] v0 = random(10_000, 14);
+        byte[] v1 = change(v0, 100, random(50, 15));
+        journal.append(v0);
+        journal.append(v1);
+        File jfile = journalOf(file);
+        byte[] stale = Files.readAllBytes(jfile.toPath());
+
+        //a crash after the compaction renamed the snapshot, but before it deleted the journal
+        byte[] v2 = change(v1, 0, random(5000, 16));
+        journal.compact(v2);
+        Files.write(jfile.toPath(), stale);
+        assertArrayEquals(v2, recover(file));
+        assertFalse(jfile.exists());
+
+        //a journal without a snapshot
+        Files.write(jfile.toPath(), stale);
+        assertTrue(file.delete());
+        assertNull(recover(file));
+        assertFalse(jfile.exists());
+    }
+
+    /**
+     * 200 changes of 64 bytes of a 5 MiB value, appended versus rewriting the value each time, without any fsync.
+     */
+    @Test
+    public void appendBenchmark() throws Exception {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        byte[] base = random(5 * 1024 * 1024, 17);
+        for (int round = 0; round < 2; round++) {
+            //the first round is the warm up
+            int changes = round == 0 ? 20 : 200;
+            File appended = folder.newFile();
+            File rewritten = folder.newFile();
+            AppendJournal journal = new AppendJournal(appended);
+            AppendJournal full = new AppendJournal(rewritten);
+            journal.append(base);
+            full.append(base);
+            byte[] data = base;
+            long appendNanos = 0;
+            long rewriteNanos = 0;
+            long appendedBytes = 0;
+            Random random = new Random(round);
+            for (int i = 0; i < changes; i++) {
+                byte[] bytes = new byte[64];
+                random.nextBytes(bytes);
+                data = change(data, random.nextInt(data.length - 64), bytes);
+                long before = journal.getJournalLength();
+                long start = System.nanoTime();
+                journal.append(data);
+                appendNanos += System.nanoTime() - start;
+                appendedBytes += journal.getJournalLength() > before ? journal.getJournalLength() - before : data.length;
+                start = System.nanoTime();
+                full.compact(data);
+                rewriteNanos += System.nanoTime() - start;
+            }
+            assertArrayEquals(data, recover(appended));
+            assertArrayEquals(data, recover(rewritten));
+            if (round == 1) {
+                System.out.printf("%d changes of 64 bytes of 5 MiB: append %d ms (%d KiB written), rewrite %d ms (%d KiB written)%n",
+                        changes, appendNanos / 1_000_000, appendedBytes / 1024, rewriteNanos / 1_000_000, (long) changes * data.length / 1024);
+                assertTrue(appendNanos < rewriteNanos);
+            }
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void flip(File file, long offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0x40);
+        } finally {
+            raf.close();
+        }
+    }
+}
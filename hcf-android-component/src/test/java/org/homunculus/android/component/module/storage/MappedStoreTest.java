@@ -0,0 +1,326 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculus.android.component.module.storage;
+
+import org.homunculusframework.factory.serializer.CompactValues;
+import org.homunculusframework.factory.serializer.Serializable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Updates, compaction and the recovery of interrupted changes and damaged files of the {@link MappedStore} in a
+ * temporary directory. An interrupted change is simulated by writing what it would have written up to its last
+ * step.
+ *
+ * @since 1.0
+ */
+public class MappedStoreTest {
+
+    private static final int HEADER_SIZE = 12;
+    private static final int END_OFFSET = 8;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int DEAD = 0x44454144;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String text(int length, char c) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static int readInt(File file, long offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(offset);
+            return raf.readInt();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void scribble(File file, long offset, int length) throws IOException {
+        byte[] garbage = new byte[length];
+        new Random(offset).nextBytes(garbage);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(offset);
+            raf.write(garbage);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeInt(File file, long offset, int value) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(offset);
+            raf.writeInt(value);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void putsGetsAndReopens() throws Exception {
+        File file = new File(folder.getRoot(), "store");
+        MappedStore store = new MappedStore(file, new CompactValues());
+        store.put("a", "alpha");
+        store.put("b", text(100_000, 'b'));
+        store.put("c", "gamma");
+        assertTrue(store.remove("c"));
+        assertFalse(store.remove("c"));
+        store.put("d", null);
+        store.close();
+
+        store = new MappedStore(file, new CompactValues());
+        assertEquals(2, store.size());
+        assertEquals("alpha", store.get("a", String.class));
+        assertEquals(text(100_000, 'b'), store.get("b", String.class));
+        assertNull(store.get("c", String.class));
+        store.close();
+
+        //the stream based path of a serializer, which is not a buffer serializer
+        store = new MappedStore(new File(folder.getRoot(), "ser"), new Serializable());
+        store.put("a", "alpha");
+        store.put("a", "beta");
+        assertEquals("beta", store.get("a", String.class));
+        store.close();
+    }
+
+    @Test
+    public void updatesInPlace() throws Exception {
+        File file = new File(folder.getRoot(), "store");
+        MappedStore store = new MappedStore(file, new CompactValues());
+        store.put("key", text(100, 'a'));
+        int end = readInt(file, END_OFFSET);
+        for (int i = 0; i < 100; i++) {
+            String value = text(100 - i % 10, (char) ('a' + i % 26));
+            store.put("key", value);
+            assertEquals(value, store.get("key", String.class));
+        }
+        //nothing has been appended
+        assertEquals(end, readInt(file, END_OFFSET));
+        store.close();
+        store = new MappedStore(file, new CompactValues());
+        assertEquals(text(91, (char) ('a' + 99 % 26)), store.get("key", String.class));
+        store.close();
+    }
+
+    @Test
+    public void appendsAGrowingValue() throws Exception {
+        File file = new File(folder.getRoot(), "store");
+        MappedStore store = new MappedStore(file, new CompactValues());
+        store.put("key", "small");
+        int end = readInt(file, END_OFFSET);
+        store.put("key", text(1000, 'x'));
+        assertTrue(readInt(file, END_OFFSET) > end);
+        assertEquals(1, store.size());
+        store.close();
+        store = new MappedStore(file, new CompactValues());
+        assertEquals(text(1000, 'x'), store.get("key", String.class));
+        assertEquals(1, store.size());
+        store.close();
+    }
+
+    @Test
+    public void interruptedUpdateInPlaceLeavesThePreviousValue() throws Exception {
+        File file = new File(folder.getRoot(), "store");
+        MappedStore store = new MappedStore(file, new CompactValues());
+        store.put("key", text(100, 'a'));
+        store.close();
+        int capacity = readInt(file, HEADER_SIZE + 8);
+        int length = readInt(file, HEADER_SIZE + 12);
+        int valueOffset = HEADER_SIZE + RECORD_HEADER_SIZE + 3;
+        assertTrue(length >= 0);
+
+        //the new value has been written at the end of the value area, but the length has not been switched
+        scribble(file, valueOffset + length, capacity - length);
+        store = new MappedStore(file, new CompactValues());
+        assertEquals(text(100, 'a'), store.get("key", String.class));
+        store.put("key", text(100, 'b'));
+        store.close();
+        assertTrue(readInt(file, HEADER_SIZE + 12) < 0);
+
+        //the same for an update back to the start of the value area
+        length = ~readInt(file, HEADER_SIZE + 12);
+        scribble(file, valueOffset, capacity - length);
+        store = new MappedStore(file, new CompactValues());
+        assertEquals(text(100, 'b'), store.get("key", String.class));
+        store.put("key", text(100, 'c'));
+        store.close();
+        store = new MappedStore(file, new CompactValues());
+        assertEquals(text(100, 'c'), store.get("key", String.class));
+        store.close();
+    }
+
+    @Test
+    public void interruptedAppendLeavesThePreviousValue() throws Exception {
+        File file = new File(folder.getRoot(), "store");
+        MappedStore store = new MappedStore(file, new CompactValues());
+        store.put("key", "small");
+        store.close();
+        int end = readInt(file, END_OFFSET);
+        //a record behind the end, whose end has not been moved
+        scribble(file, end, 200);
+        store = new MappedStore(file, new CompactValues());
+        assertEquals("small", store.get("key", String.class));
+        store.put("key", text(1000, 'x'));
+        store.close();
+        store = new MappedStore(file, new CompactValues());
+        assertEquals(text(1000, 'x'), store.get("key", String.class));
+        store.close();
+    }
+
+    @Test
+    public void opensATruncatedFile() throws Exception {
+        File file = new File(folder.getRoot(), "store");
+        MappedStore store = new MappedStore(file, new CompactValues());
+        for (int i = 0; i < 100; i++) {
+            store.put("key" + i, text(1000, (char) ('a' + i % 26)));
+        }
+        store.close();
+        int end = readInt(file, END_OFFSET);
+        //within the 51st record
+        truncate(file, HEADER_SIZE + (end - HEADER_SIZE) / 2 + 100);
+
+        store = new MappedStore(file, new CompactValues());
+        assertEquals(50, store.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(text(1000, (char) ('a' + i % 26)), store.get("key" + i, String.class));
+        }
+        assertFalse(store.contains("key50"));
+        //new records are not hidden behind the damaged one
+        store.put("key50", "again");
+        store.put("key0", text(5000, 'z'));
+        store.close();
+        store = new MappedStore(file, new CompactValues());
+        assertEquals(51, store.size());
+        assertEquals("again", store.get("key50", String.class));
+        assertEquals(text(5000, 'z'), store.get("key0", String.class));
+        store.close();
+    }
+
+    @Test
+    public void ignoresTheRecordsBehindADamagedOne() throws Exception {
+        File file = new File(folder.getRoot(), "store");
+        MappedStore store = new MappedStore(file, new CompactValues());
+        store.put("a", "alpha");
+        store.put("b", "beta");
+        store.put("c", "gamma");
+        store.close();
+        int second = HEADER_SIZE + RECORD_HEADER_SIZE + 1 + readInt(file, HEADER_SIZE + 8);
+        //a torn capacity of the second record
+        scribble(file, second + 8, 4);
+
+        store = new MappedStore(file, new CompactValues());
+        assertEquals(1, store.size());
+        assertEquals("alpha", store.get("a", String.class));
+        store.put("d", "delta");
+        store.close();
+        store = new MappedStore(file, new CompactValues());
+        assertEquals("delta", store.get("d", String.class));
+        store.close();
+    }
+
+    @Test(timeout = 10_000)
+    public void ignoresRecordSizesWhichOverflow() throws Exception {
+        for (int damage = 0; damage < 4; damage++) {
+            File file = folder.newFile();
+            MappedStore store = new MappedStore(file, new CompactValues());
+            store.put("a", "alpha");
+            store.put("b", "beta");
+            store.close();
+            int second = HEADER_SIZE + RECORD_HEADER_SIZE + 1 + readInt(file, HEADER_SIZE + 8);
+            int capacity = readInt(file, second + 8);
+            switch (damage) {
+                case 0:
+                    //a live record with a huge key, the record size overflows to a negative int
+                    writeInt(file, second + 4, Integer.MAX_VALUE - capacity);
+                    break;
+                case 1:
+                    //the same for a dead record, which would move the position backwards
+                    writeInt(file, second, DEAD);
+                    writeInt(file, second + 4, Integer.MAX_VALUE - capacity);
+                    break;
+                case 2:
+                    //a dead record, whose size overflows to exactly 0 and would never advance
+                    writeInt(file, second, DEAD);
+                    writeInt(file, second + 4, Integer.MAX_VALUE - 14);
+                    writeInt(file, second + 8, Integer.MAX_VALUE);
+                    break;
+                default:
+                    writeInt(file, second + 4, Integer.MIN_VALUE);
+                    break;
+            }
+
+            store = new MappedStore(file, new CompactValues());
+            assertEquals(1, store.size());
+            assertEquals("alpha", store.get("a", String.class));
+            store.close();
+        }
+    }
+
+    @Test
+    public void compactionKeepsTheCurrentValues() throws Exception {
+        File file = new File(folder.getRoot(), "store");
+        MappedStore store = new MappedStore(file, new CompactValues());
+        for (int i = 0; i < 100; i++) {
+            store.put("key" + i, text(100, 'a'));
+            //odd values are at the end of their value area
+            if (i % 2 == 1) {
+                store.put("key" + i, text(100, 'b'));
+            }
+        }
+        for (int i = 0; i < 50; i++) {
+            store.put("grown" + i, "small");
+            store.put("grown" + i, text(500, 'g'));
+        }
+        store.compact();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(text(100, i % 2 == 1 ? 'b' : 'a'), store.get("key" + i, String.class));
+        }
+        store.close();
+        store = new MappedStore(file, new CompactValues());
+        assertEquals(150, store.size());
+        assertEquals(text(100, 'b'), store.get("key99", String.class));
+        assertEquals(text(500, 'g'), store.get("grown49", String.class));
+        store.close();
+    }
+}
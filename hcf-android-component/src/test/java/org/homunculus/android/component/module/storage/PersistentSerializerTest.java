@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculus.android.component.module.storage;
+
+import org.homunculusframework.factory.serializer.CompactValues;
+import org.homunculusframework.factory.serializer.Serializable;
+import org.homunculusframework.factory.serializer.Serializer;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The migration of files written by the former default serializer of {@link Persistent} and a size and speed
+ * comparison of both formats.
+ *
+ * @since 1.0
+ */
+public class PersistentSerializerTest {
+
+    private static final byte[] HEADER = ("HCF" + (char) 4 + new CompactValues().getId()).getBytes(StandardCharsets.US_ASCII);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static File fileOf(File dir, String name) {
+        for (File file : dir.listFiles()) {
+            if (file.getName().endsWith("_" + name + "." + new Serializable().getId())) {
+                return file;
+            }
+        }
+        throw new AssertionError("no file for " + name);
+    }
+
+    private static boolean startsWithHeader(File file) throws IOException {
+        byte[] head = new byte[HEADER.length];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            if (in.read(head) != head.length) {
+                return false;
+            }
+        } finally {
+            in.close();
+        }
+        return Arrays.equals(HEADER, head);
+    }
+
+    /**
+     * Writes the value as the former default did, loads it with the current default, saves it and loads it again.
+     *
+     * @return the value as read after the migration
+     */
+    private <T> T migrate(String name, T value) throws IOException {
+        File dir = folder.getRoot();
+        Persistent.write(dir, name, new Serializable(), Object.class, value);
+        File file = fileOf(dir, name);
+        assertFalse(startsWithHeader(file));
+
+        Persistent<T> persistent = new Persistent<>(dir, name, new PersistentSerializer());
+        T loaded = persistent.get();
+        persistent.save();
+        assertEquals(file, fileOf(dir, name));
+        assertTrue(startsWithHeader(file));
+
+        T migrated = new Persistent<T>(dir, name, new PersistentSerializer()).get();
+        assertEquals(value.getClass(), loaded.getClass());
+        assertEquals(value.getClass(), migrated.getClass());
+        return migrated;
+    }
+
+    @Test
+    public void migratesStrings() throws IOException {
+        assertEquals("hello world", migrate("string", "hello world"));
+        assertEquals("", migrate("empty", ""));
+    }
+
+    @Test
+    public void migratesEnums() throws IOException {
+        assertEquals(TimeUnit.SECONDS, migrate("enum", TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void migratesArrays() throws IOException {
+        assertArrayEquals(new String[]{"a", "b", null}, migrate("strings", new String[]{"a", "b", null}));
+        assertArrayEquals(new int[]{1, 2, 3}, migrate("ints", new int[]{1, 2, 3}));
+        assertArrayEquals(new byte[]{1, 2, 3}, migrate("bytes", new byte[]{1, 2, 3}));
+    }
+
+    @Test
+    public void migratesBeans() throws IOException {
+        Bean bean = new Bean();
+        bean.name = "bean";
+        bean.count = 42;
+        bean.values = new HashMap<>();
+        bean.values.put("a", 1L);
+        assertEquals(bean, migrate("bean", bean));
+    }
+
+    private static Map<String, Object> payload() {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            switch (i % 3) {
+                case 0:
+                    map.put("key" + i, "value " + i);
+                    break;
+                case 1:
+                    map.put("key" + i, (long) i * 31);
+                    break;
+                default:
+                    map.put("key" + i, i % 2 == 0);
+                    break;
+            }
+        }
+        return map;
+    }
+
+    private static long[] measure(Serializer serializer, Map<String, Object> payload) throws IOException {
+        int rounds = 50;
+        byte[] data = null;
+        long writeNanos = 0;
+        long readNanos = 0;
+        //the first round is the warm up
+        for (int warmup = 0; warmup < 2; warmup++) {
+            writeNanos = 0;
+            readNanos = 0;
+            for (int i = 0; i < rounds; i++) {
+                long start = System.nanoTime();
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                assertTrue(serializer.serialize(payload, bout));
+                data = bout.toByteArray();
+                writeNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                Object res = serializer.deserialize(new ByteArrayInputStream(data), Object.class);
+                readNanos += System.nanoTime() - start;
+                assertEquals(payload.size(), ((Map<?, ?>) res).size());
+            }
+        }
+        return new long[]{data.length, writeNanos / rounds / 1000, readNanos / rounds / 1000};
+    }
+
+    /**
+     * Compares the former java serialization with the current default for a 10k entry map of strings, longs and
+     * booleans. The numbers are printed, only the size is asserted.
+     */
+    @Test
+    public void benchmarkMapPayload() throws IOException {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        Map<String, Object> payload = payload();
+        long[] java = measure(new Serializable(), payload);
+        long[] compact = measure(new PersistentSerializer(), payload);
+        System.out.printf("10k entry map, java serialization: %d KiB, write %d us, read %d us%n", java[0] / 1024, java[1], java[2]);
+        System.out.printf("10k entry map, persistent serializer: %d KiB, write %d us, read %d us%n", compact[0] / 1024, compact[1], compact[2]);
+        assertTrue(compact[0] < java[0]);
+        assertEquals(payload, new PersistentSerializer().deserialize(new ByteArrayInputStream(serialize(payload)), Object.class));
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        assertTrue(new PersistentSerializer().serialize(value, bout));
+        return bout.toByteArray();
+    }
+
+    static class Bean implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+        String name;
+        int count;
+        HashMap<String, Long> values;
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Bean)) {
+                return false;
+            }
+            Bean other = (Bean) o;
+            return count == other.count && name.equals(other.name) && values.equals(other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + count;
+        }
+    }
+}
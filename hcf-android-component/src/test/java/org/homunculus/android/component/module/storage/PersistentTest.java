@@ -0,0 +1,264 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculus.android.component.module.storage;
+
+import org.homunculusframework.concurrent.Task;
+import org.homunculusframework.factory.serializer.CompactValues;
+import org.homunculusframework.factory.serializer.Serializer;
+import org.homunculusframework.lang.Result;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Flushes, the coalescing of write behind saves and the durability of the {@link Persistent} in its file, journaled
+ * and store backed modes, in a temporary directory.
+ *
+ * @since 1.0
+ */
+public class PersistentTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Result<Void> await(Task<Result<Void>> task) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!task.isDone()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("flush not completed");
+            }
+            Thread.sleep(1);
+        }
+        return task.peek();
+    }
+
+    private static List<String> values(int count, int seed) {
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add("value " + seed + " " + i);
+        }
+        return values;
+    }
+
+    @Test
+    public void flushCompletesSynchronousSaves() throws Exception {
+        File dir = folder.newFolder();
+        Persistent<String> persistent = new Persistent<>(dir, "sync", new CompactValues());
+        persistent.set("hello");
+        Task<Result<Void>> task = persistent.flush(null);
+        assertTrue(task.isDone());
+        assertNull(task.peek().getThrowable());
+
+        //a save without flush also counts as written
+        persistent.set("world");
+        persistent.save();
+        task = persistent.flush(null);
+        assertTrue(task.isDone());
+        assertNull(task.peek().getThrowable());
+        assertEquals("world", new Persistent<String>(dir, "sync", new CompactValues()).get());
+    }
+
+    @Test
+    public void synchronousSaveCompletesPendingFlushes() throws Exception {
+        List<Runnable> queued = new ArrayList<>();
+        Persistent<String> persistent = new Persistent<>(folder.newFolder(), "switch", new CompactValues());
+        persistent.setWriteBehind(queued::add);
+        persistent.set("behind");
+        Task<Result<Void>> pending = persistent.flush(null);
+        assertFalse(pending.isDone());
+
+        //switching to synchronous writes must not leave the flush waiting for the queued write
+        persistent.setWriteBehind(null);
+        persistent.set("sync");
+        persistent.save();
+        assertTrue(pending.isDone());
+        assertNull(pending.peek().getThrowable());
+    }
+
+    @Test
+    public void writeBehindCoalescesSaves() throws Exception {
+        File dir = folder.newFolder();
+        Counting serializer = new Counting();
+        List<Runnable> queued = new ArrayList<>();
+        Persistent<String> persistent = new Persistent<>(dir, "coalesced", serializer);
+        persistent.setWriteBehind(queued::add);
+        for (int i = 0; i < 100; i++) {
+            persistent.set("value " + i);
+            persistent.save();
+        }
+        Task<Result<Void>> task = persistent.flush(null);
+        assertEquals(1, queued.size());
+        assertEquals(0, serializer.writes.get());
+        assertFalse(task.isDone());
+
+        queued.remove(0).run();
+        assertEquals(1, serializer.writes.get());
+        assertTrue(task.isDone());
+        assertNull(task.peek().getThrowable());
+        assertEquals("value 99", new Persistent<String>(dir, "coalesced", new CompactValues()).get());
+
+        //an unchanged value is not written again
+        persistent.save();
+        assertTrue(queued.isEmpty());
+        assertTrue(persistent.flush(null).isDone());
+    }
+
+    @Test
+    public void flushReportsFailedWrites() throws Exception {
+        File dir = folder.newFolder();
+        List<Runnable> queued = new ArrayList<>();
+        Persistent<String> persistent = new Persistent<>(dir, "failing", new CompactValues());
+        persistent.setWriteBehind(queued::add);
+        persistent.set("value");
+        Task<Result<Void>> task = persistent.flush(null);
+        assertTrue(dir.delete());
+        assertTrue(new File(dir.getPath()).createNewFile());
+        queued.remove(0).run();
+        assertTrue(task.isDone());
+        assertTrue(task.peek().getThrowable() instanceof IOException);
+        //still dirty, so the next save tries again
+        assertTrue(persistent.isDirty());
+    }
+
+    @Test
+    public void flushedValuesAreDurable() throws Exception {
+        File dir = folder.newFolder();
+        MappedStore store = new MappedStore(new File(dir, "store"), new CompactValues());
+        List<Persistent<List<String>>> persistents = new ArrayList<>();
+        persistents.add(new Persistent<List<String>>(dir, "file", new CompactValues()));
+        persistents.add(new Persistent<List<String>>(dir, "journaled", new CompactValues(), true));
+        persistents.add(new Persistent<List<String>>(store, "stored"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (Persistent<List<String>> persistent : persistents) {
+                persistent.setWriteBehind(executor);
+                for (int i = 0; i < 10; i++) {
+                    persistent.set(values(100, i));
+                    persistent.save();
+                }
+                assertNull(await(persistent.flush(null)).getThrowable());
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        store.close();
+
+        store = new MappedStore(new File(dir, "store"), new CompactValues());
+        try {
+            assertEquals(values(100, 9), new Persistent<List<String>>(dir, "file", new CompactValues()).get());
+            assertEquals(values(100, 9), new Persistent<List<String>>(dir, "journaled", new CompactValues(), true).get());
+            assertEquals(values(100, 9), new Persistent<List<String>>(store, "stored").get());
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Measures the time of a save on the caller thread, synchronous and in write behind mode, for a value of about
+     * 1 MiB. The numbers are printed, the asserted bound is loose.
+     */
+    @Test
+    public void benchmarkSaveLatency() throws Exception {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        File dir = folder.newFolder();
+        List<List<String>> values = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            values.add(values(50000, i));
+        }
+        Persistent<List<String>> sync = new Persistent<>(dir, "sync", new CompactValues());
+        Persistent<List<String>> behind = new Persistent<>(dir, "behind", new CompactValues());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        behind.setWriteBehind(executor);
+        try {
+            long syncNanos = 0;
+            long behindNanos = 0;
+            //the first round is the warm up
+            for (int round = 0; round < 2; round++) {
+                syncNanos = 0;
+                behindNanos = 0;
+                for (List<String> value : values) {
+                    sync.set(value);
+                    long start = System.nanoTime();
+                    sync.save();
+                    syncNanos += System.nanoTime() - start;
+
+                    behind.set(value);
+                    start = System.nanoTime();
+                    behind.save();
+                    behindNanos += System.nanoTime() - start;
+                    //wait, so that each save is written and not coalesced
+                    assertNull(await(behind.flush(null)).getThrowable());
+                }
+            }
+            long bytes = 0;
+            for (File file : dir.listFiles()) {
+                if (file.getName().contains("_sync.")) {
+                    bytes = file.length();
+                }
+            }
+            System.out.printf("save of %d KiB on the caller thread: synchronous %d us, write behind %d us%n",
+                    bytes / 1024, syncNanos / values.size() / 1000, behindNanos / values.size() / 1000);
+            assertTrue(behindNanos < syncNanos);
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(values.get(9), new Persistent<List<String>>(dir, "behind", new CompactValues()).get());
+    }
+
+    /**
+     * Counts the serializations, to see how many writes have happened.
+     */
+    private static class Counting implements Serializer {
+        private final Serializer delegate = new CompactValues();
+        private final AtomicInteger writes = new AtomicInteger();
+
+        @Override
+        public boolean serialize(Object src, OutputStream dst) throws IOException {
+            writes.incrementAndGet();
+            return delegate.serialize(src, dst);
+        }
+
+        @Override
+        public <T> T deserialize(InputStream in, Class<T> type) throws IOException {
+            return delegate.deserialize(in, type);
+        }
+
+        @Override
+        public String getId() {
+            return delegate.getId();
+        }
+    }
+}
@@ -81,8 +81,8 @@ public class Async {
             MyRequestContext ctx = new MyRequestContext(task);
 
             if (mayInterrupt) {
-                ctx.thread = Thread.currentThread();
-                task.addOnCancelledListener(mayInterruptIfRunning -> ctx.thread.interrupt());
+                ctx.enter();
+                task.addOnCancelledListener(ctx::interrupt);
             }
             Result<T> res;
 
@@ -103,6 +103,9 @@ public class Async {
                     res.put(Result.TAG_CANCELLED);
                 }
             }
+            if (mayInterrupt) {
+                ctx.exit();
+            }
             task.set(res);
         });
         return task;
@@ -172,8 +175,8 @@ public class Async {
         MyRequestContext ctx = new MyRequestContext(task);
         handler.post(() -> {
             if (mayInterrupt) {
-                ctx.thread = Thread.currentThread();
-                task.addOnCancelledListener(mayInterruptIfRunning -> ctx.thread.interrupt());
+                ctx.enter();
+                task.addOnCancelledListener(ctx::interrupt);
             }
             T res;
             try {
@@ -186,6 +189,9 @@ public class Async {
                 LoggerFactory.getLogger(Async.class).error("failed to execute task: ", t);
                 res = null;
             }
+            if (mayInterrupt) {
+                ctx.exit();
+            }
             task.set(res);
         });
         return task;
@@ -208,8 +214,8 @@ public class Async {
         MyRequestContext ctx = new MyRequestContext(task);
         handler.post(() -> {
             if (mayInterrupt) {
-                ctx.thread = Thread.currentThread();
-                task.addOnCancelledListener(mayInterruptIfRunning -> ctx.thread.interrupt());
+                ctx.enter();
+                task.addOnCancelledListener(ctx::interrupt);
             }
             Result<T> res;
 
@@ -230,6 +236,9 @@ public class Async {
                     res.put(Result.TAG_CANCELLED);
                 }
             }
+            if (mayInterrupt) {
+                ctx.exit();
+            }
             task.set(res);
         });
         return task;
@@ -305,11 +314,33 @@ public class Async {
     private static class MyRequestContext implements RequestContext {
         private final SettableTask task;
         private volatile Thread thread;
+        //the pooled thread of a handler, while it executes the closure, guarded by this
+        private Thread running;
 
         public MyRequestContext(SettableTask task) {
             this.task = task;
         }
 
+        synchronized void enter() {
+            running = Thread.currentThread();
+        }
+
+        /**
+         * Interrupts the pooled thread, but only while it executes the closure, because afterwards it may already
+         * execute an unrelated job.
+         */
+        synchronized void interrupt(boolean mayInterruptIfRunning) {
+            if (mayInterruptIfRunning && running != null) {
+                running.interrupt();
+            }
+        }
+
+        synchronized void exit() {
+            running = null;
+            //clears an interrupt, which came too late for the closure
+            Thread.interrupted();
+        }
+
         @Override
         public boolean isCancelled() {
             return task.isCancelled();
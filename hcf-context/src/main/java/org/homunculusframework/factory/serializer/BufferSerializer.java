@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.factory.serializer;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Serializer} which can also work directly on heap or direct {@link ByteBuffer}s, which avoids the
+ * intermediate copies of the stream based contract. See also {@link SerializerRegistry}.
+ *
+ * @since 1.0
+ */
+public interface BufferSerializer extends Serializer {
+
+    /**
+     * Writes the object at the current position of the buffer and advances the position.
+     * Returns false if not supported, just like {@link #serialize(Object, java.io.OutputStream)}.
+     *
+     * @throws BufferOverflowException if the remaining space is not sufficient, the position is undefined then
+     */
+    boolean serialize(Object src, ByteBuffer dst) throws IOException;
+
+    /**
+     * Reads an object from the current position of the buffer and advances the position behind it.
+     */
+    <T> T deserialize(ByteBuffer src, Class<T> type) throws IOException;
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.factory.serializer;
+
+import org.homunculusframework.factory.container.Binding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A compact binary serializer for {@link Binding}s, which is much faster and smaller than {@link Serializable}.
+ * The fields of a binding are written reflectively, sorted by name, with tight encodings for primitives, strings,
+ * byte arrays, {@link java.util.ArrayList}s, {@link java.util.HashMap}s, {@link java.util.LinkedHashMap}s,
+ * {@link java.util.TreeMap}s (natural ordering), enums and nested bindings. Any other {@link java.io.Serializable}
+ * value falls back to java serialization. Cyclic object graphs are not supported.
+ * <p>
+ * Classes are written by name once per stream. Registering a class with a stable id using {@link #register(int, Class)}
+ * writes just the id instead, which must be done equally for serialization and deserialization. To be
+ * instantiable, a binding needs a constructor whose parameter types match its field types, as the generated bindings have.
+ * Registered classes are serialized field-wise, even if they are not bindings. Heap buffers are decoded in place,
+ * without copying, see {@link BufferSerializer}.
+ *
+ * @since 1.0
+ */
+public class Compact implements BufferSerializer {
+    private final CompactClasses classes = new CompactClasses();
+
+    /**
+     * Registers a class with a stable id, so that it is written by id and not by name.
+     *
+     * @param id   the unique and non-negative id
+     * @param type the class
+     * @return this
+     */
+    public Compact register(int id, Class<?> type) {
+        classes.register(id, type);
+        return this;
+    }
+
+    /**
+     * Returns true if the value is serialized by this serializer: bindings and registered classes.
+     */
+    protected boolean accepts(Object src) {
+        return src instanceof Binding || classes.isRegistered(src.getClass());
+    }
+
+    @Override
+    public boolean serialize(Object src, OutputStream dst) throws IOException {
+        if (!accepts(src)) {
+            return false;
+        }
+        CompactWriter writer = new CompactWriter(classes);
+        writer.writeValue(src);
+        writer.writeTo(dst);
+        //we do not close the stream to avoid a closing chain
+        return true;
+    }
+
+    @Override
+    public <T> T deserialize(InputStream in, Class<T> type) throws IOException {
+        byte[] payload = CompactReader.readPayload(in);
+        CompactReader reader = new CompactReader(classes, getClass().getClassLoader(), payload, 0, payload.length);
+        return (T) reader.readValue();
+    }
+
+    @Override
+    public boolean serialize(Object src, ByteBuffer dst) throws IOException {
+        if (!accepts(src)) {
+            return false;
+        }
+        CompactWriter writer = new CompactWriter(classes);
+        writer.writeValue(src);
+        writer.writeTo(dst);
+        return true;
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuffer src, Class<T> type) throws IOException {
+        int len = CompactReader.readPayloadLength(src);
+        CompactReader reader;
+        if (src.hasArray()) {
+            reader = new CompactReader(classes, getClass().getClassLoader(), src.array(), src.arrayOffset() + src.position(), len);
+        } else {
+            byte[] payload = new byte[len];
+            src.duplicate().get(payload);
+            reader = new CompactReader(classes, getClass().getClassLoader(), payload, 0, len);
+        }
+        T res = (T) reader.readValue();
+        src.position(src.position() + len);
+        return res;
+    }
+
+    @Override
+    public String getId() {
+        return "cbin";
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.factory.serializer;
+
+import org.homunculusframework.lang.Panic;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * The class registry and the cached reflection metadata of the {@link Compact} serializer.
+ *
+ * @since 1.0
+ */
+final class CompactClasses {
+    //allocates instances without calling a constructor, like java serialization, if available (jvm and android)
+    @Nullable
+    private static final Object UNSAFE;
+    @Nullable
+    private static final Method ALLOCATE_INSTANCE;
+
+    static {
+        Object unsafe = null;
+        Method allocateInstance = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            allocateInstance = type.getMethod("allocateInstance", Class.class);
+        } catch (Exception e) {
+            //only constructors can be used
+            unsafe = null;
+            allocateInstance = null;
+        }
+        UNSAFE = unsafe;
+        ALLOCATE_INSTANCE = allocateInstance;
+    }
+
+    private final Map<Class<?>, Integer> ids = new HashMap<>();
+    private final Map<Integer, Class<?>> types = new HashMap<>();
+    private final ConcurrentHashMap<Class<?>, ClassInfo> infos = new ConcurrentHashMap<>();
+
+    synchronized void register(int id, Class<?> type) {
+        if (id < 0) {
+            throw new Panic("class ids must not be negative: " + id);
+        }
+        Class<?> other = types.get(id);
+        if (other != null && other != type) {
+            throw new Panic("class id " + id + " is already used by " + other);
+        }
+        ids.put(type, id);
+        types.put(id, type);
+    }
+
+    /**
+     * Returns the registered id or -1.
+     */
+    synchronized int getId(Class<?> type) {
+        Integer id = ids.get(type);
+        return id == null ? -1 : id;
+    }
+
+    synchronized boolean isRegistered(Class<?> type) {
+        return ids.containsKey(type);
+    }
+
+    @Nullable
+    synchronized Class<?> getType(int id) {
+        return types.get(id);
+    }
+
+    ClassInfo getInfo(Class<?> type) {
+        ClassInfo info = infos.get(type);
+        if (info == null) {
+            info = new ClassInfo(type);
+            infos.put(type, info);
+        }
+        return info;
+    }
+
+    /**
+     * The persisted fields of a class, sorted by name to be independent of the reflection order, and the
+     * way to create an instance of it. All fields are assigned after the creation, so a constructor is only used if
+     * it is a no-arg one or if the assignment of its arguments is unambiguous. Otherwise, e.g. for two parameters of
+     * the same type, the arguments could be swapped, which breaks constructors that validate or derive state.
+     * Instead the instance is allocated without calling any constructor, like java serialization does.
+     */
+    static final class ClassInfo {
+        final Class<?> type;
+        final Field[] fields;
+        @Nullable
+        private final Constructor<?> constructor;
+        //the field index for each constructor parameter
+        private final int[] constructorFields;
+
+        private ClassInfo(Class<?> type) {
+            this.type = type;
+            List<Field> tmp = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int mod = field.getModifiers();
+                    if (Modifier.isStatic(mod) || Modifier.isTransient(mod)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    tmp.add(field);
+                }
+            }
+            fields = tmp.toArray(new Field[0]);
+            Arrays.sort(fields, new Comparator<Field>() {
+                @Override
+                public int compare(Field a, Field b) {
+                    int r = a.getName().compareTo(b.getName());
+                    return r != 0 ? r : a.getDeclaringClass().getName().compareTo(b.getDeclaringClass().getName());
+                }
+            });
+
+            //generated bindings have no default constructor but one which accepts all fields
+            Constructor<?> found = null;
+            //the constructor which uses the fewest of the fields is preferred, ideally the no-arg one
+            int[] foundFields = null;
+            for (Constructor<?> ctr : type.getDeclaredConstructors()) {
+                int[] mapping = mapParameters(ctr.getParameterTypes());
+                if (mapping != null && (found == null || mapping.length < foundFields.length)) {
+                    found = ctr;
+                    foundFields = mapping;
+                }
+            }
+            if (found != null) {
+                found.setAccessible(true);
+            }
+            constructor = found;
+            constructorFields = foundFields;
+        }
+
+        /**
+         * Assigns each parameter to the only field of the same type or returns null, if a parameter has no such
+         * field or if its type is used by another parameter or field, because then the order cannot be verified.
+         */
+        @Nullable
+        private int[] mapParameters(Class<?>[] params) {
+            int[] res = new int[params.length];
+            for (int p = 0; p < params.length; p++) {
+                for (int other = 0; other < params.length; other++) {
+                    if (other != p && params[other] == params[p]) {
+                        return null;
+                    }
+                }
+                res[p] = -1;
+                for (int f = 0; f < fields.length; f++) {
+                    if (fields[f].getType() == params[p]) {
+                        if (res[p] >= 0) {
+                            return null;
+                        }
+                        res[p] = f;
+                    }
+                }
+                if (res[p] < 0) {
+                    return null;
+                }
+            }
+            return res;
+        }
+
+        /**
+         * Creates a new instance and sets all fields, even the final ones.
+         */
+        Object newInstance(Object[] values) throws Exception {
+            Object obj;
+            if (constructor != null && constructorFields.length == 0) {
+                obj = constructor.newInstance();
+            } else if (ALLOCATE_INSTANCE != null) {
+                obj = ALLOCATE_INSTANCE.invoke(UNSAFE, type);
+            } else if (constructor != null) {
+                Object[] args = new Object[constructorFields.length];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = values[constructorFields[i]];
+                }
+                obj = constructor.newInstance(args);
+            } else {
+                throw new InstantiationException(type + " needs a no-arg constructor or one whose parameter types match distinct field types");
+            }
+            for (int i = 0; i < fields.length; i++) {
+                fields[i].set(obj, values[i]);
+            }
+            return obj;
+        }
+    }
+}
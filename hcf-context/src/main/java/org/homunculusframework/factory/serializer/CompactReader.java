@@ -0,0 +1,327 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.factory.serializer;
+
+import org.homunculusframework.factory.container.Binding;
+import org.homunculusframework.factory.serializer.CompactClasses.ClassInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.homunculusframework.factory.serializer.CompactWriter.*;
+
+/**
+ * Decodes values written by a {@link CompactWriter}. An instance is used for exactly one value graph and is
+ * not thread safe.
+ *
+ * @since 1.0
+ */
+final class CompactReader {
+    private final CompactClasses classes;
+    private final ClassLoader classLoader;
+    //the classes which have been read by name from this stream
+    private final List<Class<?>> streamClasses = new ArrayList<>();
+    private final byte[] buf;
+    private int pos;
+    private final int limit;
+
+    CompactReader(CompactClasses classes, ClassLoader classLoader, byte[] buf, int offset, int len) {
+        this.classes = classes;
+        this.classLoader = classLoader;
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + len;
+    }
+
+    /**
+     * Reads the header and the payload of exactly one value from the stream, without reading beyond it.
+     */
+    static byte[] readPayload(InputStream in) throws IOException {
+        int magic = in.read();
+        int version = in.read();
+        if (version < 0) {
+            throw new EOFException();
+        }
+        checkHeader(magic, version);
+        int len = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            len |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            checkLengthShift(shift);
+        }
+        checkPayloadLength(len);
+        byte[] payload = new byte[len];
+        int read = 0;
+        while (read < len) {
+            int n = in.read(payload, read, len - read);
+            if (n < 0) {
+                throw new EOFException("truncated compact stream");
+            }
+            read += n;
+        }
+        return payload;
+    }
+
+    /**
+     * Reads the header from the buffer and returns the length of the payload, which starts at the new position.
+     */
+    static int readPayloadLength(ByteBuffer src) throws IOException {
+        if (src.remaining() < 3) {
+            throw new EOFException();
+        }
+        checkHeader(src.get() & 0xFF, src.get() & 0xFF);
+        int len = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (!src.hasRemaining()) {
+                throw new EOFException();
+            }
+            int b = src.get() & 0xFF;
+            len |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            checkLengthShift(shift);
+        }
+        checkPayloadLength(len);
+        if (len > src.remaining()) {
+            throw new EOFException("truncated compact buffer");
+        }
+        return len;
+    }
+
+    /**
+     * A length has at most 5 bytes, so a continuation after the 5th byte (shift 28) is a corrupted stream and must
+     * not silently overflow.
+     */
+    private static void checkLengthShift(int shift) throws IOException {
+        if (shift >= 28) {
+            throw new StreamCorruptedException("malformed payload length");
+        }
+    }
+
+    private static void checkPayloadLength(int len) throws IOException {
+        if (len < 0) {
+            throw new StreamCorruptedException("negative payload length " + len);
+        }
+    }
+
+    private static void checkHeader(int magic, int version) throws IOException {
+        if (magic != (MAGIC & 0xFF) || version != VERSION) {
+            throw new StreamCorruptedException("not a compact stream or unsupported version: " + magic + "/" + version);
+        }
+    }
+
+    Object readValue() throws IOException {
+        int tag = readByte();
+        switch (tag) {
+            case T_NULL:
+                return null;
+            case T_TRUE:
+                return Boolean.TRUE;
+            case T_FALSE:
+                return Boolean.FALSE;
+            case T_BYTE:
+                return (byte) readByte();
+            case T_SHORT:
+                return (short) unZigZag(readVarLong());
+            case T_CHAR:
+                return (char) readVarLong();
+            case T_INT:
+                return (int) unZigZag(readVarLong());
+            case T_LONG:
+                return unZigZag(readVarLong());
+            case T_FLOAT:
+                return Float.intBitsToFloat(readFixed32());
+            case T_DOUBLE:
+                return Double.longBitsToDouble((readFixed32() & 0xFFFFFFFFL) | ((long) readFixed32() << 32));
+            case T_STRING:
+                return readString();
+            case T_BYTES: {
+                int len = readLength();
+                byte[] res = new byte[len];
+                System.arraycopy(buf, pos, res, 0, len);
+                pos += len;
+                return res;
+            }
+            case T_ARRAY_LIST: {
+                int size = readLength();
+                ArrayList<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue());
+                }
+                return list;
+            }
+            case T_HASH_MAP:
+                return readMap(new HashMap<>());
+            case T_LINKED_HASH_MAP:
+                return readMap(new LinkedHashMap<>());
+            case T_TREE_MAP:
+                return readMap(new TreeMap<>());
+            case T_ENUM: {
+                Class<?> type = readClass();
+                long ordinal = readVarLong();
+                Object[] constants = type.getEnumConstants();
+                if (constants == null || ordinal < 0 || ordinal >= constants.length) {
+                    throw new InvalidClassException(type.getName(), "no enum constant " + ordinal);
+                }
+                return constants[(int) ordinal];
+            }
+            case T_OBJECT:
+                return readObject();
+            case T_SERIALIZABLE: {
+                int len = readLength();
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(buf, pos, len));
+                pos += len;
+                try {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new InvalidClassException(e.getMessage());
+                }
+            }
+            default:
+                throw new StreamCorruptedException("unknown tag " + tag + " at " + (pos - 1));
+        }
+    }
+
+    private Map<Object, Object> readMap(Map<Object, Object> map) throws IOException {
+        int size = readLength();
+        for (int i = 0; i < size; i++) {
+            Object key = readValue();
+            map.put(key, readValue());
+        }
+        return map;
+    }
+
+    private Object readObject() throws IOException {
+        Class<?> type = readClass();
+        //never instantiate an arbitrary class, only those which the writer would have written field-wise
+        if (!Binding.class.isAssignableFrom(type) && !classes.isRegistered(type)) {
+            throw new InvalidClassException(type.getName(), "neither a binding nor registered");
+        }
+        ClassInfo info = classes.getInfo(type);
+        Object[] values = new Object[info.fields.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readValue();
+        }
+        try {
+            return info.newInstance(values);
+            //cannot use ReflectiveOperationException because of android incompatibility
+        } catch (Exception e) {
+            InvalidClassException ex = new InvalidClassException(type.getName(), e.getMessage());
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads a class by id, by name or by back reference. A class which is read by name must be {@link java.io.Serializable}
+     * (which includes all bindings), so that the stream cannot name (and initialize, later on) any class of the class path.
+     */
+    private Class<?> readClass() throws IOException {
+        long v = readVarLong();
+        if ((v & 1) == 1) {
+            Class<?> type = classes.getType((int) (v >>> 1));
+            if (type == null) {
+                throw new InvalidClassException("class id " + (v >>> 1) + " is not registered");
+            }
+            return type;
+        }
+        if (v == 0) {
+            String name = readString();
+            try {
+                Class<?> type = Class.forName(name, false, classLoader);
+                if (!java.io.Serializable.class.isAssignableFrom(type)) {
+                    throw new InvalidClassException(name, "not serializable");
+                }
+                streamClasses.add(type);
+                return type;
+            } catch (ClassNotFoundException e) {
+                throw new InvalidClassException(name, "class not found");
+            }
+        }
+        int idx = (int) (v >>> 1) - 1;
+        if (idx >= streamClasses.size()) {
+            throw new StreamCorruptedException("invalid class reference " + idx);
+        }
+        return streamClasses.get(idx);
+    }
+
+    private String readString() throws IOException {
+        int len = readLength();
+        String res = new String(buf, pos, len, StandardCharsets.UTF_8);
+        pos += len;
+        return res;
+    }
+
+    private int readLength() throws IOException {
+        long len = readVarLong();
+        if (len < 0 || len > limit - pos) {
+            throw new StreamCorruptedException("invalid length " + len + " at " + pos);
+        }
+        return (int) len;
+    }
+
+    private int readByte() throws IOException {
+        if (pos >= limit) {
+            throw new EOFException();
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    private long readVarLong() throws IOException {
+        long res = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            res |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return res;
+            }
+        }
+        throw new StreamCorruptedException("malformed varint at " + pos);
+    }
+
+    private int readFixed32() throws IOException {
+        if (pos + 4 > limit) {
+            throw new EOFException();
+        }
+        int v = (buf[pos] & 0xFF) | (buf[pos + 1] & 0xFF) << 8 | (buf[pos + 2] & 0xFF) << 16 | (buf[pos + 3] & 0xFF) << 24;
+        pos += 4;
+        return v;
+    }
+
+    private static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
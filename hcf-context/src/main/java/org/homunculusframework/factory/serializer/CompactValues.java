@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.factory.serializer;
+
+/**
+ * The {@link Compact} format for arbitrary values, not just bindings, e.g. to persist settings. Primitives, strings,
+ * byte arrays, array lists and the hash, linked hash and tree maps are written in the tight compact encoding, all other
+ * {@link java.io.Serializable} values fall back to java serialization, wherever they are nested.
+ *
+ * @since 1.0
+ */
+public class CompactValues extends Compact {
+
+    @Override
+    protected boolean accepts(Object src) {
+        return src instanceof java.io.Serializable || super.accepts(src);
+    }
+
+    @Override
+    public String getId() {
+        return "cval";
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.factory.serializer;
+
+import org.homunculusframework.factory.container.Binding;
+import org.homunculusframework.factory.serializer.CompactClasses.ClassInfo;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Encodes values into the compact format of {@link Compact}. See {@link CompactReader} for the counterpart.
+ * An instance is used for exactly one value graph and is not thread safe.
+ *
+ * @since 1.0
+ */
+final class CompactWriter {
+    static final byte MAGIC = (byte) 0xC0;
+    static final byte VERSION = 1;
+
+    static final int T_NULL = 0;
+    static final int T_TRUE = 1;
+    static final int T_FALSE = 2;
+    static final int T_BYTE = 3;
+    static final int T_SHORT = 4;
+    static final int T_CHAR = 5;
+    static final int T_INT = 6;
+    static final int T_LONG = 7;
+    static final int T_FLOAT = 8;
+    static final int T_DOUBLE = 9;
+    static final int T_STRING = 10;
+    static final int T_BYTES = 11;
+    static final int T_ARRAY_LIST = 12;
+    static final int T_HASH_MAP = 13;
+    static final int T_LINKED_HASH_MAP = 14;
+    static final int T_TREE_MAP = 15;
+    static final int T_ENUM = 16;
+    static final int T_OBJECT = 17;
+    static final int T_SERIALIZABLE = 18;
+
+    private final CompactClasses classes;
+    //the classes which have been written by name into this stream, referenced by index afterwards
+    private final Map<Class<?>, Integer> streamClasses = new HashMap<>();
+    //detects cycles, which are not supported
+    private final IdentityHashMap<Object, Boolean> visiting = new IdentityHashMap<>();
+    private byte[] buf = new byte[256];
+    private int pos;
+
+    CompactWriter(CompactClasses classes) {
+        this.classes = classes;
+    }
+
+    /**
+     * Writes the header, the payload length and the payload into the given stream.
+     */
+    void writeTo(OutputStream dst) throws IOException {
+        byte[] header = new byte[7];
+        int len = header(header);
+        dst.write(header, 0, len);
+        dst.write(buf, 0, pos);
+    }
+
+    /**
+     * Writes the header, the payload length and the payload into the given buffer.
+     */
+    void writeTo(ByteBuffer dst) {
+        byte[] header = new byte[7];
+        int len = header(header);
+        dst.put(header, 0, len);
+        dst.put(buf, 0, pos);
+    }
+
+    private int header(byte[] header) {
+        int len = 0;
+        header[len++] = MAGIC;
+        header[len++] = VERSION;
+        int v = pos;
+        while ((v & ~0x7F) != 0) {
+            header[len++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        header[len++] = (byte) v;
+        return len;
+    }
+
+    void writeValue(Object value) throws IOException {
+        if (value == null) {
+            writeByte(T_NULL);
+        } else if (value instanceof String) {
+            writeByte(T_STRING);
+            writeString((String) value);
+        } else if (value instanceof Integer) {
+            writeByte(T_INT);
+            writeVarLong(zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            writeByte(T_LONG);
+            writeVarLong(zigZag((Long) value));
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? T_TRUE : T_FALSE);
+        } else if (value instanceof Double) {
+            writeByte(T_DOUBLE);
+            writeFixed64(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Float) {
+            writeByte(T_FLOAT);
+            writeFixed32(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Byte) {
+            writeByte(T_BYTE);
+            writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            writeByte(T_SHORT);
+            writeVarLong(zigZag((Short) value));
+        } else if (value instanceof Character) {
+            writeByte(T_CHAR);
+            writeVarLong((Character) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            writeByte(T_BYTES);
+            writeVarLong(bytes.length);
+            writeBytes(bytes, 0, bytes.length);
+        } else if (value.getClass() == ArrayList.class) {
+            List<?> list = (List<?>) value;
+            writeByte(T_ARRAY_LIST);
+            writeVarLong(list.size());
+            enter(value);
+            for (int i = 0; i < list.size(); i++) {
+                writeValue(list.get(i));
+            }
+            leave(value);
+        } else if (value.getClass() == HashMap.class) {
+            writeByte(T_HASH_MAP);
+            writeMap((Map<?, ?>) value);
+        } else if (value.getClass() == LinkedHashMap.class) {
+            writeByte(T_LINKED_HASH_MAP);
+            writeMap((Map<?, ?>) value);
+        } else if (value.getClass() == TreeMap.class && ((TreeMap<?, ?>) value).comparator() == null) {
+            writeByte(T_TREE_MAP);
+            writeMap((Map<?, ?>) value);
+        } else if (value instanceof Enum) {
+            writeByte(T_ENUM);
+            writeClass(((Enum<?>) value).getDeclaringClass());
+            writeVarLong(((Enum<?>) value).ordinal());
+        } else if (value instanceof Binding || classes.isRegistered(value.getClass())) {
+            writeByte(T_OBJECT);
+            writeObject(value);
+        } else if (value instanceof java.io.Serializable) {
+            //the slow path for everything else, e.g. dates or custom value types
+            writeByte(T_SERIALIZABLE);
+            ByteBuf tmp = new ByteBuf();
+            ObjectOutputStream oos = new ObjectOutputStream(tmp);
+            oos.writeObject(value);
+            oos.flush();
+            writeVarLong(tmp.pos);
+            writeBytes(tmp.buf, 0, tmp.pos);
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    private void writeMap(Map<?, ?> map) throws IOException {
+        writeVarLong(map.size());
+        enter(map);
+        for (Entry<?, ?> entry : map.entrySet()) {
+            writeValue(entry.getKey());
+            writeValue(entry.getValue());
+        }
+        leave(map);
+    }
+
+    private void writeObject(Object value) throws IOException {
+        ClassInfo info = classes.getInfo(value.getClass());
+        writeClass(value.getClass());
+        enter(value);
+        try {
+            for (Field field : info.fields) {
+                writeValue(field.get(value));
+            }
+        } catch (IllegalAccessException e) {
+            throw new IOException("cannot read fields of " + value.getClass(), e);
+        }
+        leave(value);
+    }
+
+    /**
+     * Writes a class either by its registered id, as a back reference into this stream or by name.
+     */
+    private void writeClass(Class<?> type) {
+        int id = classes.getId(type);
+        if (id >= 0) {
+            writeVarLong(((long) id << 1) | 1);
+            return;
+        }
+        Integer idx = streamClasses.get(type);
+        if (idx != null) {
+            writeVarLong((long) (idx + 1) << 1);
+            return;
+        }
+        streamClasses.put(type, streamClasses.size());
+        writeVarLong(0);
+        writeString(type.getName());
+    }
+
+    private void enter(Object value) throws IOException {
+        if (visiting.put(value, Boolean.TRUE) != null) {
+            throw new NotSerializableException("cyclic reference to " + value.getClass().getName());
+        }
+    }
+
+    private void leave(Object value) {
+        visiting.remove(value);
+    }
+
+    /**
+     * Writes the utf8 byte length followed by the utf8 bytes. Most strings are ascii, which are copied directly.
+     */
+    private void writeString(String str) {
+        int len = str.length();
+        for (int i = 0; i < len; i++) {
+            if (str.charAt(i) >= 0x80) {
+                byte[] utf8 = str.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(utf8.length);
+                writeBytes(utf8, 0, utf8.length);
+                return;
+            }
+        }
+        writeVarLong(len);
+        ensure(len);
+        for (int i = 0; i < len; i++) {
+            buf[pos++] = (byte) str.charAt(i);
+        }
+    }
+
+    private static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private void writeByte(int b) {
+        ensure(1);
+        buf[pos++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] src, int offset, int len) {
+        ensure(len);
+        System.arraycopy(src, offset, buf, pos, len);
+        pos += len;
+    }
+
+    /**
+     * Writes an unsigned varint, signed values must be zig zag encoded before.
+     */
+    private void writeVarLong(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+    }
+
+    private void writeFixed32(int v) {
+        ensure(4);
+        buf[pos++] = (byte) v;
+        buf[pos++] = (byte) (v >> 8);
+        buf[pos++] = (byte) (v >> 16);
+        buf[pos++] = (byte) (v >> 24);
+    }
+
+    private void writeFixed64(long v) {
+        writeFixed32((int) v);
+        writeFixed32((int) (v >> 32));
+    }
+
+    private void ensure(int n) {
+        if (pos + n > buf.length) {
+            byte[] tmp = new byte[Math.max(buf.length * 2, pos + n)];
+            System.arraycopy(buf, 0, tmp, 0, pos);
+            buf = tmp;
+        }
+    }
+
+    /**
+     * An unsynchronized byte sink for the java serialization fallback.
+     */
+    private static final class ByteBuf extends OutputStream {
+        private byte[] buf = new byte[128];
+        private int pos;
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (pos + len > buf.length) {
+                byte[] tmp = new byte[Math.max(buf.length * 2, pos + len)];
+                System.arraycopy(buf, 0, tmp, 0, pos);
+                buf = tmp;
+            }
+            System.arraycopy(b, off, buf, pos, len);
+            pos += len;
+        }
+    }
+}
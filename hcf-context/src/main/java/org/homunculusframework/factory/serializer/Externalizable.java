@@ -44,7 +44,7 @@ public class Externalizable implements Serializer {
 
     @Override
     public <T> T deserialize(InputStream in, Class<T> type) throws IOException {
-        if (java.io.Externalizable.class.isAssignableFrom(type)) {
+        if (!java.io.Externalizable.class.isAssignableFrom(type)) {
             //using this serializer without the contract is a developer fault and must be punished
             throw new Panic("the type " + type + " must implement java.io.Externalizable");
         }
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.factory.serializer;
+
+import org.homunculusframework.lang.Panic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * A registry of {@link Serializer}s, which writes a small header (the serializer id and its format version) in front
+ * of each serialized value, so that the reader does not need to know which serializer has produced it. Values
+ * without such header (e.g. written before using the registry) are sniffed by their content, which works for the
+ * built-in serializers. Serializers which implement {@link BufferSerializer} work directly on {@link ByteBuffer}s,
+ * all others are adapted without intermediate copies.
+ * <p>
+ * The header is "HCF", followed by the length of the id, the utf8 id and the version byte. The registry is thread safe.
+ *
+ * @since 1.0
+ */
+public class SerializerRegistry {
+    private static final byte[] MAGIC = {'H', 'C', 'F'};
+    //the amount of bytes which are peeked to sniff a value without header
+    private static final int SNIFF_LENGTH = 256;
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * Creates a registry with all built-in serializers: {@link Serializable}, {@link Externalizable},
+     * {@link Xml}, {@link StreamingXml}, {@link Compact} and {@link CompactValues}.
+     */
+    public static SerializerRegistry createDefault() {
+        return new SerializerRegistry()
+                .register(new Serializable())
+                .register(new Externalizable())
+                .register(new Xml())
+                .register(new StreamingXml())
+                .register(new Compact())
+                .register(new CompactValues());
+    }
+
+    /**
+     * See {@link #register(Serializer, int)}, using version 1.
+     */
+    public SerializerRegistry register(Serializer serializer) {
+        return register(serializer, 1);
+    }
+
+    /**
+     * Registers a serializer by its id. The version is written into the header and values written by a newer
+     * version are rejected by this registry.
+     *
+     * @param serializer the serializer
+     * @param version    the format version of the serializer between 0 and 255
+     * @return this
+     */
+    public SerializerRegistry register(Serializer serializer, int version) {
+        if (version < 0 || version > 255) {
+            throw new Panic("version must be within 0-255 but is " + version);
+        }
+        byte[] id = serializer.getId().getBytes(StandardCharsets.UTF_8);
+        if (id.length > 255) {
+            throw new Panic("serializer id is too long: " + serializer.getId());
+        }
+        synchronized (entries) {
+            entries.put(serializer.getId(), new Entry(serializer, version));
+        }
+        return this;
+    }
+
+    /**
+     * Returns the registered serializer or null.
+     */
+    @Nullable
+    public Serializer get(String id) {
+        Entry entry = getEntry(id);
+        return entry == null ? null : entry.serializer;
+    }
+
+    /**
+     * Writes the header and serializes the value using the serializer with the given id. The header is written
+     * together with the first output of the serializer, so nothing is written, if the serializer rejects the value
+     * without writing.
+     *
+     * @return false if the serializer does not support the value, see {@link Serializer#serialize(Object, OutputStream)}
+     */
+    public boolean serialize(Object src, String id, OutputStream dst) throws IOException {
+        Entry entry = requireEntry(id);
+        HeaderOutputStream out = new HeaderOutputStream(dst, entry.header);
+        if (!entry.serializer.serialize(src, out)) {
+            return false;
+        }
+        //an empty value has a header nonetheless
+        out.writeHeader();
+        return true;
+    }
+
+    /**
+     * Reads the header and deserializes the value using the according serializer. Values without header are sniffed.
+     */
+    public <T> T deserialize(InputStream in, Class<T> type) throws IOException {
+        PushbackInputStream pin = new PushbackInputStream(in, SNIFF_LENGTH);
+        byte[] peek = new byte[SNIFF_LENGTH];
+        int len = 0;
+        while (len < peek.length) {
+            int n = pin.read(peek, len, peek.length - len);
+            if (n < 0) {
+                break;
+            }
+            len += n;
+        }
+        int headerLength = parseHeaderLength(peek, len);
+        Entry entry;
+        if (headerLength > 0) {
+            entry = parseHeader(peek);
+        } else {
+            entry = sniff(peek, len);
+        }
+        pin.unread(peek, headerLength, len - headerLength);
+        return entry.serializer.deserialize(pin, type);
+    }
+
+    /**
+     * Writes the header and serializes the value into a new heap buffer, which is ready to read.
+     *
+     * @return null if the serializer does not support the value
+     */
+    @Nullable
+    public ByteBuffer serialize(Object src, String id) throws IOException {
+        Entry entry = requireEntry(id);
+        ExposedByteArrayOutputStream out = new ExposedByteArrayOutputStream();
+        out.write(entry.header);
+        if (!entry.serializer.serialize(src, out)) {
+            return null;
+        }
+        return ByteBuffer.wrap(out.getBuffer(), 0, out.size());
+    }
+
+    /**
+     * Writes the header and serializes the value at the current position of the given buffer.
+     *
+     * @return false if the serializer does not support the value, the position is unchanged then
+     * @throws java.nio.BufferOverflowException if the remaining space is not sufficient, the position is undefined then
+     */
+    public boolean serialize(Object src, String id, ByteBuffer dst) throws IOException {
+        Entry entry = requireEntry(id);
+        int start = dst.position();
+        dst.put(entry.header);
+        boolean supported;
+        if (entry.serializer instanceof BufferSerializer) {
+            supported = ((BufferSerializer) entry.serializer).serialize(src, dst);
+        } else {
+            supported = entry.serializer.serialize(src, new ByteBufferOutputStream(dst));
+        }
+        if (!supported) {
+            //discard the header and whatever the serializer has written
+            dst.position(start);
+        }
+        return supported;
+    }
+
+    /**
+     * Reads the header and deserializes the value from the current position of the buffer. Values without
+     * header are sniffed. The position is advanced behind the value, if the serializer consumes exactly its value.
+     */
+    public <T> T deserialize(ByteBuffer src, Class<T> type) throws IOException {
+        byte[] peek = new byte[Math.min(SNIFF_LENGTH, src.remaining())];
+        src.duplicate().get(peek);
+        int headerLength = parseHeaderLength(peek, peek.length);
+        Entry entry;
+        if (headerLength > 0) {
+            entry = parseHeader(peek);
+        } else {
+            entry = sniff(peek, peek.length);
+        }
+        src.position(src.position() + headerLength);
+        if (entry.serializer instanceof BufferSerializer) {
+            return ((BufferSerializer) entry.serializer).deserialize(src, type);
+        }
+        return entry.serializer.deserialize(new ByteBufferInputStream(src), type);
+    }
+
+    /**
+     * Returns the length of the header or 0 if there is no header.
+     */
+    private static int parseHeaderLength(byte[] peek, int len) {
+        if (len < MAGIC.length + 1) {
+            return 0;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (peek[i] != MAGIC[i]) {
+                return 0;
+            }
+        }
+        int idLength = peek[MAGIC.length] & 0xFF;
+        int headerLength = MAGIC.length + 1 + idLength + 1;
+        return headerLength <= len ? headerLength : 0;
+    }
+
+    private Entry parseHeader(byte[] header) throws IOException {
+        int idLength = header[MAGIC.length] & 0xFF;
+        String id = new String(header, MAGIC.length + 1, idLength, StandardCharsets.UTF_8);
+        int version = header[MAGIC.length + 1 + idLength] & 0xFF;
+        Entry entry = getEntry(id);
+        if (entry == null) {
+            throw new StreamCorruptedException("no serializer registered for '" + id + "'");
+        }
+        if (version > entry.version) {
+            throw new StreamCorruptedException("'" + id + "' version " + version + " is newer than the registered version " + entry.version);
+        }
+        return entry;
+    }
+
+    /**
+     * Guesses the serializer of a value without header.
+     */
+    private Entry sniff(byte[] peek, int len) throws IOException {
+        if (len == 0) {
+            throw new EOFException();
+        }
+        String id = null;
+        if (len >= 5 && (peek[0] & 0xFF) == 0xAC && (peek[1] & 0xFF) == 0xED) {
+            //java serialization: java.io.Serializable writes any top level element (an object, a string, an array,
+            //an enum, a class...) but never block data, which is what java.io.Externalizable writes for primitives
+            id = peek[4] == ObjectStreamConstants.TC_BLOCKDATA || peek[4] == ObjectStreamConstants.TC_BLOCKDATALONG ? new Externalizable().getId() : new Serializable().getId();
+        } else if (len >= 2 && peek[0] == CompactWriter.MAGIC && peek[1] == CompactWriter.VERSION) {
+            id = new Compact().getId();
+        } else if (peek[0] == '<' || (len >= 4 && (peek[0] & 0xFF) == 0xEF && peek[3] == '<')) {
+            String text = new String(peek, 0, len, StandardCharsets.UTF_8);
+            if (text.contains("<java")) {
+                id = new Xml().getId();
+            } else if (text.contains("<beans")) {
+                id = new StreamingXml().getId();
+            }
+        }
+        Entry entry = id == null ? null : getEntry(id);
+        if (entry == null) {
+            throw new StreamCorruptedException("cannot determine the serializer of the value (id " + id + ")");
+        }
+        return entry;
+    }
+
+    @Nullable
+    private Entry getEntry(String id) {
+        synchronized (entries) {
+            return entries.get(id);
+        }
+    }
+
+    private Entry requireEntry(String id) {
+        Entry entry = getEntry(id);
+        if (entry == null) {
+            throw new Panic("no serializer registered for '" + id + "'");
+        }
+        return entry;
+    }
+
+    private static final class Entry {
+        private final Serializer serializer;
+        private final int version;
+        private final byte[] header;
+
+        private Entry(Serializer serializer, int version) {
+            this.serializer = serializer;
+            this.version = version;
+            byte[] id = serializer.getId().getBytes(StandardCharsets.UTF_8);
+            header = new byte[MAGIC.length + 1 + id.length + 1];
+            System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+            header[MAGIC.length] = (byte) id.length;
+            System.arraycopy(id, 0, header, MAGIC.length + 1, id.length);
+            header[header.length - 1] = (byte) version;
+        }
+    }
+
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * Writes the header in front of the first byte, so that a rejected value leaves no orphan header.
+     */
+    private static final class HeaderOutputStream extends OutputStream {
+        private final OutputStream dst;
+        @Nullable
+        private byte[] header;
+
+        private HeaderOutputStream(OutputStream dst, byte[] header) {
+            this.dst = dst;
+            this.header = header;
+        }
+
+        void writeHeader() throws IOException {
+            if (header != null) {
+                dst.write(header);
+                header = null;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            writeHeader();
+            dst.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writeHeader();
+            dst.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            dst.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            dst.close();
+        }
+    }
+
+    /**
+     * Writes directly into a buffer, without intermediate copies.
+     */
+    private static final class ByteBufferOutputStream extends OutputStream {
+        private final ByteBuffer dst;
+
+        private ByteBufferOutputStream(ByteBuffer dst) {
+            this.dst = dst;
+        }
+
+        @Override
+        public void write(int b) {
+            dst.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            dst.put(b, off, len);
+        }
+    }
+
+    /**
+     * Reads directly from a buffer, without intermediate copies.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer src;
+
+        private ByteBufferInputStream(ByteBuffer src) {
+            this.src = src;
+        }
+
+        @Override
+        public int read() {
+            return src.hasRemaining() ? src.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!src.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, src.remaining());
+            src.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return src.remaining();
+        }
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.factory.serializer;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * A streaming xml implementation based on StAX, which writes and reads the document element by element instead of
+ * buffering it like {@link Xml} does. Just like {@link Xml} it handles bean-style objects (public default
+ * constructor, getters and setters), but the property metadata is introspected only once per class. Supported
+ * values are primitives and their wrappers, strings, enums, arrays, {@link Collection}s, {@link Map}s and beans.
+ * Like {@link Xml} this requires the java.xml and java.beans packages, which are not available on Android.
+ * <p>
+ * The format is a simple tree of typed elements, e.g.
+ * <pre>
+ *     &lt;beans version="2"&gt;
+ *         &lt;object class="com.example.Cart"&gt;
+ *             &lt;string name="id"&gt;1234&lt;/string&gt;
+ *             &lt;list name="items" class="java.util.ArrayList"&gt;...&lt;/list&gt;
+ *             &lt;ref name="self" idref="0"/&gt;
+ *         &lt;/object&gt;
+ *     &lt;/beans&gt;
+ * </pre>
+ * Shared references and cycles are preserved: objects, arrays, lists and maps are numbered implicitly in document
+ * order and each further occurrence of the same instance is written as a reference to that number. Text, which
+ * contains characters that xml 1.0 cannot represent (e.g. most control characters), is written with
+ * {@code escaped="true"} and those characters as a backslash, an u and four hex digits.
+ *
+ * @since 1.0
+ */
+public class StreamingXml implements Serializer {
+    private static final String ROOT = "beans";
+    //version 2 introduced references and escaped text, version 1 documents are still readable
+    private static final String VERSION = "2";
+
+    //a static map would keep all classes and therefore their class loaders reachable forever, a ClassValue does not
+    private static final ClassValue<BeanProperties> properties = new ClassValue<BeanProperties>() {
+        @Override
+        protected BeanProperties computeValue(Class<?> type) {
+            try {
+                return new BeanProperties(Introspector.getBeanInfo(type, Object.class));
+            } catch (IntrospectionException e) {
+                return new BeanProperties(e);
+            } finally {
+                //the introspector cache would pin the class as well and is useless, because we cache ourselves
+                Introspector.flushFromCaches(type);
+            }
+        }
+    };
+
+    private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+    private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+    @Override
+    public boolean serialize(Object src, OutputStream dst) throws IOException {
+        try {
+            XMLStreamWriter out = outputFactory.createXMLStreamWriter(dst, "UTF-8");
+            out.writeStartDocument("UTF-8", "1.0");
+            out.writeStartElement(ROOT);
+            out.writeAttribute("version", VERSION);
+            writeValue(out, new IdentityHashMap<Object, Integer>(), null, src);
+            out.writeEndElement();
+            out.writeEndDocument();
+            out.flush();
+            //we do not close the stream to avoid a closing chain, XMLStreamWriter.close() would not close it anyway
+            return true;
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(InputStream in, Class<T> type) throws IOException {
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            nextElement(reader);
+            if (!ROOT.equals(reader.getLocalName())) {
+                throw new IOException("expected <" + ROOT + "> but found <" + reader.getLocalName() + ">");
+            }
+            nextElement(reader);
+            return (T) readValue(reader, new ArrayList<>());
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public String getId() {
+        return "sxml";
+    }
+
+    /**
+     * @param written the number of each object, array, list or map which has been written so far, in document order
+     */
+    private void writeValue(XMLStreamWriter out, Map<Object, Integer> written, @Nullable String name, @Nullable Object value) throws XMLStreamException, IOException {
+        if (value == null) {
+            writeStart(out, "null", name);
+            out.writeEndElement();
+            return;
+        }
+        Class<?> type = value.getClass();
+        String simple = simpleName(type);
+        if (simple != null) {
+            writeStart(out, simple, name);
+            writeText(out, value.toString());
+            out.writeEndElement();
+            return;
+        }
+        if (value instanceof Enum) {
+            writeStart(out, "enum", name);
+            out.writeAttribute("class", ((Enum<?>) value).getDeclaringClass().getName());
+            out.writeCharacters(((Enum<?>) value).name());
+            out.writeEndElement();
+            return;
+        }
+        Integer ref = written.get(value);
+        if (ref != null) {
+            writeStart(out, "ref", name);
+            out.writeAttribute("idref", ref.toString());
+            out.writeEndElement();
+            return;
+        }
+        //the reader numbers the elements in the same order, so the number itself is not written
+        written.put(value, written.size());
+        if (type.isArray()) {
+            writeStart(out, "array", name);
+            out.writeAttribute("class", type.getName());
+            int len = Array.getLength(value);
+            //the length allows the reader to create the array before its elements, which may refer to it
+            out.writeAttribute("length", Integer.toString(len));
+            for (int i = 0; i < len; i++) {
+                writeValue(out, written, null, Array.get(value, i));
+            }
+            out.writeEndElement();
+        } else if (value instanceof Collection) {
+            writeStart(out, "list", name);
+            out.writeAttribute("class", type.getName());
+            for (Object item : (Collection<?>) value) {
+                writeValue(out, written, null, item);
+            }
+            out.writeEndElement();
+        } else if (value instanceof Map) {
+            writeStart(out, "map", name);
+            out.writeAttribute("class", type.getName());
+            for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                out.writeStartElement("entry");
+                writeValue(out, written, null, entry.getKey());
+                writeValue(out, written, null, entry.getValue());
+                out.writeEndElement();
+            }
+            out.writeEndElement();
+        } else {
+            BeanProperties props = getProperties(type);
+            writeStart(out, "object", name);
+            out.writeAttribute("class", type.getName());
+            for (PropertyDescriptor prop : props.list) {
+                Object propValue;
+                try {
+                    propValue = prop.getReadMethod().invoke(value);
+                } catch (Exception e) {
+                    throw new IOException("failed to read property " + prop.getName() + " of " + type, e);
+                }
+                writeValue(out, written, prop.getName(), propValue);
+            }
+            out.writeEndElement();
+        }
+    }
+
+    private static void writeStart(XMLStreamWriter out, String element, @Nullable String name) throws XMLStreamException {
+        out.writeStartElement(element);
+        if (name != null) {
+            out.writeAttribute("name", name);
+        }
+    }
+
+    /**
+     * Returns the element name of values which are written as plain text or null.
+     */
+    @Nullable
+    private static String simpleName(Class<?> type) {
+        if (type == String.class) {
+            return "string";
+        } else if (type == Integer.class) {
+            return "int";
+        } else if (type == Long.class) {
+            return "long";
+        } else if (type == Boolean.class) {
+            return "boolean";
+        } else if (type == Double.class) {
+            return "double";
+        } else if (type == Float.class) {
+            return "float";
+        } else if (type == Short.class) {
+            return "short";
+        } else if (type == Byte.class) {
+            return "byte";
+        } else if (type == Character.class) {
+            return "char";
+        }
+        return null;
+    }
+
+    /**
+     * Reads the value of the current start element and moves behind its end element.
+     *
+     * @param read each object, array, list or map which has been read so far, in document order
+     */
+    @Nullable
+    private Object readValue(XMLStreamReader in, List<Object> read) throws XMLStreamException, IOException {
+        String element = in.getLocalName();
+        switch (element) {
+            case "null":
+                skipToEnd(in);
+                return null;
+            case "string":
+                return readText(in);
+            case "int":
+                return Integer.parseInt(in.getElementText());
+            case "long":
+                return Long.parseLong(in.getElementText());
+            case "boolean":
+                return Boolean.parseBoolean(in.getElementText());
+            case "double":
+                return Double.parseDouble(in.getElementText());
+            case "float":
+                return Float.parseFloat(in.getElementText());
+            case "short":
+                return Short.parseShort(in.getElementText());
+            case "byte":
+                return Byte.parseByte(in.getElementText());
+            case "char": {
+                String text = readText(in);
+                return text.isEmpty() ? '\0' : text.charAt(0);
+            }
+            case "enum": {
+                Class type = loadClass(in.getAttributeValue(null, "class"));
+                return Enum.valueOf(type, in.getElementText());
+            }
+            case "ref": {
+                String idref = in.getAttributeValue(null, "idref");
+                skipToEnd(in);
+                int idx;
+                try {
+                    idx = Integer.parseInt(idref);
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid reference " + idref + " at " + in.getLocation());
+                }
+                if (idx < 0 || idx >= read.size() || read.get(idx) == null) {
+                    throw new IOException("unresolvable reference " + idref + " at " + in.getLocation());
+                }
+                return read.get(idx);
+            }
+            case "array": {
+                Class<?> componentType = loadClass(in.getAttributeValue(null, "class")).getComponentType();
+                String length = in.getAttributeValue(null, "length");
+                int idx = read.size();
+                if (length != null) {
+                    Object array = Array.newInstance(componentType, Integer.parseInt(length));
+                    read.add(array);
+                    int i = 0;
+                    while (nextChild(in)) {
+                        Array.set(array, i++, readValue(in, read));
+                    }
+                    return array;
+                }
+                //version 1 has no length, so references to an array are only resolvable after it has been read
+                read.add(null);
+                List<Object> tmp = new ArrayList<>();
+                while (nextChild(in)) {
+                    tmp.add(readValue(in, read));
+                }
+                Object array = Array.newInstance(componentType, tmp.size());
+                for (int i = 0; i < tmp.size(); i++) {
+                    Array.set(array, i, tmp.get(i));
+                }
+                read.set(idx, array);
+                return array;
+            }
+            case "list": {
+                Collection<Object> list = newInstance(in.getAttributeValue(null, "class"), Collection.class, ArrayList.class);
+                read.add(list);
+                while (nextChild(in)) {
+                    list.add(readValue(in, read));
+                }
+                return list;
+            }
+            case "map": {
+                Map<Object, Object> map = newInstance(in.getAttributeValue(null, "class"), Map.class, LinkedHashMap.class);
+                read.add(map);
+                while (nextChild(in)) {
+                    //each child is an entry with a key and a value
+                    nextChild(in);
+                    Object key = readValue(in, read);
+                    nextChild(in);
+                    Object value = readValue(in, read);
+                    skipToEnd(in);
+                    map.put(key, value);
+                }
+                return map;
+            }
+            case "object": {
+                Class<?> type = loadClass(in.getAttributeValue(null, "class"));
+                BeanProperties props = getProperties(type);
+                Object bean = newInstance(type);
+                read.add(bean);
+                while (nextChild(in)) {
+                    String name = in.getAttributeValue(null, "name");
+                    Object value = readValue(in, read);
+                    PropertyDescriptor prop = name == null ? null : props.byName.get(name);
+                    if (prop == null) {
+                        //the property has been removed in the meantime
+                        continue;
+                    }
+                    try {
+                        prop.getWriteMethod().invoke(bean, value);
+                    } catch (Exception e) {
+                        throw new IOException("failed to write property " + name + " of " + type, e);
+                    }
+                }
+                return bean;
+            }
+            default:
+                throw new IOException("unsupported element <" + element + "> at " + in.getLocation());
+        }
+    }
+
+    private static void writeText(XMLStreamWriter out, String text) throws XMLStreamException {
+        String escaped = escape(text);
+        if (escaped == null) {
+            out.writeCharacters(text);
+        } else {
+            out.writeAttribute("escaped", "true");
+            out.writeCharacters(escaped);
+        }
+    }
+
+    private static String readText(XMLStreamReader in) throws XMLStreamException, IOException {
+        boolean escaped = "true".equals(in.getAttributeValue(null, "escaped"));
+        String text = in.getElementText();
+        return escaped ? unescape(text) : text;
+    }
+
+    /**
+     * Returns the text with all characters, which xml 1.0 cannot represent, as \\uXXXX and each backslash doubled or
+     * null, if the text can be written as it is. A carriage return is valid but a parser normalizes it to a line feed,
+     * so it is escaped as well. Unpaired surrogates are invalid, paired ones are not.
+     */
+    @Nullable
+    static String escape(String text) {
+        int i = 0;
+        while (i < text.length() && isValid(text, i)) {
+            i += Character.isHighSurrogate(text.charAt(i)) ? 2 : 1;
+        }
+        if (i == text.length()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        for (i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (!isValid(text, i)) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else if (Character.isHighSurrogate(c)) {
+                sb.append(c).append(text.charAt(++i));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks the character at the index, which is only valid as a high surrogate if a low surrogate follows.
+     */
+    private static boolean isValid(String text, int i) {
+        char c = text.charAt(i);
+        if (Character.isHighSurrogate(c)) {
+            return i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1));
+        }
+        return c == '\t' || c == '\n' || (c >= 0x20 && c <= 0xD7FF) || (c >= 0xE000 && c <= 0xFFFD);
+    }
+
+    static String unescape(String text) throws IOException {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+            } else if (i + 1 < text.length() && text.charAt(i + 1) == '\\') {
+                sb.append('\\');
+                i++;
+            } else if (i + 5 < text.length() && text.charAt(i + 1) == 'u') {
+                try {
+                    sb.append((char) Integer.parseInt(text.substring(i + 2, i + 6), 16));
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid escape sequence at " + i);
+                }
+                i += 5;
+            } else {
+                throw new IOException("invalid escape sequence at " + i);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Moves to the next start element.
+     */
+    private static void nextElement(XMLStreamReader in) throws XMLStreamException, IOException {
+        while (in.hasNext()) {
+            if (in.next() == XMLStreamConstants.START_ELEMENT) {
+                return;
+            }
+        }
+        throw new IOException("unexpected end of document");
+    }
+
+    /**
+     * Moves to the next child start element and returns true or moves to the end element of the parent and returns false.
+     */
+    private static boolean nextChild(XMLStreamReader in) throws XMLStreamException {
+        int event = in.nextTag();
+        return event == XMLStreamConstants.START_ELEMENT;
+    }
+
+    /**
+     * Moves to the end element of the current element, skipping any nested content.
+     */
+    private static void skipToEnd(XMLStreamReader in) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = in.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private Class<?> loadClass(String name) throws IOException {
+        try {
+            return Class.forName(name, false, getClass().getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IOException("class not found: " + name, e);
+        }
+    }
+
+    private static Object newInstance(Class<?> type) throws IOException {
+        try {
+            return type.getConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IOException(type + " must provide a public and empty constructor", e);
+        }
+    }
+
+    /**
+     * Creates the given collection or map type or the fallback, if the type cannot be created (e.g. unmodifiable or
+     * immutable types).
+     */
+    private <T> T newInstance(String name, Class<T> contract, Class<? extends T> fallback) throws IOException {
+        Class<?> type = loadClass(name);
+        if (contract.isAssignableFrom(type) && !Modifier.isAbstract(type.getModifiers()) && Modifier.isPublic(type.getModifiers())) {
+            try {
+                return (T) type.getConstructor().newInstance();
+            } catch (Exception e) {
+                //fallthrough to the fallback
+            }
+        }
+        try {
+            return fallback.getConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static BeanProperties getProperties(Class<?> type) throws IOException {
+        BeanProperties props = properties.get(type);
+        if (props.failure != null) {
+            throw new IOException(props.failure);
+        }
+        return props;
+    }
+
+    /**
+     * The cached read- and writable properties of a bean class.
+     */
+    private static final class BeanProperties {
+        private final List<PropertyDescriptor> list = new ArrayList<>();
+        private final Map<String, PropertyDescriptor> byName = new HashMap<>();
+        @Nullable
+        private final IntrospectionException failure;
+
+        private BeanProperties(IntrospectionException failure) {
+            this.failure = failure;
+        }
+
+        private BeanProperties(BeanInfo info) {
+            this.failure = null;
+            for (PropertyDescriptor prop : info.getPropertyDescriptors()) {
+                Method read = prop.getReadMethod();
+                Method write = prop.getWriteMethod();
+                if (read != null && write != null) {
+                    read.setAccessible(true);
+                    write.setAccessible(true);
+                    list.add(prop);
+                    byName.put(prop.getName(), prop);
+                }
+            }
+        }
+    }
+}
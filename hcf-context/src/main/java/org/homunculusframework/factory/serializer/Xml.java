@@ -17,6 +17,7 @@ package org.homunculusframework.factory.serializer;
 
 import java.beans.XMLDecoder;
 import java.beans.XMLEncoder;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -32,11 +33,21 @@ import java.io.OutputStream;
 public class Xml implements Serializer {
     @Override
     public boolean serialize(Object src, OutputStream dst) throws IOException {
-        XMLEncoder encoder = new XMLEncoder(dst);
+        //closing the encoder writes the end of the document but we do not close the stream to avoid a closing chain
+        XMLEncoder encoder = new XMLEncoder(new FilterOutputStream(dst) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        });
         encoder.writeObject(src);
-        encoder.flush();
         encoder.close();
-        return false;
+        return true;
     }
 
     @Override
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import org.homunculusframework.concurrent.Async;
+import org.homunculusframework.concurrent.Task;
+import org.homunculusframework.factory.container.Handler;
+import org.homunculusframework.factory.scope.Scope;
+import org.homunculusframework.lang.Function;
+import org.homunculusframework.lang.Result;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An asynchronous facade of the {@link ORMLiteEntityManager}, so that the main thread never waits for the database.
+ * All operations are executed by a dedicated executor, whose amount of threads equals the amount of pooled
+ * connections ({@link ORMLiteConnectionPool#getMaxConnections()}), so database work neither waits for a connection
+ * nor blocks the generic background handler.
+ * <p>
+ * Each task is bound to the given {@link Scope}: when the scope is destroyed, the task is cancelled. A cancelled
+ * task, which has not started yet, does not touch the database at all and a running query stops reading at the next
+ * row. A running statement itself is never interrupted, because interrupting jdbc drivers (e.g. h2) may close the
+ * connection or even the database file. In any case the connection is returned into the pool. The result of a
+ * cancelled task is tagged with {@link Result#TAG_CANCELLED}.
+ *
+ * @since 1.0
+ */
+public class ORMLiteAsyncEntityManager {
+
+    private final ORMLiteEntityManager entityManager;
+    private final ExecutorService executor;
+    private final Handler handler;
+
+    /**
+     * Creates a facade with an executor sized to the connection pool of the entity manager or with a single thread,
+     * if it uses another connection source.
+     */
+    public ORMLiteAsyncEntityManager(ORMLiteEntityManager entityManager) {
+        this(entityManager, entityManager.getConnectionSource() instanceof ORMLiteConnectionPool ? ((ORMLiteConnectionPool) entityManager.getConnectionSource()).getMaxConnections() : 1);
+    }
+
+    /**
+     * Creates a facade with an executor of the given amount of threads. More threads than pooled connections only
+     * wait for a connection.
+     */
+    public ORMLiteAsyncEntityManager(ORMLiteEntityManager entityManager, int threads) {
+        this.entityManager = entityManager;
+        final AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("hcf-db-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        //idle database threads are not kept forever
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+        this.handler = executor::execute;
+    }
+
+    /**
+     * Returns the synchronous entity manager.
+     */
+    public ORMLiteEntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    /**
+     * See {@link ORMLiteEntityManager#find(Class, Object)}.
+     */
+    public <T> Task<Result<T>> find(Scope scope, Class<T> entityClass, Object primaryKey) {
+        return submit(scope, em -> em.find(entityClass, primaryKey));
+    }
+
+    /**
+     * See {@link ORMLiteEntityManager#persist(Object)}.
+     */
+    public Task<Result<Void>> persist(Scope scope, Object entity) {
+        return submit(scope, em -> {
+            em.persist(entity);
+            return null;
+        });
+    }
+
+    /**
+     * See {@link ORMLiteEntityManager#persistAll(java.util.Collection)}.
+     */
+    public Task<Result<Void>> persistAll(Scope scope, List<?> entities) {
+        return submit(scope, em -> {
+            em.persistAll(entities);
+            return null;
+        });
+    }
+
+    /**
+     * See {@link ORMLiteEntityManager#merge(Object)}.
+     */
+    public <T> Task<Result<T>> merge(Scope scope, T entity) {
+        return submit(scope, em -> em.merge(entity));
+    }
+
+    /**
+     * See {@link ORMLiteEntityManager#remove(Object)}.
+     */
+    public Task<Result<Void>> remove(Scope scope, Object entity) {
+        return submit(scope, em -> {
+            em.remove(entity);
+            return null;
+        });
+    }
+
+    /**
+     * Executes a native query (see {@link ORMLiteEntityManager#createNativeQuery(String, Class)}) with the given
+     * positional (?) parameters, see {@link ORMLiteQuery#setParameter(int, Object)}. The rows are mapped lazily, so a
+     * cancelled query stops at the next row.
+     */
+    public <T> Task<Result<List<T>>> query(Scope scope, Class<T> resultClass, String sql, Object... parameters) {
+        return Async.inHandler(scope, handler, false, ctx -> {
+            ORMLiteQuery<T> query = (ORMLiteQuery<T>) entityManager.createNativeQuery(sql, resultClass);
+            for (int i = 0; i < parameters.length; i++) {
+                query.setParameter(i + 1, parameters[i]);
+            }
+            List<T> list = new ArrayList<>();
+            ORMLiteResultIterator<T> it = query.getResultIterator();
+            try {
+                while (it.hasNext()) {
+                    if (ctx.isCancelled()) {
+                        return Result.<List<T>>create().put(Result.TAG_CANCELLED);
+                    }
+                    list.add(it.next());
+                }
+            } finally {
+                it.closeQuietly();
+            }
+            return Result.create(list);
+        });
+    }
+
+    /**
+     * Executes a bulk update or delete (see {@link ORMLiteEntityManager#createQuery(String)}) with the given
+     * positional (?1, ?2, ...) parameters and returns the amount of affected rows.
+     */
+    public Task<Result<Integer>> executeUpdate(Scope scope, String qlString, Object... parameters) {
+        return submit(scope, em -> {
+            ORMLiteBulkQuery<?> query = (ORMLiteBulkQuery<?>) em.createQuery(qlString);
+            for (int i = 0; i < parameters.length; i++) {
+                query.setParameter(i + 1, parameters[i]);
+            }
+            return query.executeUpdate();
+        });
+    }
+
+    /**
+     * Executes arbitrary work with the entity manager, e.g. a transaction, in the database executor. Any exception is
+     * returned as part of the result.
+     */
+    public <T> Task<Result<T>> submit(Scope scope, Function<ORMLiteEntityManager, T> work) {
+        return Async.inHandler(scope, handler, false, ctx -> Result.create(work.apply(entityManager)));
+    }
+
+    /**
+     * Stops the executor after the already submitted tasks. The entity manager is not closed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
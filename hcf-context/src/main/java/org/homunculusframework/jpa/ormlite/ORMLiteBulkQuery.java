@@ -0,0 +1,607 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.dao.BaseDaoImpl;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.j256.ormlite.stmt.PreparedDelete;
+import com.j256.ormlite.stmt.PreparedUpdate;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.StatementBuilder;
+import com.j256.ormlite.stmt.UpdateBuilder;
+import com.j256.ormlite.stmt.Where;
+
+import org.homunculusframework.lang.Panic;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.persistence.FlushModeType;
+import javax.persistence.LockModeType;
+import javax.persistence.Parameter;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+
+/**
+ * A bulk update or delete, created by {@link ORMLiteEntityManager#createQuery(String)}. The statement is compiled
+ * once into an ormlite {@link DeleteBuilder} or {@link UpdateBuilder}, so that the rows are changed by a single sql
+ * statement, without loading any entity. Only a small subset of JPQL is supported:
+ * <pre>
+ * DELETE FROM Entity [[AS] e] [WHERE condition]
+ * UPDATE Entity [[AS] e] SET e.field = value {, e.field = value} [WHERE condition]
+ *
+ * condition := condition OR condition | condition AND condition | NOT condition | ( condition )
+ *            | e.field (= | &lt;&gt; | != | &lt; | &lt;= | &gt; | &gt;=) value | e.field [NOT] LIKE value
+ *            | e.field IS [NOT] NULL | e.field [NOT] IN (value {, value}) | e.field BETWEEN value AND value
+ * value     := :name | ?position | number | 'string' | TRUE | FALSE | NULL
+ * </pre>
+ * The entity is referred by its name, see {@link ORMLiteEntityManager#registerEntities(Class[])}. Fields are referred
+ * by their java name (or column name). Each value is bound as an argument, so the sql is the same for all parameter
+ * values.
+ *
+ * @since 1.0
+ */
+public class ORMLiteBulkQuery<T> implements Query {
+
+    private final ORMLiteEntityManager entityManager;
+    private final Class<T> type;
+    private final Dao<T, ?> dao;
+    private final String qlString;
+    //each occurrence of a parameter has its own argument
+    private final Map<String, List<SelectArg>> parameter = new LinkedHashMap<>();
+    private final Set<String> bound = new HashSet<>();
+    @Nullable
+    private PreparedDelete<T> delete;
+    @Nullable
+    private PreparedUpdate<T> update;
+
+    ORMLiteBulkQuery(ORMLiteEntityManager entityManager, String qlString) {
+        this.entityManager = entityManager;
+        this.qlString = qlString;
+        Parser parser = new Parser(qlString);
+        try {
+            String verb = parser.nextKeyword();
+            if ("DELETE".equals(verb)) {
+                parser.expect("FROM");
+            } else if (!"UPDATE".equals(verb)) {
+                throw new IllegalArgumentException("only DELETE and UPDATE are supported: " + qlString);
+            }
+            this.type = (Class<T>) entityManager.resolveEntity(parser.next());
+            this.dao = entityManager.getDao(type);
+            parser.alias = parser.acceptAlias();
+            StatementBuilder<T, ?> builder;
+            if ("DELETE".equals(verb)) {
+                builder = dao.deleteBuilder();
+            } else {
+                UpdateBuilder<T, ?> updateBuilder = dao.updateBuilder();
+                parser.expect("SET");
+                do {
+                    String column = column(parser.next(), parser.alias);
+                    parser.expect("=");
+                    updateBuilder.updateColumnValue(column, value(parser.next()));
+                } while (parser.accept(","));
+                builder = updateBuilder;
+            }
+            if (parser.accept("WHERE")) {
+                Where<T, ?> where = builder.where();
+                parseOr(parser, where, false);
+            }
+            if (parser.hasNext()) {
+                throw new IllegalArgumentException("unexpected '" + parser.next() + "' in " + qlString);
+            }
+            if (builder instanceof UpdateBuilder) {
+                update = ((UpdateBuilder<T, ?>) builder).prepare();
+            } else {
+                delete = ((DeleteBuilder<T, ?>) builder).prepare();
+            }
+        } catch (SQLException e) {
+            throw new IllegalArgumentException("invalid query: " + qlString, e);
+        }
+    }
+
+    /**
+     * Executes the bulk statement within the transaction of the current thread, if any. Cached entities of the type
+     * are invalidated, see {@link ORMLiteEntityManager#setCache(Class, int)}.
+     *
+     * @return the amount of affected rows
+     */
+    @Override
+    public int executeUpdate() {
+        for (String name : parameter.keySet()) {
+            if (!bound.contains(name)) {
+                throw new IllegalStateException("parameter '" + name + "' is not bound: " + qlString);
+            }
+        }
+        try {
+            if (update != null) {
+                return dao.update(update);
+            } else {
+                return dao.delete(delete);
+            }
+        } catch (SQLException e) {
+            throw new PersistenceException(e);
+        } finally {
+            entityManager.invalidateType(type);
+        }
+    }
+
+    /*
+     * ormlite can only negate single comparisons, so a negation is pushed down to them (de morgan) while parsing.
+     */
+    private void parseOr(Parser parser, Where<T, ?> where, boolean negate) throws SQLException {
+        int clauses = 0;
+        do {
+            parseAnd(parser, where, negate);
+            clauses++;
+        } while (parser.accept("OR"));
+        if (clauses > 1) {
+            if (negate) {
+                where.and(clauses);
+            } else {
+                where.or(clauses);
+            }
+        }
+    }
+
+    private void parseAnd(Parser parser, Where<T, ?> where, boolean negate) throws SQLException {
+        int clauses = 0;
+        do {
+            parseCondition(parser, where, negate);
+            clauses++;
+        } while (parser.accept("AND"));
+        if (clauses > 1) {
+            if (negate) {
+                where.or(clauses);
+            } else {
+                where.and(clauses);
+            }
+        }
+    }
+
+    private void parseCondition(Parser parser, Where where, boolean negate) throws SQLException {
+        if (parser.accept("NOT")) {
+            parseCondition(parser, where, !negate);
+            return;
+        }
+        if (parser.accept("(")) {
+            parseOr(parser, where, negate);
+            parser.expect(")");
+            return;
+        }
+        String column = column(parser.next(), parser.alias);
+        if (parser.accept("IS")) {
+            boolean notNull = parser.accept("NOT") != negate;
+            parser.expect("NULL");
+            if (notNull) {
+                where.isNotNull(column);
+            } else {
+                where.isNull(column);
+            }
+            return;
+        }
+        boolean not = parser.accept("NOT");
+        String op = parser.nextKeyword();
+        switch (op) {
+            case "LIKE":
+                where.like(column, value(parser.next()));
+                break;
+            case "IN":
+                List<Object> values = new ArrayList<>();
+                parser.expect("(");
+                do {
+                    values.add(value(parser.next()));
+                } while (parser.accept(","));
+                parser.expect(")");
+                where.in(column, values.toArray());
+                break;
+            case "BETWEEN":
+                Object low = value(parser.next());
+                parser.expect("AND");
+                where.between(column, low, value(parser.next()));
+                break;
+            default:
+                if (not) {
+                    throw new IllegalArgumentException("NOT is not allowed before '" + op + "' in " + qlString);
+                }
+                Object value = value(parser.next());
+                switch (negate ? negate(op) : op) {
+                    case "=":
+                        where.eq(column, value);
+                        break;
+                    case "<>":
+                    case "!=":
+                        where.ne(column, value);
+                        break;
+                    case "<":
+                        where.lt(column, value);
+                        break;
+                    case "<=":
+                        where.le(column, value);
+                        break;
+                    case ">":
+                        where.gt(column, value);
+                        break;
+                    case ">=":
+                        where.ge(column, value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unsupported operator '" + op + "' in " + qlString);
+                }
+                return;
+        }
+        if (not != negate) {
+            where.not(where);
+        }
+    }
+
+    private static String negate(String op) {
+        switch (op) {
+            case "=":
+                return "<>";
+            case "<>":
+            case "!=":
+                return "=";
+            case "<":
+                return ">=";
+            case "<=":
+                return ">";
+            case ">":
+                return "<=";
+            case ">=":
+                return "<";
+            default:
+                return op;
+        }
+    }
+
+    /**
+     * Resolves the (alias qualified) java field name or column name to the column name.
+     */
+    private String column(String path, @Nullable String alias) {
+        String name = path;
+        if (alias != null && path.startsWith(alias + ".")) {
+            name = path.substring(alias.length() + 1);
+        }
+        if (dao instanceof BaseDaoImpl) {
+            for (FieldType field : ((BaseDaoImpl<T, ?>) dao).getTableInfo().getFieldTypes()) {
+                if (field.getFieldName().equals(name) || field.getColumnName().equalsIgnoreCase(name)) {
+                    return field.getColumnName();
+                }
+            }
+            throw new IllegalArgumentException("unknown field '" + path + "' of " + type.getName() + " in " + qlString);
+        }
+        return name;
+    }
+
+    /**
+     * Creates the argument for a parameter or literal.
+     */
+    private SelectArg value(String token) {
+        if (token.startsWith(":") || token.startsWith("?")) {
+            String name = token.substring(1);
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("unnamed parameters are not supported: " + qlString);
+            }
+            List<SelectArg> args = parameter.get(name);
+            if (args == null) {
+                args = new ArrayList<>();
+                parameter.put(name, args);
+            }
+            SelectArg arg = new SelectArg();
+            args.add(arg);
+            return arg;
+        }
+        if (token.startsWith("'")) {
+            return new SelectArg((Object) token.substring(1, token.length() - 1).replace("''", "'"));
+        }
+        switch (token.toUpperCase()) {
+            case "TRUE":
+                return new SelectArg((Object) Boolean.TRUE);
+            case "FALSE":
+                return new SelectArg((Object) Boolean.FALSE);
+            case "NULL":
+                return new SelectArg((Object) null);
+            default:
+                try {
+                    if (token.indexOf('.') >= 0 || token.indexOf('e') >= 0 || token.indexOf('E') >= 0) {
+                        return new SelectArg((Object) Double.parseDouble(token));
+                    }
+                    return new SelectArg((Object) Long.parseLong(token));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("expected a value but got '" + token + "' in " + qlString);
+                }
+        }
+    }
+
+    private Query bind(String name, Object value) {
+        List<SelectArg> args = parameter.get(name);
+        if (args == null) {
+            throw new IllegalArgumentException("unknown parameter '" + name + "' in " + qlString);
+        }
+        for (SelectArg arg : args) {
+            arg.setValue(value);
+        }
+        bound.add(name);
+        return this;
+    }
+
+    @Override
+    public List getResultList() {
+        throw new IllegalStateException("not a select statement: " + qlString);
+    }
+
+    @Override
+    public Object getSingleResult() {
+        throw new IllegalStateException("not a select statement: " + qlString);
+    }
+
+    @Override
+    public Query setMaxResults(int maxResult) {
+        throw new IllegalStateException("not a select statement: " + qlString);
+    }
+
+    @Override
+    public int getMaxResults() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public Query setFirstResult(int startPosition) {
+        throw new IllegalStateException("not a select statement: " + qlString);
+    }
+
+    @Override
+    public int getFirstResult() {
+        return 0;
+    }
+
+    @Override
+    public Query setHint(String hintName, Object value) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public Map<String, Object> getHints() {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public <P> Query setParameter(Parameter<P> param, P value) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public Query setParameter(Parameter<Calendar> param, Calendar value, TemporalType temporalType) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public Query setParameter(Parameter<Date> param, Date value, TemporalType temporalType) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public Query setParameter(String name, Object value) {
+        return bind(name, value);
+    }
+
+    @Override
+    public Query setParameter(String name, Calendar value, TemporalType temporalType) {
+        return bind(name, value.getTime());
+    }
+
+    @Override
+    public Query setParameter(String name, Date value, TemporalType temporalType) {
+        return bind(name, value);
+    }
+
+    @Override
+    public Query setParameter(int position, Object value) {
+        return bind(String.valueOf(position), value);
+    }
+
+    @Override
+    public Query setParameter(int position, Calendar value, TemporalType temporalType) {
+        return bind(String.valueOf(position), value.getTime());
+    }
+
+    @Override
+    public Query setParameter(int position, Date value, TemporalType temporalType) {
+        return bind(String.valueOf(position), value);
+    }
+
+    @Override
+    public Set<Parameter<?>> getParameters() {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public Parameter<?> getParameter(String name) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public <P> Parameter<P> getParameter(String name, Class<P> type) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public Parameter<?> getParameter(int position) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public <P> Parameter<P> getParameter(int position, Class<P> type) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public boolean isBound(Parameter<?> param) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public <P> P getParameterValue(Parameter<P> param) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public Object getParameterValue(String name) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public Object getParameterValue(int position) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public Query setFlushMode(FlushModeType flushMode) {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public FlushModeType getFlushMode() {
+        throw new Panic("not yet implemented");
+    }
+
+    @Override
+    public Query setLockMode(LockModeType lockMode) {
+        throw new IllegalStateException("not a select statement: " + qlString);
+    }
+
+    @Override
+    public LockModeType getLockMode() {
+        throw new IllegalStateException("not a select statement: " + qlString);
+    }
+
+    @Override
+    public <U> U unwrap(Class<U> cls) {
+        throw new Panic("not yet implemented");
+    }
+
+    /**
+     * Splits the query into identifiers, parameters, literals and operators.
+     */
+    private static final class Parser {
+        private static final String KEYWORDS = " AS SET WHERE AND OR NOT IS NULL LIKE IN BETWEEN ";
+        private final String qlString;
+        private final List<String> tokens = new ArrayList<>();
+        private int pos;
+        @Nullable
+        private String alias;
+
+        private Parser(String qlString) {
+            this.qlString = qlString;
+            int i = 0;
+            int len = qlString.length();
+            while (i < len) {
+                char c = qlString.charAt(i);
+                int start = i;
+                if (Character.isWhitespace(c)) {
+                    i++;
+                    continue;
+                } else if (c == '\'') {
+                    i++;
+                    while (true) {
+                        if (i >= len) {
+                            throw new IllegalArgumentException("unterminated string in " + qlString);
+                        }
+                        if (qlString.charAt(i) == '\'') {
+                            //'' is an escaped quote
+                            if (i + 1 < len && qlString.charAt(i + 1) == '\'') {
+                                i += 2;
+                                continue;
+                            }
+                            i++;
+                            break;
+                        }
+                        i++;
+                    }
+                } else if (c == '<' || c == '>' || c == '!') {
+                    i++;
+                    if (i < len && (qlString.charAt(i) == '=' || (c == '<' && qlString.charAt(i) == '>'))) {
+                        i++;
+                    }
+                } else if (c == '=' || c == '(' || c == ')' || c == ',') {
+                    i++;
+                } else if (c == ':' || c == '?' || c == '.' || c == '-' || Character.isJavaIdentifierPart(c)) {
+                    i++;
+                    while (i < len && (qlString.charAt(i) == '.' || Character.isJavaIdentifierPart(qlString.charAt(i)))) {
+                        i++;
+                    }
+                } else {
+                    throw new IllegalArgumentException("unexpected '" + c + "' in " + qlString);
+                }
+                tokens.add(qlString.substring(start, i));
+            }
+        }
+
+        private boolean hasNext() {
+            return pos < tokens.size();
+        }
+
+        private String next() {
+            if (!hasNext()) {
+                throw new IllegalArgumentException("unexpected end of " + qlString);
+            }
+            return tokens.get(pos++);
+        }
+
+        private String nextKeyword() {
+            return next().toUpperCase();
+        }
+
+        private boolean accept(String keyword) {
+            if (hasNext() && tokens.get(pos).equalsIgnoreCase(keyword)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String keyword) {
+            if (!accept(keyword)) {
+                throw new IllegalArgumentException("expected '" + keyword + "' but got '" + (hasNext() ? tokens.get(pos) : "end") + "' in " + qlString);
+            }
+        }
+
+        /**
+         * Reads the optional identification variable after the entity name.
+         */
+        @Nullable
+        private String acceptAlias() {
+            if (accept("AS")) {
+                return next();
+            }
+            if (hasNext() && !KEYWORDS.contains(" " + tokens.get(pos).toUpperCase() + " ")) {
+                return next();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import org.homunculusframework.lang.Panic;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * A bounded pool of jdbc connections, so that concurrent readers (e.g. from multiple background threads) do not
+ * serialize on a single connection. At most {@link #getMaxConnections()} connections are handed out at the same time,
+ * further callers wait up to {@link #setMaxWaitMillis(long)} for a released connection.
+ * <p>
+ * Idle connections are reused in lifo order, so that rarely needed connections become idle and are closed after
+ * {@link #setMaxIdleMillis(long)}. The eviction happens lazily when connections are borrowed or released, so there is
+ * no background thread. A borrowed connection is always checked to be open and optionally validated
+ * (see {@link #setValidateOnBorrow(boolean)}).
+ * <p>
+ * Special connections (as used by transactions and save points) are bound to the current thread, like in the other
+ * ormlite connection sources.
+ *
+ * @since 1.0
+ */
+public class ORMLiteConnectionPool extends JdbcConnectionSource {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(ORMLiteConnectionPool.class);
+    private static final com.j256.ormlite.logger.Logger ORMLITE_LOG = com.j256.ormlite.logger.LoggerFactory.getLogger(ORMLiteConnectionPool.class);
+
+    private final int maxConnections;
+    private final Semaphore permits;
+    //the most recently released connection is at the head
+    private final ArrayDeque<IdleConnection> idle = new ArrayDeque<>();
+    private volatile long maxWaitMillis = 30_000;
+    private volatile long maxIdleMillis = 60_000;
+    private volatile boolean validateOnBorrow;
+    private volatile int statementCacheSize = 32;
+    private final Map<DatabaseConnection, ORMLiteStatementCache> statementCaches = new IdentityHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * Creates a new pool for the given url, which hands out at most the given amount of connections at the same time.
+     *
+     * @param jdbcUrl        the url
+     * @param maxConnections the maximum amount of connections, at least 1
+     */
+    public ORMLiteConnectionPool(String jdbcUrl, int maxConnections) throws SQLException {
+        super(jdbcUrl);
+        if (maxConnections < 1) {
+            throw new Panic("the pool needs at least one connection but got " + maxConnections);
+        }
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections);
+    }
+
+    /**
+     * The maximum amount of connections, which are handed out at the same time.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * The maximum time to wait for a free connection, before an {@link SQLException} is thrown. Default is 30 seconds.
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * The time after which an unused connection is closed. Default is 60 seconds. A value <= 0 keeps idle
+     * connections forever.
+     */
+    public void setMaxIdleMillis(long maxIdleMillis) {
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    /**
+     * If true, each idle connection is validated using {@link Connection#isValid(int)} before it is handed out.
+     * Default is false, so only closed connections are detected.
+     */
+    public void setValidateOnBorrow(boolean validateOnBorrow) {
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
+    /**
+     * The amount of prepared statements, which are kept per connection for the reuse by {@link ORMLiteQuery}, see
+     * {@link ORMLiteStatementCache}. Default is 32, 0 disables the cache. Only affects caches which are created
+     * afterwards.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Returns the amount of connections, which are currently not in use.
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * Returns the amount of connections, which are currently in use.
+     */
+    public int getActiveCount() {
+        return maxConnections - permits.availablePermits();
+    }
+
+    @Override
+    public DatabaseConnection getReadOnlyConnection(String tableName) throws SQLException {
+        return getReadWriteConnection(tableName);
+    }
+
+    @Override
+    public DatabaseConnection getReadWriteConnection(String tableName) throws SQLException {
+        if (closed) {
+            throw new SQLException("connection pool has been closed");
+        }
+        DatabaseConnection saved = getSavedConnection();
+        if (saved != null) {
+            return saved;
+        }
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("no connection available after " + maxWaitMillis + " ms, all " + maxConnections + " connections are in use");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection", e);
+        }
+        try {
+            DatabaseConnection con = borrowIdle();
+            if (con == null) {
+                con = makeConnection(ORMLITE_LOG);
+            }
+            return con;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void releaseConnection(DatabaseConnection connection) throws SQLException {
+        if (isSavedConnection(connection)) {
+            //still in use by a transaction of this thread
+            return;
+        }
+        try {
+            if (closed || connection.isClosed()) {
+                discard(connection);
+                return;
+            }
+            if (connection.isAutoCommitSupported() && !connection.isAutoCommit()) {
+                //never leak uncommitted work or the transaction mode to the next borrower
+                LOG.warn("connection released within a transaction, rolling back");
+                connection.rollback(null);
+                connection.setAutoCommit(true);
+            }
+            long now = System.currentTimeMillis();
+            synchronized (idle) {
+                idle.addFirst(new IdleConnection(connection, now));
+            }
+            evictIdle(now);
+        } catch (SQLException e) {
+            discard(connection);
+            throw e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public boolean saveSpecialConnection(DatabaseConnection connection) throws SQLException {
+        return saveSpecial(connection);
+    }
+
+    @Override
+    public void clearSpecialConnection(DatabaseConnection connection) {
+        clearSpecial(connection, ORMLITE_LOG);
+    }
+
+    @Override
+    public boolean isOpen(String tableName) {
+        return !closed;
+    }
+
+    @Override
+    public boolean isSingleConnection(String tableName) {
+        return false;
+    }
+
+    /**
+     * Closes all idle connections. Connections which are in use are closed when they are released.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        synchronized (idle) {
+            for (IdleConnection con : idle) {
+                discard(con.connection);
+            }
+            idle.clear();
+        }
+        super.close();
+    }
+
+    /**
+     * Returns the statement cache of a connection of this pool or null, if disabled.
+     */
+    @Nullable
+    ORMLiteStatementCache getStatementCache(DatabaseConnection connection) {
+        int size = statementCacheSize;
+        if (size <= 0) {
+            return null;
+        }
+        synchronized (statementCaches) {
+            ORMLiteStatementCache cache = statementCaches.get(connection);
+            if (cache == null) {
+                cache = new ORMLiteStatementCache(size);
+                statementCaches.put(connection, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Closes the connection and its cached statements.
+     */
+    private void discard(DatabaseConnection connection) {
+        ORMLiteStatementCache cache;
+        synchronized (statementCaches) {
+            cache = statementCaches.remove(connection);
+        }
+        if (cache != null) {
+            cache.close();
+        }
+        connection.closeQuietly();
+    }
+
+    /**
+     * Takes the most recently used idle connection, which is still alive, or returns null.
+     */
+    private DatabaseConnection borrowIdle() {
+        evictIdle(System.currentTimeMillis());
+        while (true) {
+            IdleConnection candidate;
+            synchronized (idle) {
+                candidate = idle.pollFirst();
+            }
+            if (candidate == null) {
+                return null;
+            }
+            if (isAlive(candidate.connection)) {
+                return candidate.connection;
+            }
+            discard(candidate.connection);
+        }
+    }
+
+    private boolean isAlive(DatabaseConnection connection) {
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+            if (validateOnBorrow && connection instanceof JdbcDatabaseConnection) {
+                return ((JdbcDatabaseConnection) connection).getInternalConnection().isValid(5);
+            }
+            return true;
+        } catch (SQLException e) {
+            LOG.warn("connection validation failed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Closes the connections which have been idle for too long. These are always at the tail.
+     */
+    private void evictIdle(long now) {
+        long maxIdle = maxIdleMillis;
+        if (maxIdle <= 0) {
+            return;
+        }
+        while (true) {
+            IdleConnection candidate;
+            synchronized (idle) {
+                candidate = idle.peekLast();
+                if (candidate == null || now - candidate.since < maxIdle) {
+                    return;
+                }
+                idle.pollLast();
+            }
+            discard(candidate.connection);
+        }
+    }
+
+    private static final class IdleConnection {
+        private final DatabaseConnection connection;
+        private final long since;
+
+        private IdleConnection(DatabaseConnection connection, long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+}
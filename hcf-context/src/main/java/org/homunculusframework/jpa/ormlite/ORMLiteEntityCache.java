@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * A size bounded (least recently used) second level cache of a single entity class, keyed by the id. Cached
+ * instances are shared between all callers of {@link ORMLiteEntityManager#find(Class, Object)}, so it is intended for
+ * immutable reference data. See {@link ORMLiteEntityManager#setCache(Class, int)}.
+ * <p>
+ * Each invalidation increments a generation, and a loaded entity is only put into the cache if no invalidation
+ * happened while it was loaded. So a concurrent reader cannot put a stale entity into the cache.
+ *
+ * @since 1.0
+ */
+public final class ORMLiteEntityCache {
+
+    private final int maxSize;
+    private final Map<Object, Object> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long generation;
+
+    ORMLiteEntityCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached entity or null and counts the hit or miss.
+     */
+    @Nullable
+    synchronized Object get(Object id) {
+        Object entity = entries.get(key(id));
+        if (entity == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entity;
+    }
+
+    /**
+     * Returns the generation, which has to be passed to {@link #put(Object, Object, long)} after loading.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches the loaded entity, if the cache has not been invalidated since the given generation.
+     */
+    synchronized void put(Object id, Object entity, long loadedGeneration) {
+        if (loadedGeneration == generation) {
+            entries.put(key(id), entity);
+        }
+    }
+
+    synchronized void invalidate(Object id) {
+        entries.remove(key(id));
+        generation++;
+    }
+
+    /**
+     * Removes all entries, the statistics are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        generation++;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the ratio of hits to all lookups, or 0 if there has been no lookup yet.
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Integral ids are normalized, so that e.g. an Integer and a Long id address the same entry.
+     */
+    private static Object key(Object id) {
+        if (id instanceof Integer || id instanceof Short || id instanceof Byte) {
+            return ((Number) id).longValue();
+        }
+        return id;
+    }
+}
@@ -15,10 +15,16 @@
  */
 package org.homunculusframework.jpa.ormlite;
 
+import com.j256.ormlite.dao.BaseDaoImpl;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.field.FieldType;
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.UpdateBuilder;
+import com.j256.ormlite.stmt.Where;
 import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.table.DatabaseTableConfig;
 
 import org.homunculusframework.lang.Panic;
 
@@ -26,15 +32,24 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Savepoint;
-import java.util.IdentityHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.Nullable;
+import javax.persistence.Entity;
 import javax.persistence.EntityExistsException;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.persistence.FlushModeType;
 import javax.persistence.LockModeType;
+import javax.persistence.OptimisticLockException;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -49,14 +64,22 @@ import javax.persistence.metamodel.Metamodel;
  * <ul>
  * <li>{@link #getDao(Class)}</li>
  * <li>{@link #persist(Object)}</li>
+ * <li>{@link #merge(Object)} (only writes the changed columns, checks and increments the version)</li>
  * <li>{@link #remove(Object)}</li>
- * <li>{@link #find(Class, Object)}</li>
+ * <li>{@link #persistAll(Collection)} and {@link #removeAll(Collection)}</li>
+ * <li>{@link #getTransaction()} (one transaction per thread, see {@link ORMLiteTransaction})</li>
+ * <li>{@link #find(Class, Object)} (optionally cached, see {@link #setCache(Class, int)})</li>
  * <li>{@link #flush()}</li>
  * <li>{@link #refresh(Object)}</li>
+ * <li>{@link #createQuery(String)} (bulk update and delete only, see {@link ORMLiteBulkQuery} and
+ * {@link #registerEntities(Class[])})</li>
  * <li>{@link #createNativeQuery(String, Class)}</li>
- * <li>{@link ORMLiteQuery#setParameter(String, Object)} (probably only string support)</li>
- * <li>{@link ORMLiteQuery#getMaxResults()} (slow)</li>
+ * <li>{@link ORMLiteQuery#setParameter(int, Object)} and {@link ORMLiteQuery#setParameter(String, Object)} (bound by
+ * their java type)</li>
+ * <li>{@link ORMLiteQuery#setFirstResult(int)} and {@link ORMLiteQuery#setMaxResults(int)} (appended as offset and limit,
+ * if necessary within a sub query)</li>
  * <li>{@link ORMLiteQuery#getResultList()} (the projection has to be exact, no extra or missing columns)</li>
+ * <li>{@link ORMLiteQuery#getResultIterator()} (like the result list, but maps the rows lazily)</li>
  * </ul>
  *
  * @author Torben Schinke
@@ -64,14 +87,41 @@ import javax.persistence.metamodel.Metamodel;
  */
 public class ORMLiteEntityManager implements EntityManager {
 
+    /**
+     * The amount of pooled connections, if not specified otherwise.
+     */
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    //the maximum amount of ids in a single delete statement, sqlite supports at most 999 variables
+    private static final int DELETE_CHUNK_SIZE = 500;
+    //marks an entity name, which is used by more than one class
+    private static final Class<?> AMBIGUOUS = Void.TYPE;
+
     private final JdbcConnectionSource connectionSource;
-    private final Map<Class, Dao> managers;
+    //lock-free lookup, only the creation of a dao is synchronized by lock
+    private final ConcurrentHashMap<Class, Dao> managers;
     private final Object lock = new Object();
-    private final String jdbcUrl;
-    //h2 profits from keeping the connection always open -> we should use a simple pool
+    //the entity names and qualified class names of the known entities, only modified while holding the lock
+    private final ConcurrentHashMap<String, Class<?>> entityNames = new ConcurrentHashMap<>();
+    //only holds the active transactions, see ORMLiteTransaction
+    private final ThreadLocal<ORMLiteTransaction> transactions = new ThreadLocal<>();
+    private final ConcurrentHashMap<Class, ORMLiteEntityCache> caches = new ConcurrentHashMap<>();
+    //h2 profits from keeping the connection always open, even if the pool has evicted all idle connections
+    @Nullable
     private final Connection keepOpenConnection;
 
+    /**
+     * Creates a new entity manager using a {@link ORMLiteConnectionPool} with {@link #DEFAULT_POOL_SIZE} connections.
+     */
     public ORMLiteEntityManager(String jdbcUrl) {
+        this(jdbcUrl, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Creates a new entity manager using a {@link ORMLiteConnectionPool} with the given amount of connections.
+     * Use {@link #getConnectionSource()} to configure the pool further.
+     */
+    public ORMLiteEntityManager(String jdbcUrl, int poolSize) {
         if (jdbcUrl.startsWith("jdbc:h2:")) {
             try {
                 Class.forName("org.h2.Driver");
@@ -81,9 +131,8 @@ public class ORMLiteEntityManager implements EntityManager {
         }
 
         try {
-            this.jdbcUrl = jdbcUrl;
-            connectionSource = new JdbcConnectionSource(jdbcUrl);
-            managers = new IdentityHashMap<>();
+            connectionSource = new ORMLiteConnectionPool(jdbcUrl, poolSize);
+            managers = new ConcurrentHashMap<>();
             keepOpenConnection = DriverManager.getConnection(jdbcUrl);
 
         } catch (SQLException e) {
@@ -92,7 +141,18 @@ public class ORMLiteEntityManager implements EntityManager {
     }
 
     /**
-     * Returns the backing connection source.
+     * Creates a new entity manager using the given connection source, e.g. a custom pool. The caller is responsible
+     * for the lifecycle of the database, e.g. to keep an in-memory database alive.
+     */
+    public ORMLiteEntityManager(JdbcConnectionSource connectionSource) {
+        this.connectionSource = connectionSource;
+        this.managers = new ConcurrentHashMap<>();
+        this.keepOpenConnection = null;
+    }
+
+    /**
+     * Returns the backing connection source, which is a {@link ORMLiteConnectionPool} unless a custom source
+     * has been provided.
      *
      * @return the source
      */
@@ -101,12 +161,19 @@ public class ORMLiteEntityManager implements EntityManager {
     }
 
     /**
-     * See {@link DatabaseConnection#setSavePoint(String)}
+     * See {@link DatabaseConnection#setSavePoint(String)}. The connection is bound to the current thread and auto commit
+     * is disabled, until the outermost save point is committed or rolled back, so that all operations in between use
+     * the same pooled connection.
      */
     public Savepoint setSavePoint(Class<?> type, String name) {
         try {
-            String tableName = getDao(type).getTableName();
-            return getConnectionSource().getReadWriteConnection(tableName).setSavePoint(name);
+            String tableName = DatabaseTableConfig.extractTableName(type);
+            DatabaseConnection con = connectionSource.getReadWriteConnection(tableName);
+            connectionSource.saveSpecialConnection(con);
+            if (con.isAutoCommitSupported() && con.isAutoCommit()) {
+                con.setAutoCommit(false);
+            }
+            return con.setSavePoint(name);
         } catch (SQLException e) {
             throw new Panic(e);
         }
@@ -117,8 +184,13 @@ public class ORMLiteEntityManager implements EntityManager {
      */
     public void commit(Class<?> type, Savepoint savepoint) {
         try {
-            String tableName = getDao(type).getTableName();
-            getConnectionSource().getReadWriteConnection(tableName).commit(savepoint);
+            String tableName = DatabaseTableConfig.extractTableName(type);
+            DatabaseConnection con = connectionSource.getReadWriteConnection(tableName);
+            try {
+                con.commit(savepoint);
+            } finally {
+                unbind(con);
+            }
         } catch (SQLException e) {
             throw new Panic(e);
         }
@@ -130,21 +202,46 @@ public class ORMLiteEntityManager implements EntityManager {
      */
     public void rollback(Class<?> type, Savepoint savepoint) {
         try {
-            String tableName = getDao(type).getTableName();
-            getConnectionSource().getReadWriteConnection(tableName).rollback(savepoint);
+            String tableName = DatabaseTableConfig.extractTableName(type);
+            DatabaseConnection con = connectionSource.getReadWriteConnection(tableName);
+            try {
+                con.rollback(savepoint);
+            } finally {
+                unbind(con);
+            }
         } catch (SQLException e) {
             throw new Panic(e);
         }
     }
 
+    /**
+     * Releases the thread binding of {@link #setSavePoint(Class, String)} and returns the connection into the pool.
+     * Leaving the outermost save point enables auto commit again, which commits the remaining work.
+     */
+    private void unbind(DatabaseConnection con) throws SQLException {
+        if (connectionSource.getSpecialConnection(null) == con) {
+            connectionSource.clearSpecialConnection(con);
+            if (connectionSource.getSpecialConnection(null) != con && con.isAutoCommitSupported() && !con.isAutoCommit()) {
+                con.setAutoCommit(true);
+            }
+        }
+        connectionSource.releaseConnection(con);
+    }
+
 
     public <D extends Dao<T, ?>, T> D getDao(Class<T> type) {
+        //cannot use computeIfAbsent because of android incompatibility
+        Dao dao = managers.get(type);
+        if (dao != null) {
+            return (D) dao;
+        }
         synchronized (lock) {
-            Dao dao = managers.get(type);
+            dao = managers.get(type);
             if (dao == null) {
                 try {
                     dao = DaoManager.createDao(connectionSource, type);
                     managers.put(type, dao);
+                    registerEntity(type);
                 } catch (SQLException e) {
                     throw new Panic(e);
                 }
@@ -153,6 +250,62 @@ public class ORMLiteEntityManager implements EntityManager {
         }
     }
 
+    /**
+     * Enables a second level cache for {@link #find(Class, Object)} of the given entity class, which keeps at most
+     * maxSize entities. The cache is invalidated by {@link #persist(Object)}, {@link #merge(Object)} and
+     * {@link #remove(Object)} (and the batch variants) of this manager, but not by any other writes, e.g. native
+     * queries or other processes. Cached entities are shared, so only use it for entities which are not modified,
+     * like reference data.
+     *
+     * @param type    the entity class
+     * @param maxSize the maximum amount of cached entities, 0 disables the cache
+     * @return the cache, providing the statistics, or null if disabled
+     */
+    @Nullable
+    public ORMLiteEntityCache setCache(Class<?> type, int maxSize) {
+        if (maxSize <= 0) {
+            caches.remove(type);
+            return null;
+        }
+        ORMLiteEntityCache cache = new ORMLiteEntityCache(maxSize);
+        caches.put(type, cache);
+        return cache;
+    }
+
+    /**
+     * Returns the cache of the entity class or null, see {@link #setCache(Class, int)}.
+     */
+    @Nullable
+    public ORMLiteEntityCache getCache(Class<?> type) {
+        return caches.get(type);
+    }
+
+    /**
+     * Removes the entity from the cache. Within a transaction, it is removed again after the completion, because
+     * other threads may have cached the previously committed state in the meantime.
+     */
+    private void invalidate(Dao dao, Object entity) {
+        final ORMLiteEntityCache cache = caches.get(entity.getClass());
+        if (cache == null) {
+            return;
+        }
+        final Object id;
+        try {
+            id = dao.extractId(entity);
+        } catch (SQLException e) {
+            cache.clear();
+            return;
+        }
+        if (id == null) {
+            return;
+        }
+        cache.invalidate(id);
+        ORMLiteTransaction transaction = transactions.get();
+        if (transaction != null && transaction.isActive()) {
+            transaction.afterCompletion(() -> cache.invalidate(id));
+        }
+    }
+
     @Override
     public void persist(Object entity) {
         Dao dao = getDao(entity.getClass());
@@ -160,12 +313,257 @@ public class ORMLiteEntityManager implements EntityManager {
             dao.create(entity);
         } catch (SQLException e) {
             throw new EntityExistsException(e);
+        } finally {
+            invalidate(dao, entity);
+        }
+    }
+
+    /**
+     * Persists all entities within a single transaction, so that either all or none of them are inserted. If the
+     * current thread has an active transaction (see {@link #getTransaction()}), it is used instead. Compared
+     * to single {@link #persist(Object)} calls, this avoids the commit and the dao lookup per entity. Entities of
+     * different types are inserted type by type, in the order in which each type occurs first.
+     */
+    public void persistAll(Collection<?> entities) {
+        final Map<Class, List<Object>> types = groupByType(entities);
+        try {
+            inTransaction(() -> {
+                for (Entry<Class, List<Object>> entry : types.entrySet()) {
+                    Dao dao = getDao(entry.getKey());
+                    try {
+                        dao.create(entry.getValue());
+                    } finally {
+                        invalidateAll(dao, entry.getValue());
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            throw new EntityExistsException(e);
+        }
+    }
+
+    /**
+     * Removes all entities within a single transaction (or the active one of the current thread), using a delete
+     * statement per type and chunk of ids.
+     * Entities of different types are removed type by type, in the order in which each type occurs first.
+     */
+    public void removeAll(Collection<?> entities) {
+        final Map<Class, List<Object>> types = groupByType(entities);
+        try {
+            inTransaction(() -> {
+                for (Entry<Class, List<Object>> entry : types.entrySet()) {
+                    Dao dao = getDao(entry.getKey());
+                    List<Object> list = entry.getValue();
+                    try {
+                        for (int i = 0; i < list.size(); i += DELETE_CHUNK_SIZE) {
+                            dao.delete(list.subList(i, Math.min(list.size(), i + DELETE_CHUNK_SIZE)));
+                        }
+                    } finally {
+                        invalidateAll(dao, list);
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            throw new IllegalArgumentException(e);
         }
     }
 
+    /**
+     * Clears the cache of the entity class after a bulk statement, which may have changed any row.
+     */
+    void invalidateType(Class<?> type) {
+        final ORMLiteEntityCache cache = caches.get(type);
+        if (cache == null) {
+            return;
+        }
+        cache.clear();
+        ORMLiteTransaction transaction = transactions.get();
+        if (transaction != null && transaction.isActive()) {
+            transaction.afterCompletion(() -> cache.clear());
+        }
+    }
+
+    /**
+     * Makes the entities known to the queries of {@link #createQuery(String)}, which refer to an entity by its name.
+     * The name is the one of {@link Entity#name()} or, by default, the simple class name. The qualified class name is
+     * accepted as well. Entities whose dao has been created by {@link #getDao(Class)} are registered automatically.
+     *
+     * @param types the entity classes
+     */
+    public void registerEntities(Class<?>... types) {
+        synchronized (lock) {
+            for (Class<?> type : types) {
+                registerEntity(type);
+            }
+        }
+    }
+
+    private void registerEntity(Class<?> type) {
+        String name = type.getSimpleName();
+        Entity entity = type.getAnnotation(Entity.class);
+        if (entity != null && !entity.name().isEmpty()) {
+            name = entity.name();
+        }
+        for (String key : new String[]{name, type.getName()}) {
+            Class<?> other = entityNames.get(key);
+            if (other == null) {
+                entityNames.put(key, type);
+            } else if (other != type) {
+                entityNames.put(key, AMBIGUOUS);
+            }
+        }
+    }
+
+    /**
+     * Resolves the entity name of a query, see {@link #registerEntities(Class[])}. The name is never loaded as a
+     * class, so a query cannot refer to any class which is not a registered entity.
+     */
+    Class<?> resolveEntity(String name) {
+        Class<?> type = entityNames.get(name);
+        if (type == null) {
+            throw new IllegalArgumentException("unknown entity " + name + ", entities have to be registered first");
+        }
+        if (type == AMBIGUOUS) {
+            throw new IllegalArgumentException("the entity name " + name + " is used by more than one class");
+        }
+        return type;
+    }
+
+    private void invalidateAll(Dao dao, List<Object> entities) {
+        for (Object entity : entities) {
+            invalidate(dao, entity);
+        }
+    }
+
+    /**
+     * Runs the work in the active transaction of this thread, which is marked for rollback on failure. Otherwise
+     * the work gets its own transaction.
+     */
+    private void inTransaction(SQLWork work) throws SQLException {
+        EntityTransaction transaction = getTransaction();
+        if (transaction.isActive()) {
+            try {
+                work.run();
+            } catch (SQLException | RuntimeException e) {
+                transaction.setRollbackOnly();
+                throw e;
+            }
+            return;
+        }
+        transaction.begin();
+        boolean success = false;
+        try {
+            work.run();
+            success = true;
+        } finally {
+            if (success) {
+                transaction.commit();
+            } else {
+                transaction.rollback();
+            }
+        }
+    }
+
+    private interface SQLWork {
+        void run() throws SQLException;
+    }
+
+    private static Map<Class, List<Object>> groupByType(Collection<?> entities) {
+        Map<Class, List<Object>> types = new LinkedHashMap<>();
+        for (Object entity : entities) {
+            List<Object> list = types.get(entity.getClass());
+            if (list == null) {
+                list = new ArrayList<>();
+                types.put(entity.getClass(), list);
+            }
+            list.add(entity);
+        }
+        return types;
+    }
+
+    /**
+     * Writes the state of the entity into the database. There is no persistence context, so the entity itself is
+     * returned and the snapshot to compare with is the current row, loaded by the id within the same transaction.
+     * Only the changed columns are updated and if nothing has changed, nothing is written at all. An entity without
+     * a row is inserted. If the entity has a version field, it must match the version of the row, otherwise an
+     * {@link OptimisticLockException} is thrown. An update increments the version and is restricted to the
+     * expected version, so that a concurrent update in between is detected as well.
+     */
     @Override
-    public <T> T merge(T entity) {
-        throw new Panic("not yet implemented");
+    public <T> T merge(final T entity) {
+        final Dao dao = getDao(entity.getClass());
+        try {
+            inTransaction(() -> {
+                Object id = dao.extractId(entity);
+                Object snapshot = id == null ? null : dao.queryForId(id);
+                if (snapshot == null) {
+                    dao.create(entity);
+                } else if (snapshot == entity || !(dao instanceof BaseDaoImpl)) {
+                    //e.g. the object cache of ormlite returns the same instance, so there is nothing to compare with
+                    if (dao.update(entity) == 0) {
+                        //ormlite has restricted the update to the version of the entity
+                        throw new OptimisticLockException(entity.getClass().getSimpleName() + " " + id + " has been changed concurrently", null, entity);
+                    }
+                } else {
+                    updateChanged((BaseDaoImpl) dao, id, snapshot, entity);
+                }
+            });
+        } catch (SQLException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            invalidate(dao, entity);
+        }
+        return entity;
+    }
+
+    /**
+     * Updates the columns which differ from the snapshot, if any, and increments the version.
+     */
+    private static void updateChanged(BaseDaoImpl dao, Object id, Object snapshot, Object entity) throws SQLException {
+        UpdateBuilder update = null;
+        FieldType version = null;
+        for (FieldType field : dao.getTableInfo().getFieldTypes()) {
+            if (field.isVersion()) {
+                version = field;
+                continue;
+            }
+            if (field.isId() || field.isForeignCollection() || field.isReadOnly()) {
+                continue;
+            }
+            //foreign fields are compared by the id of the referenced entity
+            if (Arrays.deepEquals(new Object[]{field.extractJavaFieldValue(snapshot)}, new Object[]{field.extractJavaFieldValue(entity)})) {
+                continue;
+            }
+            if (update == null) {
+                update = dao.updateBuilder();
+            }
+            //bound as argument, so that the statement does not differ per value
+            update.updateColumnValue(field.getColumnName(), new SelectArg(field.<Object>extractRawJavaFieldValue(entity)));
+        }
+        Object next = null;
+        if (version != null) {
+            Object expected = version.extractJavaFieldValue(entity);
+            if (!Arrays.deepEquals(new Object[]{version.extractJavaFieldValue(snapshot)}, new Object[]{expected})) {
+                throw new OptimisticLockException("the version " + expected + " of " + dao.getDataClass().getSimpleName() + " " + id + " is stale", null, entity);
+            }
+            if (update != null) {
+                next = version.moveToNextValue(version.extractRawJavaFieldValue(entity));
+                update.updateColumnValue(version.getColumnName(), new SelectArg(next));
+            }
+        }
+        if (update == null) {
+            return;
+        }
+        Where where = update.where().idEq(new SelectArg(id));
+        if (version != null) {
+            where.and().eq(version.getColumnName(), new SelectArg(version.<Object>extractRawJavaFieldValue(entity)));
+        }
+        if (update.update() == 0) {
+            throw new OptimisticLockException(dao.getDataClass().getSimpleName() + " " + id + " has been changed or removed concurrently", null, entity);
+        }
+        if (version != null) {
+            version.assignField(entity, next, false, null);
+        }
     }
 
     @Override
@@ -175,14 +573,30 @@ public class ORMLiteEntityManager implements EntityManager {
             dao.delete(entity);
         } catch (SQLException e) {
             throw new IllegalArgumentException(e);
+        } finally {
+            invalidate(dao, entity);
         }
     }
 
     @Override
     public <T> T find(Class<T> entityClass, Object primaryKey) {
+        ORMLiteEntityCache cache = caches.get(entityClass);
+        if (cache != null) {
+            Object cached = cache.get(primaryKey);
+            if (cached != null) {
+                return (T) cached;
+            }
+        }
         Dao dao = getDao(entityClass);
         try {
-            return (T) dao.queryForId(primaryKey);
+            long generation = cache == null ? 0 : cache.getGeneration();
+            T entity = (T) dao.queryForId(primaryKey);
+            //never cache the uncommitted state of a transaction
+            ORMLiteTransaction transaction = transactions.get();
+            if (cache != null && entity != null && (transaction == null || !transaction.isActive())) {
+                cache.put(primaryKey, entity, generation);
+            }
+            return entity;
         } catch (SQLException e) {
             throw new IllegalArgumentException(e);
         }
@@ -210,10 +624,8 @@ public class ORMLiteEntityManager implements EntityManager {
 
     @Override
     public void flush() {
-        synchronized (lock) {
-            for (Dao dao : managers.values()) {
-                dao.notifyChanges();
-            }
+        for (Dao dao : managers.values()) {
+            dao.notifyChanges();
         }
     }
 
@@ -292,9 +704,13 @@ public class ORMLiteEntityManager implements EntityManager {
         throw new Panic("not yet implemented");
     }
 
+    /**
+     * Creates a bulk update or delete, see {@link ORMLiteBulkQuery} for the supported subset of JPQL. Select
+     * statements are not supported, use {@link #createNativeQuery(String, Class)} instead.
+     */
     @Override
     public Query createQuery(String qlString) {
-        throw new Panic("not yet implemented");
+        return new ORMLiteBulkQuery(this, qlString);
     }
 
     @Override
@@ -358,9 +774,17 @@ public class ORMLiteEntityManager implements EntityManager {
         throw new Panic("not yet implemented");
     }
 
+    /**
+     * Returns the active transaction of the current thread or a new one, which becomes the active one when it
+     * begins, see {@link ORMLiteTransaction}.
+     */
     @Override
     public EntityTransaction getTransaction() {
-        throw new Panic("not yet implemented");
+        ORMLiteTransaction transaction = transactions.get();
+        if (transaction == null) {
+            transaction = new ORMLiteTransaction(connectionSource, transactions);
+        }
+        return transaction;
     }
 
     @Override
@@ -16,11 +16,22 @@
 package org.homunculusframework.jpa.ormlite;
 
 import com.j256.ormlite.dao.Dao;
-import com.j256.ormlite.dao.GenericRawResults;
 import com.j256.ormlite.dao.RawRowMapper;
+import com.j256.ormlite.db.DatabaseType;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.stmt.StatementBuilder.StatementType;
+import com.j256.ormlite.support.CompiledStatement;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.support.DatabaseResults;
+import com.j256.ormlite.table.DatabaseTableConfig;
 
 import org.homunculusframework.lang.Panic;
 
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
@@ -28,7 +39,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
 import javax.persistence.FlushModeType;
 import javax.persistence.LockModeType;
 import javax.persistence.Parameter;
@@ -43,13 +56,25 @@ import javax.persistence.TemporalType;
  */
 public class ORMLiteQuery<T> implements Query {
 
+    private static final FieldType[] NO_FIELD_TYPES = new FieldType[0];
+    //the alias of the paged sub query, some databases require one
+    private static final String PAGE_ALIAS = "hcf_page";
+    //anything which may conflict with appended limit and offset clauses, false positives just cause a sub query
+    private static final Pattern NOT_APPENDABLE = Pattern.compile("\\b(LIMIT|OFFSET|FETCH|TOP|ROWNUM|FOR\\s+UPDATE)\\b", Pattern.CASE_INSENSITIVE);
+
     private final Class<T> type;
-    private final Map<String, String> parameter;
+    //named parameters are bound in the order of their names
+    private final Map<String, Object> parameter;
+    //1-based positional parameters, which cannot be mixed with named ones
+    private final Map<Integer, Object> positional;
     private final Dao<T, ?> dao;
     private final String query;
+    private int firstResult;
+    private int maxResults = Integer.MAX_VALUE;
 
     public ORMLiteQuery(String query, Dao<T, ?> dao, Class<T> type) {
         this.parameter = new TreeMap<>();
+        this.positional = new TreeMap<>();
         this.query = query;
         this.type = type;
         this.dao = dao;
@@ -57,23 +82,164 @@ public class ORMLiteQuery<T> implements Query {
 
     @Override
     public List getResultList() {
+        List res = new ArrayList();
+        ORMLiteResultIterator<T> it = getResultIterator();
         try {
-            List res = new ArrayList();
-            RawRowMapper<T> mapper = dao.getRawRowMapper();
-            GenericRawResults<T> r = dao.queryRaw(query, mapper, parameter.values().toArray(new String[parameter.size()]));
-            try {
-                for (T t : r) {
-                    res.add(t);
-                }
-            } finally {
-                r.close();
+            while (it.hasNext()) {
+                res.add(it.next());
             }
-            return res;
+        } finally {
+            it.closeQuietly();
+        }
+        return res;
+    }
+
+    /**
+     * Executes the query and returns an iterator, which maps the rows lazily from the cursor. The iterator must be
+     * closed, if it is not exhausted, to release the cursor and its connection.
+     *
+     * @return the iterator over the (paged) result
+     */
+    public ORMLiteResultIterator<T> getResultIterator() {
+        Object[] args = getArguments();
+        try {
+            DatabaseType databaseType = dao.getConnectionSource().getDatabaseType();
+            //some databases do not accept an offset without a limit
+            boolean pushLimit = (maxResults != Integer.MAX_VALUE || firstResult > 0) && databaseType.isLimitSqlSupported();
+            boolean pushOffset = firstResult > 0 && databaseType.isOffsetSqlSupported() && (pushLimit || !databaseType.isOffsetLimitArgument());
+            //whatever the database cannot do, is done while reading
+            int skip = pushOffset ? 0 : firstResult;
+            String sql = pushLimit || pushOffset ? createPagedQuery(databaseType, pushLimit, pushOffset) : query;
+
+            return new ORMLiteResultIterator<>(execute(dao.getConnectionSource(), sql, args, dao.getRawRowMapper()), skip, maxResults);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Returns the positional parameters or, if there are none, the named ones in the order of their names.
+     */
+    private Object[] getArguments() {
+        if (positional.isEmpty()) {
+            return parameter.values().toArray();
+        }
+        if (!parameter.isEmpty()) {
+            throw new IllegalStateException("named and positional parameters cannot be mixed: " + query);
+        }
+        Object[] args = new Object[positional.size()];
+        for (int i = 0; i < args.length; i++) {
+            if (!positional.containsKey(i + 1)) {
+                throw new IllegalStateException("parameter ?" + (i + 1) + " is not bound: " + query);
+            }
+            args[i] = positional.get(i + 1);
+        }
+        return args;
+    }
+
+    /**
+     * Executes the sql using a cached statement of the pooled connection, if available. This is what
+     * {@link Dao#queryRaw(String, RawRowMapper, String...)} does, but without preparing the statement each time and
+     * with typed arguments.
+     */
+    private ORMLiteResultIterator.Cursor<T> execute(ConnectionSource source, String sql, Object[] args, RawRowMapper<T> mapper) throws SQLException {
+        DatabaseConnection con = source.getReadOnlyConnection(DatabaseTableConfig.extractTableName(type));
+        CompiledStatement stmt = null;
+        try {
+            ORMLiteStatementCache cache = source instanceof ORMLiteConnectionPool ? ((ORMLiteConnectionPool) source).getStatementCache(con) : null;
+            stmt = cache == null ? null : cache.take(sql);
+            if (stmt == null) {
+                stmt = con.compileStatement(sql, StatementType.SELECT, NO_FIELD_TYPES, DatabaseConnection.DEFAULT_RESULT_FLAGS, false);
+            }
+            for (int i = 0; i < args.length; i++) {
+                bind(stmt, i, args[i]);
+            }
+            DatabaseResults results = stmt.runQuery(null);
+            return new ORMLiteResultIterator.StatementCursor<>(source, con, cache, sql, stmt, results, mapper);
+        } catch (SQLException | RuntimeException e) {
+            if (stmt != null) {
+                stmt.closeQuietly();
+            }
+            source.releaseConnection(con);
+            throw e;
+        }
+    }
+
+    /**
+     * Binds the argument with the sql type of its java type. Any other type is bound by its string representation.
+     */
+    private static void bind(CompiledStatement stmt, int index, @Nullable Object arg) throws SQLException {
+        SqlType sqlType;
+        Object value = arg;
+        if (arg == null || arg instanceof String) {
+            sqlType = SqlType.STRING;
+        } else if (arg instanceof Integer) {
+            sqlType = SqlType.INTEGER;
+        } else if (arg instanceof Long) {
+            sqlType = SqlType.LONG;
+        } else if (arg instanceof Short) {
+            sqlType = SqlType.SHORT;
+        } else if (arg instanceof Byte) {
+            sqlType = SqlType.BYTE;
+        } else if (arg instanceof Boolean) {
+            sqlType = SqlType.BOOLEAN;
+        } else if (arg instanceof Double) {
+            sqlType = SqlType.DOUBLE;
+        } else if (arg instanceof Float) {
+            sqlType = SqlType.FLOAT;
+        } else if (arg instanceof BigDecimal) {
+            sqlType = SqlType.BIG_DECIMAL;
+        } else if (arg instanceof byte[]) {
+            sqlType = SqlType.BYTE_ARRAY;
+        } else if (arg instanceof Date) {
+            //the jdbc timestamp, which also accepts a plain date
+            sqlType = SqlType.DATE;
+            value = arg instanceof Timestamp ? arg : new Timestamp(((Date) arg).getTime());
+        } else if (arg instanceof Enum) {
+            sqlType = SqlType.STRING;
+            value = ((Enum) arg).name();
+        } else {
+            sqlType = SqlType.STRING;
+            value = arg.toString();
+        }
+        stmt.setObject(index, value, sqlType);
+    }
+
+    /**
+     * Appends the limit and offset clauses to the native query or, if it may already contain such a clause (or
+     * anything else, which prevents appending), wraps it into a sub query, so that the clauses are applied
+     * independently of the shape of the native query. Appending is preferred, because databases like h2 would
+     * materialize the entire sub query before applying the limit. The clauses are generated by the
+     * {@link DatabaseType}, like ormlite's query builder does.
+     */
+    private String createPagedQuery(DatabaseType databaseType, boolean pushLimit, boolean pushOffset) {
+        String inner = query.trim();
+        if (inner.endsWith(";")) {
+            inner = inner.substring(0, inner.length() - 1);
+        }
+        //a limit is only combined with an offset, if the offset is pushed as well, otherwise rows would be missing
+        long limit = pushOffset || firstResult == 0 ? maxResults : (long) firstResult + maxResults;
+        boolean append = !(pushLimit && databaseType.isLimitAfterSelect()) && !NOT_APPENDABLE.matcher(inner).find();
+        StringBuilder sb = new StringBuilder(inner.length() + 64);
+        if (append) {
+            //a new line, so that a trailing line comment cannot swallow the clauses
+            sb.append(inner).append('\n');
+        } else {
+            sb.append("SELECT ");
+            if (pushLimit && databaseType.isLimitAfterSelect()) {
+                databaseType.appendLimitValue(sb, limit, pushOffset ? (long) firstResult : null);
+            }
+            sb.append("* FROM (").append(inner).append("\n) ").append(PAGE_ALIAS).append(' ');
+        }
+        if (pushLimit && !databaseType.isLimitAfterSelect()) {
+            databaseType.appendLimitValue(sb, limit, pushOffset ? (long) firstResult : null);
+        }
+        if (pushOffset && !databaseType.isOffsetLimitArgument()) {
+            databaseType.appendOffsetValue(sb, firstResult);
+        }
+        return sb.toString();
+    }
+
     @Override
     public Object getSingleResult() {
         throw new Panic("not yet implemented");
@@ -86,22 +252,30 @@ public class ORMLiteQuery<T> implements Query {
 
     @Override
     public Query setMaxResults(int maxResult) {
-        throw new Panic("not yet implemented");
+        if (maxResult < 0) {
+            throw new IllegalArgumentException("maxResult must not be negative: " + maxResult);
+        }
+        this.maxResults = maxResult;
+        return this;
     }
 
     @Override
     public int getMaxResults() {
-        return getResultList().size();
+        return maxResults;
     }
 
     @Override
     public Query setFirstResult(int startPosition) {
-        throw new Panic("not yet implemented");
+        if (startPosition < 0) {
+            throw new IllegalArgumentException("startPosition must not be negative: " + startPosition);
+        }
+        this.firstResult = startPosition;
+        return this;
     }
 
     @Override
     public int getFirstResult() {
-        throw new Panic("not yet implemented");
+        return firstResult;
     }
 
     @Override
@@ -129,9 +303,13 @@ public class ORMLiteQuery<T> implements Query {
         throw new Panic("not yet implemented");
     }
 
+    /**
+     * Binds a named parameter. The sql contains only positional (?) placeholders, which are bound by the named
+     * parameters in the order of their names. Prefer {@link #setParameter(int, Object)}.
+     */
     @Override
     public Query setParameter(String name, Object value) {
-        parameter.put(name, value.toString());
+        parameter.put(name, value);
         return this;
     }
 
@@ -145,9 +323,18 @@ public class ORMLiteQuery<T> implements Query {
         throw new Panic("not yet implemented");
     }
 
+    /**
+     * Binds the value of the (1-based) positional (?) placeholder. The value is bound with the sql type of its
+     * java type, e.g. a Long as a BIGINT. Dates are bound as timestamps, enums by their name and any other type by
+     * its string representation.
+     */
     @Override
     public Query setParameter(int position, Object value) {
-        throw new Panic("not yet implemented");
+        if (position < 1) {
+            throw new IllegalArgumentException("positions start at 1: " + position);
+        }
+        positional.put(position, value);
+        return this;
     }
 
     @Override
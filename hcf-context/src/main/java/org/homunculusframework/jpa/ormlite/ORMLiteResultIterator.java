@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.dao.RawRowMapper;
+import com.j256.ormlite.support.CompiledStatement;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.support.DatabaseResults;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A lazy iterator over the rows of a {@link ORMLiteQuery}, which maps each row only when it is requested, so that
+ * arbitrary large results can be processed in constant memory. The underlying cursor and its (pooled) connection
+ * are held until the iterator is either exhausted or closed, so always close it in a finally block.
+ *
+ * @since 1.0
+ */
+public final class ORMLiteResultIterator<T> implements Iterator<T>, Closeable {
+
+    private final Cursor<T> cursor;
+    //the rows which still have to be skipped, because the database does not support the offset
+    private int skip;
+    //the rows which still may be returned
+    private int remaining;
+    private boolean closed;
+
+    ORMLiteResultIterator(Cursor<T> cursor, int skip, int maxResults) {
+        this.cursor = cursor;
+        this.skip = skip;
+        this.remaining = maxResults;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        try {
+            while (skip > 0 && remaining > 0 && cursor.hasNext()) {
+                cursor.next();
+                skip--;
+            }
+            if (remaining > 0 && cursor.hasNext()) {
+                return true;
+            }
+        } catch (SQLException e) {
+            closeQuietly();
+            throw new IllegalStateException(e);
+        }
+        closeQuietly();
+        return false;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        remaining--;
+        try {
+            return cursor.next();
+        } catch (SQLException e) {
+            closeQuietly();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Releases the cursor and the connection. Does nothing if already closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        cursor.close();
+    }
+
+    /**
+     * Like {@link #close()} but ignores any exception.
+     */
+    public void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            //ignored by intention
+        }
+    }
+
+    /**
+     * The source of the mapped rows.
+     */
+    interface Cursor<T> extends Closeable {
+        boolean hasNext() throws SQLException;
+
+        T next() throws SQLException;
+    }
+
+    /**
+     * Reads the rows of a compiled statement and returns the statement (into the cache, if any) and the connection
+     * afterwards.
+     */
+    static final class StatementCursor<T> implements Cursor<T> {
+        private final ConnectionSource connectionSource;
+        private final DatabaseConnection connection;
+        @Nullable
+        private final ORMLiteStatementCache cache;
+        private final String sql;
+        private final CompiledStatement statement;
+        private final DatabaseResults results;
+        private final RawRowMapper<T> mapper;
+        private final String[] columns;
+        private boolean fetched;
+        private boolean available;
+
+        StatementCursor(ConnectionSource connectionSource, DatabaseConnection connection, @Nullable ORMLiteStatementCache cache, String sql, CompiledStatement statement, DatabaseResults results, RawRowMapper<T> mapper) throws SQLException {
+            this.connectionSource = connectionSource;
+            this.connection = connection;
+            this.cache = cache;
+            this.sql = sql;
+            this.statement = statement;
+            this.results = results;
+            this.mapper = mapper;
+            this.columns = results.getColumnNames();
+        }
+
+        @Override
+        public boolean hasNext() throws SQLException {
+            if (!fetched) {
+                available = results.next();
+                fetched = true;
+            }
+            return available;
+        }
+
+        @Override
+        public T next() throws SQLException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            fetched = false;
+            String[] values = new String[columns.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = results.getString(i);
+            }
+            return mapper.mapRow(columns, values);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                results.close();
+                if (cache == null) {
+                    statement.close();
+                } else {
+                    cache.offer(sql, statement);
+                }
+            } finally {
+                try {
+                    connectionSource.releaseConnection(connection);
+                } catch (SQLException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.support.CompiledStatement;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * The compiled (prepared) statements of a single pooled connection, keyed by their sql, so that a query which is
+ * executed again is neither parsed nor planned again. At most maxSize idle statements are kept, the least recently
+ * used one is closed first. A statement which is in use is removed from the cache, so a concurrent execution of the
+ * same sql (e.g. two open iterators) gets its own statement.
+ *
+ * @since 1.0
+ */
+final class ORMLiteStatementCache {
+
+    private final Map<String, CompiledStatement> idle;
+
+    ORMLiteStatementCache(final int maxSize) {
+        this.idle = new LinkedHashMap<String, CompiledStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledStatement> eldest) {
+                if (size() > maxSize) {
+                    eldest.getValue().closeQuietly();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Removes and returns the idle statement for the sql or null.
+     */
+    @Nullable
+    synchronized CompiledStatement take(String sql) {
+        return idle.remove(sql);
+    }
+
+    /**
+     * Returns a statement, which is not used anymore, into the cache. If there is already one for the sql, it is closed.
+     */
+    synchronized void offer(String sql, CompiledStatement stmt) {
+        if (idle.containsKey(sql)) {
+            stmt.closeQuietly();
+        } else {
+            idle.put(sql, stmt);
+        }
+    }
+
+    /**
+     * Closes all idle statements.
+     */
+    synchronized void close() {
+        for (CompiledStatement stmt : idle.values()) {
+            stmt.closeQuietly();
+        }
+        idle.clear();
+    }
+}
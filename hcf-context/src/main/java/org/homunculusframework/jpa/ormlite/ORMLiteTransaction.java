@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
+import javax.persistence.RollbackException;
+
+/**
+ * A resource local transaction of the {@link ORMLiteEntityManager}. Because the entity manager is shared between
+ * threads, each thread has its own transaction: between {@link #begin()} and {@link #commit()} or
+ * {@link #rollback()} a connection is bound to the thread, so that all operations of the entity manager from
+ * this thread use it without auto commit. Operations of other threads are not affected. An active transaction is
+ * bound to its thread only until it has been completed, so that neither the transaction nor its callbacks are kept
+ * reachable by pooled threads afterwards.
+ *
+ * @since 1.0
+ */
+public class ORMLiteTransaction implements EntityTransaction {
+
+    private final ConnectionSource connectionSource;
+    //the active transaction of each thread, as seen by the entity manager
+    private final ThreadLocal<ORMLiteTransaction> active;
+    @Nullable
+    private DatabaseConnection connection;
+    private boolean rollbackOnly;
+    private final List<Runnable> completionCallbacks = new ArrayList<>();
+
+    ORMLiteTransaction(ConnectionSource connectionSource, ThreadLocal<ORMLiteTransaction> active) {
+        this.connectionSource = connectionSource;
+        this.active = active;
+    }
+
+    @Override
+    public void begin() {
+        if (connection != null) {
+            throw new IllegalStateException("transaction is already active");
+        }
+        if (active.get() != null) {
+            throw new IllegalStateException("another transaction is already active in this thread");
+        }
+        DatabaseConnection con = null;
+        try {
+            //the table name is not used by the jdbc connection sources
+            con = connectionSource.getReadWriteConnection(null);
+            connectionSource.saveSpecialConnection(con);
+            if (con.isAutoCommitSupported() && con.isAutoCommit()) {
+                con.setAutoCommit(false);
+            }
+            connection = con;
+            rollbackOnly = false;
+            active.set(this);
+        } catch (SQLException e) {
+            if (con != null) {
+                release(con);
+            }
+            throw new PersistenceException(e);
+        }
+    }
+
+    @Override
+    public void commit() {
+        DatabaseConnection con = requireActive();
+        if (rollbackOnly) {
+            rollback();
+            throw new RollbackException("transaction has been marked for rollback only");
+        }
+        try {
+            con.commit(null);
+        } catch (SQLException e) {
+            rollback();
+            throw new RollbackException(e);
+        }
+        end(con);
+    }
+
+    @Override
+    public void rollback() {
+        DatabaseConnection con = requireActive();
+        try {
+            con.rollback(null);
+        } catch (SQLException e) {
+            throw new PersistenceException(e);
+        } finally {
+            end(con);
+        }
+    }
+
+    @Override
+    public void setRollbackOnly() {
+        requireActive();
+        rollbackOnly = true;
+    }
+
+    @Override
+    public boolean getRollbackOnly() {
+        requireActive();
+        return rollbackOnly;
+    }
+
+    @Override
+    public boolean isActive() {
+        return connection != null;
+    }
+
+    /**
+     * Runs the callback after the active transaction has been committed or rolled back.
+     */
+    void afterCompletion(Runnable callback) {
+        requireActive();
+        completionCallbacks.add(callback);
+    }
+
+    private DatabaseConnection requireActive() {
+        if (connection == null) {
+            throw new IllegalStateException("transaction is not active");
+        }
+        return connection;
+    }
+
+    private void end(DatabaseConnection con) {
+        connection = null;
+        rollbackOnly = false;
+        if (active.get() == this) {
+            active.remove();
+        }
+        try {
+            if (con.isAutoCommitSupported() && !con.isAutoCommit()) {
+                con.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new PersistenceException(e);
+        } finally {
+            try {
+                release(con);
+            } finally {
+                runCompletionCallbacks();
+            }
+        }
+    }
+
+    private void runCompletionCallbacks() {
+        for (Runnable callback : completionCallbacks) {
+            callback.run();
+        }
+        completionCallbacks.clear();
+    }
+
+    private void release(DatabaseConnection con) {
+        //ormlite's batch tasks increment the nesting of a saved connection without always clearing it again
+        while (connectionSource.getSpecialConnection(null) == con) {
+            connectionSource.clearSpecialConnection(con);
+        }
+        try {
+            connectionSource.releaseConnection(con);
+        } catch (SQLException e) {
+            throw new PersistenceException(e);
+        }
+    }
+}
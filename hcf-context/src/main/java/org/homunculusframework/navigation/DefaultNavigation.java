@@ -24,12 +24,21 @@ import org.homunculusframework.factory.container.MethodBinding;
 import org.homunculusframework.factory.container.ObjectBinding;
 import org.homunculusframework.factory.scope.ContextScope;
 import org.homunculusframework.factory.scope.Scope;
+import org.homunculusframework.lang.Destroyable;
+import org.homunculusframework.lang.Function;
 import org.homunculusframework.lang.Panic;
 import org.homunculusframework.lang.Reflection;
 import org.homunculusframework.lang.Result;
+import org.homunculusframework.scope.SettableTask;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -41,6 +50,11 @@ import javax.annotation.Nullable;
  * everything from a given {@link Scope}. It automatically dispatches
  * calls to {@link #backward()} automatically to {@link UserInterfaceState#getBean()} first (if that
  * implements {@link BackActionConsumer}.
+ * <p>
+ * Requests can be prefetched using {@link #prefetch(Binding)}, so that the expensive part of a request
+ * (e.g. the I/O of a controller) is already done, when the user actually navigates. Left states can optionally
+ * be retained alive, so that going backwards reattaches them instead of creating them again, see
+ * {@link #setRetainedScopeCache(long, Function)}.
  *
  * @author Torben Schinke
  * @since 1.0
@@ -49,7 +63,20 @@ public class DefaultNavigation implements Navigation {
     private final Scope scope;
     @Nullable
     private UserInterfaceState currentUIS;
-    private static final AtomicInteger requestNo = new AtomicInteger();
+    private final AtomicInteger requestNo = new AtomicInteger();
+    @Nullable
+    private volatile Task<?> pendingTask;
+    private final Map<RequestKey, Prefetch> prefetches = new HashMap<>();
+    private volatile long prefetchTimeToLive = 30_000;
+    //evicts expired prefetches, also if the app is idle
+    @Nullable
+    private Timer prefetchTimer;
+    @Nullable
+    private RetainedScopeCache retainedScopes;
+    @Nullable
+    private Function<Binding<?, ?>, Long> retentionWeigher;
+    //true if the newest request navigates forward, so that the left state may be reattached later on
+    private volatile boolean retainLeft;
 
     private final List<Binding<?, ?>> stack;
     private boolean crashOnFail = true;
@@ -58,10 +85,32 @@ public class DefaultNavigation implements Navigation {
     private final Handler objectBindingHandler;
 
     public DefaultNavigation(Scope scope, Handler methodBindingHandler, Handler objectBindingHandler) {
+        this(scope, methodBindingHandler, objectBindingHandler, new CopyOnWriteArrayList<>());
+    }
+
+    /**
+     * Creates a navigation with a custom stack implementation, e.g. a {@link SpillingStack} to limit the amount of
+     * entries kept in memory. The stack must be thread safe and is synchronized on by this navigation. If the
+     * stack is {@link Destroyable}, it is destroyed together with the given scope.
+     */
+    public DefaultNavigation(Scope scope, Handler methodBindingHandler, Handler objectBindingHandler, List<Binding<?, ?>> stack) {
         this.scope = scope;
-        this.stack = new CopyOnWriteArrayList<>();
+        this.stack = stack;
         this.methodBindingHandler = methodBindingHandler;
         this.objectBindingHandler = objectBindingHandler;
+        this.scope.addDestroyCallback(s -> {
+            cancelPrefetches();
+            synchronized (prefetches) {
+                if (prefetchTimer != null) {
+                    prefetchTimer.cancel();
+                    prefetchTimer = null;
+                }
+            }
+            setRetainedScopeCache(0, null);
+            if (stack instanceof Destroyable) {
+                ((Destroyable) stack).destroy();
+            }
+        });
     }
 
     /**
@@ -101,7 +150,7 @@ public class DefaultNavigation implements Navigation {
             wasGoingForward = true;
             stack.add(request);
         }
-        applyInternal(request);
+        applyInternal(request, false, true);
     }
 
     @Override
@@ -122,8 +171,8 @@ public class DefaultNavigation implements Navigation {
             if (stack.isEmpty()) {
                 return false;
             }
-            //just execute it once again, so that it get's applied
-            applyInternal(stack.get(stack.size() - 1));
+            //just execute it once again (or reattach it, if retained), so that it get's applied
+            applyInternal(stack.get(stack.size() - 1), true, false);
             return true;
         }
     }
@@ -136,12 +185,12 @@ public class DefaultNavigation implements Navigation {
             while (!stack.isEmpty()) {
                 Binding<?, ?> prior = pop();
                 if (prior != null && prior.getClass() == request.getClass()) {
-                    applyInternal(request);
+                    applyInternal(request, true, false);
                     return;
                 }
             }
             stack.add(request);
-            applyInternal(request);
+            applyInternal(request, true, false);
         }
     }
 
@@ -224,6 +273,299 @@ public class DefaultNavigation implements Navigation {
         return wasGoingForward;
     }
 
+    /**
+     * Sets the time in milliseconds after which an unused prefetch is destroyed. Expired prefetches are
+     * evicted by a timer, so also without any further navigation. The default is 30 seconds.
+     *
+     * @param millis the time to live of a prefetch
+     */
+    public void setPrefetchTimeToLive(long millis) {
+        this.prefetchTimeToLive = millis;
+    }
+
+    /**
+     * Speculatively executes the given request into a detached {@link ContextScope}, without applying it. A
+     * subsequent navigation with an equal request adopts the prepared state instead of executing the request again.
+     * Requests are equal, if they have the same type and equal arguments (their fields), unless the binding
+     * implements {@link Object#equals(Object)} itself. Prefetching an already prefetched request returns the existing task.
+     * Unused prefetches are destroyed after the configured time to live, see {@link #setPrefetchTimeToLive(long)}.
+     *
+     * @param request the request to prepare
+     * @return the task which provides the prepared but not yet applied state
+     */
+    public Task<Result<UserInterfaceState>> prefetch(Binding<?, ?> request) {
+        evictExpiredPrefetches();
+        final Binding<?, ?> binding;
+        if (request instanceof HistoryProcessorBinding) {
+            //the history processing happens when the request is actually applied
+            binding = ((HistoryProcessorBinding) request).getDelegate();
+        } else {
+            binding = request;
+        }
+        RequestKey key = RequestKey.of(binding);
+        long timeToLive = prefetchTimeToLive;
+        Prefetch prefetch;
+        synchronized (prefetches) {
+            prefetch = prefetches.get(key);
+            if (prefetch != null) {
+                return prefetch.task;
+            }
+            prefetch = new Prefetch(binding, System.currentTimeMillis() + timeToLive);
+            prefetches.put(key, prefetch);
+            if (prefetchTimer == null) {
+                prefetchTimer = new Timer("hcf-prefetch-ttl", true);
+            }
+            prefetchTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    evictExpiredPrefetches();
+                }
+            }, timeToLive + 1);
+        }
+        executePrefetch(prefetch);
+        return prefetch.task;
+    }
+
+    /**
+     * Cancels and destroys the prefetch of the given request, if any.
+     *
+     * @param request the request which has been prefetched
+     * @return true if a prefetch has been cancelled
+     */
+    public boolean cancelPrefetch(Binding<?, ?> request) {
+        Binding<?, ?> binding = request instanceof HistoryProcessorBinding ? ((HistoryProcessorBinding) request).getDelegate() : request;
+        RequestKey key = RequestKey.of(binding);
+        Prefetch prefetch;
+        synchronized (prefetches) {
+            prefetch = prefetches.remove(key);
+        }
+        if (prefetch != null) {
+            prefetch.cancel();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Cancels and destroys all prefetches.
+     */
+    public void cancelPrefetches() {
+        List<Prefetch> tmp;
+        synchronized (prefetches) {
+            tmp = new ArrayList<>(prefetches.values());
+            prefetches.clear();
+        }
+        for (Prefetch prefetch : tmp) {
+            prefetch.cancel();
+        }
+    }
+
+    private void evictExpiredPrefetches() {
+        List<Prefetch> expired = null;
+        long now = System.currentTimeMillis();
+        synchronized (prefetches) {
+            Iterator<Prefetch> it = prefetches.values().iterator();
+            while (it.hasNext()) {
+                Prefetch prefetch = it.next();
+                if (prefetch.expiresAt <= now) {
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(prefetch);
+                    it.remove();
+                }
+            }
+        }
+        if (expired != null) {
+            for (Prefetch prefetch : expired) {
+                LoggerFactory.getLogger(getClass()).info("prefetch of {} expired", prefetch.request);
+                prefetch.cancel();
+            }
+        }
+    }
+
+    /**
+     * Removes and returns an adoptable prefetch for the given request. Failed prefetches are not adopted, so that
+     * the request is executed once again.
+     */
+    @Nullable
+    private Prefetch takePrefetch(Binding<?, ?> request) {
+        Prefetch prefetch;
+        synchronized (prefetches) {
+            //avoid the reflection of the key, if there is nothing to adopt
+            prefetch = prefetches.isEmpty() ? null : prefetches.remove(RequestKey.of(request));
+        }
+        if (prefetch == null) {
+            return null;
+        }
+        Result<UserInterfaceState> res = prefetch.task.peek();
+        if (prefetch.task.isDone() && (res == null || res.get() == null)) {
+            prefetch.cancel();
+            return null;
+        }
+        return prefetch;
+    }
+
+    private void executePrefetch(Prefetch prefetch) {
+        Binding<?, ?> binding = prefetch.request;
+        if (binding instanceof MethodBinding) {
+            Task<Result<ObjectBinding>> methodTask = createObjectBinding((MethodBinding<?>) binding);
+            prefetch.pending = methodTask;
+            methodTask.whenDone(res -> {
+                if (res.getThrowable() != null || res.isCancelled()) {
+                    prefetch.complete(Result.nullValue(res));
+                } else if (res.get() == null) {
+                    prefetch.complete(Result.auto(new Panic("method binding is not allowed to return null")));
+                } else {
+                    executePrefetch(prefetch, res.get());
+                }
+            });
+        } else if (binding instanceof ObjectBinding) {
+            executePrefetch(prefetch, (ObjectBinding) binding);
+        } else {
+            prefetch.complete(Result.auto(new Panic("binding type unknown: " + binding)));
+        }
+    }
+
+    private void executePrefetch(Prefetch prefetch, ObjectBinding binding) {
+        if (prefetch.cancelled) {
+            prefetch.complete(Result.create());
+            return;
+        }
+        Task<Result<ContextScope>> createTask = createScope(binding);
+        prefetch.pending = createTask;
+        createTask.whenDone(res -> {
+            if (res.get() != null) {
+                prefetch.complete(Result.create(new UserInterfaceState(prefetch.request, binding, res.get(), res.get().getContext())));
+            } else {
+                prefetch.complete(Result.nullValue(res));
+            }
+        });
+    }
+
+    /**
+     * Applies a prefetched state, which may still be in flight.
+     */
+    private void adoptPrefetch(int seq, @Nullable Binding<?, ?> currentRequest, Prefetch prefetch) {
+        LoggerFactory.getLogger(getClass()).info("adopting prefetch of {}", prefetch.request);
+        pendingTask = prefetch.task;
+        prefetch.task.whenDone(res -> {
+            UserInterfaceState uis = res.get();
+            if (isSuperseded(seq)) {
+                LoggerFactory.getLogger(getClass()).info("discarded superseded request {}", prefetch.request);
+                if (uis != null) {
+                    destroyDetached(uis.scope);
+                }
+            } else if (uis == null) {
+                Throwable details = res.getThrowable();
+                postAfterApply(currentRequest, prefetch.request, details != null ? details : new Panic("prefetch has been cancelled"));
+            } else {
+                pendingTask = null;
+                tearDownOldAndApplyNew(uis);
+            }
+        });
+    }
+
+    /**
+     * Configures the retention of left states. When a state is left and the weigher returns a positive weight for its
+     * request, the state and its {@link ContextScope} are not destroyed but kept in a least recently used cache.
+     * Going backwards to an equal request (same type and equal arguments, like for {@link #prefetch(Binding)})
+     * reattaches the living state, even if the request is another instance (e.g. restored by a {@link SpillingStack}),
+     * see also
+     * {@link #onReattach(UserInterfaceState)}. If the summed weight exceeds the budget, the least recently left
+     * states are destroyed. The weight is an estimation of the retained memory, in whatever unit the weigher likes.
+     *
+     * @param budget  the maximum summed weight of all retained states
+     * @param weigher returns null or a non-positive value for requests which must not be retained. Null disables the retention and destroys all retained states.
+     */
+    public void setRetainedScopeCache(long budget, @Nullable Function<Binding<?, ?>, Long> weigher) {
+        List<UserInterfaceState> evicted;
+        synchronized (stack) {
+            RetainedScopeCache old = retainedScopes;
+            evicted = old == null ? null : old.clear();
+            retentionWeigher = weigher;
+            retainedScopes = weigher == null ? null : new RetainedScopeCache(budget);
+        }
+        if (evicted != null) {
+            for (UserInterfaceState uis : evicted) {
+                destroyDetached(uis.scope);
+            }
+        }
+    }
+
+    /**
+     * Puts the left state into the retained states, if configured and requested by the weigher.
+     *
+     * @return true if the state is not applied anymore but has been retained or destroyed by eviction
+     */
+    private boolean retain(UserInterfaceState uis) {
+        List<UserInterfaceState> evicted;
+        synchronized (stack) {
+            RetainedScopeCache cache = retainedScopes;
+            Function<Binding<?, ?>, Long> weigher = retentionWeigher;
+            if (cache == null || weigher == null) {
+                return false;
+            }
+            Long weight = weigher.apply(uis.origin);
+            if (weight == null || weight <= 0) {
+                return false;
+            }
+            evicted = cache.put(uis.origin, uis, weight);
+        }
+        for (UserInterfaceState evictedUIS : evicted) {
+            LoggerFactory.getLogger(getClass()).info("evicted retained UIS {}", evictedUIS);
+            destroyDetached(evictedUIS.scope);
+        }
+        return true;
+    }
+
+    @Nullable
+    private UserInterfaceState takeRetained(Binding<?, ?> request) {
+        synchronized (stack) {
+            RetainedScopeCache cache = retainedScopes;
+            return cache == null ? null : cache.take(request);
+        }
+    }
+
+    /**
+     * Reattaches a retained state, which is applied like a newly created one.
+     */
+    private void reattach(int seq, @Nullable Binding<?, ?> currentRequest, UserInterfaceState uis) {
+        LoggerFactory.getLogger(getClass()).info("reattaching retained UIS {}", uis);
+        Task<Result<Void>> reattachTask = Async.inHandler(getScope(), objectBindingHandler, false, ctx -> {
+            try {
+                onReattach(uis);
+                return Result.create();
+            } catch (Throwable e) {
+                return Result.auto(e);
+            }
+        });
+        pendingTask = reattachTask;
+        reattachTask.whenDone(res -> {
+            if (isSuperseded(seq)) {
+                LoggerFactory.getLogger(getClass()).info("discarded superseded request {}", uis.origin);
+                destroyDetached(uis.scope);
+            } else if (res.getThrowable() != null) {
+                destroyDetached(uis.scope);
+                postAfterApply(currentRequest, uis.origin, res.getThrowable());
+            } else {
+                pendingTask = null;
+                tearDownOldAndApplyNew(uis);
+            }
+        });
+    }
+
+    /**
+     * Called from the object binding handler, before a retained state is applied again. A newly created state
+     * usually presents itself when constructed, so a retained one has to be presented once more, which is up to
+     * the concrete navigation.
+     *
+     * @param uis the retained state, which is about to be applied
+     */
+    protected void onReattach(UserInterfaceState uis) {
+
+    }
+
     /**
      * Called to apply a new UIS for navigation.
      *
@@ -235,6 +577,16 @@ public class DefaultNavigation implements Navigation {
     }
 
     private void applyInternal(Binding<?, ?> b) {
+        applyInternal(b, false, false);
+    }
+
+    /**
+     * @param b          the request to apply
+     * @param reattach   true if a retained state for the request may be reattached, which is only the case when going backwards
+     * @param retainLeft true if the left state may be retained, which is only the case when going forward, because
+     *                   otherwise it is not on the stack anymore and can never be reattached
+     */
+    private void applyInternal(Binding<?, ?> b, boolean reattach, boolean retainLeft) {
         final Binding<?, ?> binding;
         //only apply the history processing once
         if (b instanceof HistoryProcessorBinding) {
@@ -243,6 +595,12 @@ public class DefaultNavigation implements Navigation {
         }else{
             binding = b;
         }
+        //each request supersedes all prior requests, which are still in flight
+        final int seq = requestNo.incrementAndGet();
+        //only the newest request applies its state, so it also decides about the left one
+        this.retainLeft = retainLeft;
+        cancelPending();
+        evictExpiredPrefetches();
         UserInterfaceState uis = currentUIS;
         Binding<?, ?> currentRequest;
         if (uis != null) {
@@ -252,37 +610,33 @@ public class DefaultNavigation implements Navigation {
         }
         postBeforeApply(currentRequest, binding);
 //        binding.setStackTrace(DefaultFactory.getCallStack(0));
-        if (binding instanceof MethodBinding) {
+        UserInterfaceState retained = reattach ? takeRetained(binding) : null;
+        Prefetch prefetch = retained == null ? takePrefetch(binding) : null;
+        if (retained != null) {
+            reattach(seq, currentRequest, retained);
+        } else if (prefetch != null) {
+            adoptPrefetch(seq, currentRequest, prefetch);
+        } else if (binding instanceof MethodBinding) {
             //a method binding is async and always returns an object binding
-            MethodBinding methodBinding = (MethodBinding<?>) binding;
-            Task<Result<ObjectBinding>> methodTask = Async.inHandler(getScope(), methodBindingHandler, true, ctx -> {
-                /*
-                Currently this works always for generated code because method bindings are always tied to the common ActivityScope context, which is the same as the navigation scope (by default).
-                For sure a developer may easily break that assumption, but then we cannot do much on that. This is library code and he has to write his own navigation then.
-                 */
-                try {
-                    ObjectBinding objectBinding = (ObjectBinding) methodBinding.create(getScope());
-                    return Result.create(objectBinding);
-                } catch (Throwable e) {
-                    return Result.auto(e);
-                }
-            });
-
+            Task<Result<ObjectBinding>> methodTask = createObjectBinding((MethodBinding<?>) binding);
+            pendingTask = methodTask;
             methodTask.whenDone(res -> {
-                if (res.getThrowable() != null) {
+                if (isSuperseded(seq)) {
+                    LoggerFactory.getLogger(getClass()).info("discarded superseded request {}", binding);
+                } else if (res.getThrowable() != null) {
                     postAfterApply(currentRequest, binding, res.getThrowable());
                 } else {
                     ObjectBinding chainedBinding = res.get();
                     if (chainedBinding == null) {
                         postAfterApply(currentRequest, binding, new Panic("method binding is not allowed to return null"));
                     } else {
-                        attachTask(chainedBinding, scope);
+                        attachTask(seq, binding, chainedBinding);
                     }
                 }
             });
         } else if (binding instanceof ObjectBinding) {
             //already just an object binding
-            attachTask((ObjectBinding) binding, scope);
+            attachTask(seq, binding, (ObjectBinding) binding);
         } else {
             //something unkown
             postAfterApply(currentRequest, binding, new Panic("binding type unknown: " + binding));
@@ -318,18 +672,64 @@ public class DefaultNavigation implements Navigation {
 
     }
 
-    //TODO actually it is possible that requests overpass each other, this must be avoided by the callee e.g. by locking the screen
-    private void attachTask(ObjectBinding binding, Scope uisScope) {
-        UserInterfaceState uis = currentUIS;
-        ObjectBinding<?, ?> currentRequest;
-        if (uis != null) {
-            currentRequest = uis.getRequest();
-        } else {
-            currentRequest = null;
+    /**
+     * Returns true, if another request has been issued after the request with the given sequence number.
+     */
+    private boolean isSuperseded(int seq) {
+        return requestNo.get() != seq;
+    }
+
+    /**
+     * Cancels the task of the request which is currently in flight, if any.
+     */
+    private void cancelPending() {
+        Task<?> task = pendingTask;
+        if (task != null) {
+            pendingTask = null;
+            task.cancel(true);
         }
+    }
+
+    /**
+     * Destroys a scope which is not applied, e.g. because it has been created for a superseded request or because it
+     * has been evicted from the retained states.
+     */
+    private void destroyDetached(ContextScope<?> detachedScope) {
+        Async.inHandler(getScope(), objectBindingHandler, false, ctx -> {
+            try {
+                detachedScope.onDestroy();
+                return Result.create();
+            } catch (Throwable e) {
+                LoggerFactory.getLogger(getClass()).error("failed to destroy detached scope", e);
+                return Result.auto(e);
+            }
+        });
+    }
+
+    /**
+     * Executes the method binding on the method binding handler.
+     */
+    private Task<Result<ObjectBinding>> createObjectBinding(MethodBinding<?> methodBinding) {
+        return Async.inHandler(getScope(), methodBindingHandler, true, ctx -> {
+            /*
+            Currently this works always for generated code because method bindings are always tied to the common ActivityScope context, which is the same as the navigation scope (by default).
+            For sure a developer may easily break that assumption, but then we cannot do much on that. This is library code and he has to write his own navigation then.
+             */
+            try {
+                ObjectBinding objectBinding = (ObjectBinding) ((MethodBinding) methodBinding).create(getScope());
+                return Result.create(objectBinding);
+            } catch (Throwable e) {
+                return Result.auto(e);
+            }
+        });
+    }
 
+    /**
+     * Creates the scope of the object binding on the object binding handler.
+     */
+    private Task<Result<ContextScope>> createScope(ObjectBinding binding) {
         //we don't want to interrupt the main thread, as this may cause damage to the fragile Android UI logic
-        Task<Result<ContextScope>> createTask = Async.inHandler(getScope(), objectBindingHandler, false, ctx -> {
+        return Async.inHandler(getScope(), objectBindingHandler, false, ctx -> {
              /*
                 Currently this works always for generated code because method bindings are always tied to the common ActivityScope context, which is the same as the navigation scope (by default).
                 For sure a developer may easily break that assumption, but then we cannot do much on that. This is library code and he has to write his own navigation then.
@@ -342,22 +742,57 @@ public class DefaultNavigation implements Navigation {
                 return Result.auto(e);
             }
         });
+    }
+
+    /**
+     * Requests may overtake each other, because each one is executed asynchronously. Only the newest request
+     * (see {@link #requestNo}) is allowed to apply its state, all others are discarded and their scopes are destroyed.
+     */
+    private void attachTask(int seq, Binding<?, ?> origin, ObjectBinding binding) {
+        UserInterfaceState uis = currentUIS;
+        ObjectBinding<?, ?> currentRequest;
+        if (uis != null) {
+            currentRequest = uis.getRequest();
+        } else {
+            currentRequest = null;
+        }
 
+        Task<Result<ContextScope>> createTask = createScope(binding);
+        pendingTask = createTask;
         createTask.whenDone(res -> {
-            if (res.getThrowable() != null) {
+            if (isSuperseded(seq)) {
+                LoggerFactory.getLogger(getClass()).info("discarded superseded request {}", binding);
+                if (res.get() != null) {
+                    destroyDetached(res.get());
+                }
+            } else if (res.getThrowable() != null) {
                 postAfterApply(currentRequest, binding, res.getThrowable());
             } else {
-                tearDownOldAndApplyNew(new UserInterfaceState(binding, res.get(), res.get().getContext()));
+                pendingTask = null;
+                tearDownOldAndApplyNew(new UserInterfaceState(origin, binding, res.get(), res.get().getContext()));
             }
         });
     }
 
+    /**
+     * Publishes the new state and destroys the old one afterwards. In contrast to earlier versions, the new state is
+     * the current one already while the old one is destroyed and it remains the current one, even if the destruction
+     * fails (which is reported by {@link #onAfterApply(Binding, Binding, Throwable)}). Otherwise an overtaking request
+     * would destroy the old state a second time and the new one never. The old state is only retained when going
+     * forward, because otherwise it has been removed from the stack and can never be reattached. It is also never
+     * retained, if the new one has been created for an equal request, because that would keep two living states
+     * of the same request.
+     */
     private void tearDownOldAndApplyNew(UserInterfaceState uis) {
+        //claim the old state at once, so that a subsequent request cannot tear it down a second time
         UserInterfaceState oldUIS = currentUIS;
+        currentUIS = uis;
         if (oldUIS == null) {
-            currentUIS = uis;
             postAfterApply(null, uis.getRequest(), null);
             LoggerFactory.getLogger(getClass()).info("applied UIS {}", uis);
+        } else if (retainLeft && !RequestKey.of(oldUIS.origin).equals(RequestKey.of(uis.origin)) && retain(oldUIS)) {
+            LoggerFactory.getLogger(getClass()).info("applied UIS {}, retained {}", uis, oldUIS);
+            postAfterApply(oldUIS.getRequest(), uis.getRequest(), null);
         } else {
 
             Task<Result<Void>> destroyTask = Async.inHandler(getScope(), objectBindingHandler, false, ctx -> {
@@ -373,7 +808,6 @@ public class DefaultNavigation implements Navigation {
                     postAfterApply(oldUIS.getRequest(), uis.getRequest(), res.getThrowable());
                 } else {
                     LoggerFactory.getLogger(getClass()).info("applied UIS {}", uis);
-                    currentUIS = uis;
                     postAfterApply(oldUIS.getRequest(), uis.getRequest(), null);
                 }
             });
@@ -382,6 +816,53 @@ public class DefaultNavigation implements Navigation {
     }
 
 
+    /**
+     * A speculatively executed request, which is either adopted by a navigation request or destroyed.
+     */
+    private final class Prefetch {
+        private final Binding<?, ?> request;
+        private final long expiresAt;
+        private final SettableTask<Result<UserInterfaceState>> task;
+        @Nullable
+        private volatile Task<?> pending;
+        private volatile boolean cancelled;
+
+        Prefetch(Binding<?, ?> request, long expiresAt) {
+            this.request = request;
+            this.expiresAt = expiresAt;
+            this.task = SettableTask.create(getScope(), "prefetch-" + request);
+        }
+
+        synchronized void complete(Result<UserInterfaceState> res) {
+            if (cancelled) {
+                UserInterfaceState uis = res.get();
+                if (uis != null) {
+                    destroyDetached(uis.scope);
+                }
+                Result<UserInterfaceState> cancelledRes = Result.create();
+                cancelledRes.put(Result.TAG_CANCELLED);
+                task.set(cancelledRes);
+            } else {
+                task.set(res);
+            }
+        }
+
+        synchronized void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            Task<?> tmp = pending;
+            if (tmp != null) {
+                tmp.cancel(true);
+            }
+            Result<UserInterfaceState> res = task.peek();
+            if (task.isDone() && res != null && res.get() != null) {
+                destroyDetached(res.get().scope);
+            }
+        }
+    }
+
     /**
      * Represents a user interface state, see also {@link org.homunculusframework.stereotype.UserInterfaceState}
      */
@@ -389,8 +870,11 @@ public class DefaultNavigation implements Navigation {
         private final ContextScope scope;
         private final Object bean;
         private final ObjectBinding<?, ?> request;
+        //the request as it has been navigated to, which is not necessarily an object binding
+        private final Binding<?, ?> origin;
 
-        UserInterfaceState(ObjectBinding<?, ?> request, ContextScope scope, Object bean) {
+        UserInterfaceState(Binding<?, ?> origin, ObjectBinding<?, ?> request, ContextScope scope, Object bean) {
+            this.origin = origin;
             this.request = request;
             this.scope = scope;
             this.bean = bean;
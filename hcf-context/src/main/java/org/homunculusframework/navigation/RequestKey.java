@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.navigation;
+
+import org.homunculusframework.factory.container.Binding;
+import org.homunculusframework.lang.Panic;
+import org.homunculusframework.lang.Reflection;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Identifies a request by its type and its arguments. The generated bindings do not implement equals, so two
+ * bindings are equal, if they have the same class and all their instance fields (which are the arguments of the
+ * request) are equal, arrays are compared by their content. A binding which implements equals itself is compared by
+ * its own implementation.
+ *
+ * @since 1.0
+ */
+final class RequestKey {
+
+    private final Binding<?, ?> request;
+    //null if the request implements equals
+    private final Object[] arguments;
+    private final int hash;
+
+    private RequestKey(Binding<?, ?> request) {
+        this.request = request;
+        if (implementsEquals(request.getClass())) {
+            arguments = null;
+            hash = request.hashCode();
+        } else {
+            List<Object> values = new ArrayList<>();
+            for (Field field : Reflection.getFields(request.getClass())) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    values.add(field.get(request));
+                } catch (IllegalAccessException e) {
+                    throw new Panic(e);
+                }
+            }
+            arguments = values.toArray();
+            hash = 31 * request.getClass().hashCode() + Arrays.deepHashCode(arguments);
+        }
+    }
+
+    static RequestKey of(Binding<?, ?> request) {
+        return new RequestKey(request);
+    }
+
+    Binding<?, ?> getRequest() {
+        return request;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RequestKey)) {
+            return false;
+        }
+        RequestKey other = (RequestKey) o;
+        if (request.getClass() != other.request.getClass()) {
+            return false;
+        }
+        if (arguments == null) {
+            return request.equals(other.request);
+        }
+        return Arrays.deepEquals(arguments, other.arguments);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(request);
+    }
+
+    private static boolean implementsEquals(Class<?> type) {
+        try {
+            return type.getMethod("equals", Object.class).getDeclaringClass() != Object.class;
+        } catch (NoSuchMethodException e) {
+            throw new Panic(e);
+        }
+    }
+}
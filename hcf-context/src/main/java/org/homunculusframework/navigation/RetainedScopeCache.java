@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.navigation;
+
+import org.homunculusframework.factory.container.Binding;
+import org.homunculusframework.navigation.DefaultNavigation.UserInterfaceState;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+
+
+/**
+ * A least recently used cache of user interface states which have been left but are still alive, so that they
+ * can be reattached without creating them again. The cache does not destroy anything itself, instead it returns
+ * the evicted states to the caller. Not thread safe.
+ *
+ * @since 1.0
+ */
+final class RetainedScopeCache {
+    private final long budget;
+    //keyed by the arguments, because equal requests are not necessarily the same instances
+    private final LinkedHashMap<RequestKey, Retained> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    RetainedScopeCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Puts the state into the cache and returns all states which have been evicted to keep the budget. An already
+     * retained state for an equal request is replaced and evicted. A state which is heavier than the entire budget is
+     * evicted immediately.
+     */
+    List<UserInterfaceState> put(Binding<?, ?> request, UserInterfaceState uis, long uisWeight) {
+        List<UserInterfaceState> evicted = new ArrayList<>();
+        Retained old = entries.put(RequestKey.of(request), new Retained(uis, uisWeight));
+        if (old != null) {
+            weight -= old.weight;
+            evicted.add(old.uis);
+        }
+        weight += uisWeight;
+        Iterator<Entry<RequestKey, Retained>> it = entries.entrySet().iterator();
+        while (weight > budget && it.hasNext()) {
+            Retained eldest = it.next().getValue();
+            it.remove();
+            weight -= eldest.weight;
+            evicted.add(eldest.uis);
+        }
+        return evicted;
+    }
+
+    /**
+     * Removes and returns the state which has been retained for an equal request, see {@link RequestKey}.
+     */
+    @Nullable
+    UserInterfaceState take(Binding<?, ?> request) {
+        Retained retained = entries.remove(RequestKey.of(request));
+        if (retained == null) {
+            return null;
+        }
+        weight -= retained.weight;
+        return retained.uis;
+    }
+
+    /**
+     * Removes and returns all retained states.
+     */
+    List<UserInterfaceState> clear() {
+        List<UserInterfaceState> res = new ArrayList<>(entries.size());
+        for (Retained retained : entries.values()) {
+            res.add(retained.uis);
+        }
+        entries.clear();
+        weight = 0;
+        return res;
+    }
+
+    private static final class Retained {
+        private final UserInterfaceState uis;
+        private final long weight;
+
+        private Retained(UserInterfaceState uis, long weight) {
+            this.uis = uis;
+            this.weight = weight;
+        }
+    }
+}
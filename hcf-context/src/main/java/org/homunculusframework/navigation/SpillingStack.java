@@ -0,0 +1,304 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.navigation;
+
+import org.homunculusframework.factory.container.Binding;
+import org.homunculusframework.factory.serializer.Serializer;
+import org.homunculusframework.lang.Destroyable;
+import org.homunculusframework.lang.Panic;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+
+/**
+ * A navigation stack which keeps only the newest entries in memory. If the stack grows beyond the configured
+ * maximum depth, the oldest entries are serialized into a local file using the given {@link Serializer} and are
+ * restored, when the stack shrinks again (e.g. by going backwards). Spilled entries are still accessible through
+ * {@link #get(int)}, but each access deserializes them again.
+ * <p>
+ * Use it with {@link DefaultNavigation#DefaultNavigation(org.homunculusframework.factory.scope.Scope, org.homunculusframework.factory.container.Handler, org.homunculusframework.factory.container.Handler, List)}.
+ * All methods are synchronized on the instance, just like {@link DefaultNavigation} synchronizes on its stack.
+ * Iterators work on a snapshot, so that the stack can be modified while iterating.
+ * <p>
+ * If the spill file cannot be read anymore (e.g. the storage is full, removed or the file is damaged), all spilled
+ * entries are dropped and the failure is logged, so that the history just becomes shorter instead of crashing the
+ * app while navigating. An explicit access to a dropped entry throws an {@link IndexOutOfBoundsException}.
+ *
+ * @since 1.0
+ */
+public final class SpillingStack extends AbstractList<Binding<?, ?>> implements Destroyable {
+
+    private final int maxDepth;
+    private final File file;
+    private final Serializer serializer;
+    //the newest entries, which are at the top of the stack
+    private final ArrayList<Binding<?, ?>> memory = new ArrayList<>();
+    //the file offsets of the spilled entries, which are at the bottom of the stack
+    private final ArrayList<Long> offsets = new ArrayList<>();
+    @Nullable
+    private RandomAccessFile raf;
+
+    /**
+     * @param maxDepth   the maximum amount of entries to keep in memory, at least 2
+     * @param file       the file to spill the older entries into. It is truncated and owned by this stack.
+     * @param serializer the serializer to write and read the spilled entries
+     */
+    public SpillingStack(int maxDepth, File file, Serializer serializer) {
+        if (maxDepth < 2) {
+            throw new Panic("maxDepth must be at least 2 but is " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+        this.file = file;
+        this.serializer = serializer;
+    }
+
+    @Override
+    public synchronized Binding<?, ?> get(int index) {
+        int spilled = offsets.size();
+        if (index >= spilled) {
+            return memory.get(index - spilled);
+        }
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        Binding<?, ?> res = read(index);
+        if (res == null) {
+            throw new IndexOutOfBoundsException("index: " + index + ", the entry has been lost");
+        }
+        return res;
+    }
+
+    @Override
+    public synchronized int size() {
+        return offsets.size() + memory.size();
+    }
+
+    /**
+     * Returns the amount of entries which are currently spilled into the file.
+     */
+    public synchronized int getSpilledSize() {
+        return offsets.size();
+    }
+
+    @Override
+    public synchronized Binding<?, ?> set(int index, Binding<?, ?> element) {
+        if (index < offsets.size() && !restoreAll()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", the entry has been lost");
+        }
+        return memory.set(index - offsets.size(), element);
+    }
+
+    @Override
+    public synchronized void add(int index, Binding<?, ?> element) {
+        if (index < offsets.size() && !restoreAll()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", the entry has been lost");
+        }
+        memory.add(index - offsets.size(), element);
+        modCount++;
+        spill();
+    }
+
+    @Override
+    public synchronized Binding<?, ?> remove(int index) {
+        if (index < offsets.size() && !restoreAll()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", the entry has been lost");
+        }
+        Binding<?, ?> res = memory.remove(index - offsets.size());
+        modCount++;
+        restore();
+        return res;
+    }
+
+    @Override
+    public synchronized void clear() {
+        offsets.clear();
+        memory.clear();
+        modCount++;
+        truncate(0);
+    }
+
+    @Override
+    public Iterator<Binding<?, ?>> iterator() {
+        return snapshot().iterator();
+    }
+
+    /**
+     * Creates a copy of all entries, which deserializes all spilled entries.
+     */
+    public synchronized List<Binding<?, ?>> snapshot() {
+        List<Binding<?, ?>> res = new ArrayList<>(size());
+        for (int i = 0; i < offsets.size(); i++) {
+            Binding<?, ?> binding = read(i);
+            if (binding == null) {
+                //the spilled entries have been dropped
+                res.clear();
+                break;
+            }
+            res.add(binding);
+        }
+        res.addAll(memory);
+        return res;
+    }
+
+    /**
+     * Removes all entries and deletes the spill file.
+     */
+    @Override
+    public synchronized void destroy() {
+        offsets.clear();
+        memory.clear();
+        modCount++;
+        close();
+        if (file.exists() && !file.delete()) {
+            LoggerFactory.getLogger(getClass()).warn("failed to delete {}", file);
+        }
+    }
+
+    /**
+     * Moves the oldest in-memory entries into the file, as long as the memory exceeds the maximum depth.
+     */
+    private void spill() {
+        while (memory.size() > maxDepth) {
+            Binding<?, ?> oldest = memory.get(0);
+            try {
+                ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+                if (!serializer.serialize(oldest, tmp)) {
+                    LoggerFactory.getLogger(getClass()).warn("{} cannot serialize {}, keeping it in memory", serializer.getId(), oldest);
+                    return;
+                }
+                RandomAccessFile out = open();
+                long offset = out.length();
+                out.seek(offset);
+                out.writeInt(tmp.size());
+                out.write(tmp.toByteArray());
+                offsets.add(offset);
+                memory.remove(0);
+            } catch (IOException e) {
+                LoggerFactory.getLogger(getClass()).error("failed to spill {}, keeping it in memory", oldest, e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the newest spilled entries back into memory, if the memory falls below half of the maximum depth.
+     * This hysteresis avoids a serialization roundtrip for each forward and backward at the boundary.
+     */
+    private void restore() {
+        int min = Math.max(2, maxDepth / 2);
+        while (memory.size() < min && !offsets.isEmpty()) {
+            int last = offsets.size() - 1;
+            Binding<?, ?> binding = read(last);
+            if (binding == null) {
+                return;
+            }
+            memory.add(0, binding);
+            truncate(offsets.remove(last));
+        }
+    }
+
+    /**
+     * Moves all spilled entries back into memory.
+     *
+     * @return false if the spilled entries have been dropped instead
+     */
+    private boolean restoreAll() {
+        List<Binding<?, ?>> tmp = new ArrayList<>(offsets.size());
+        for (int i = 0; i < offsets.size(); i++) {
+            Binding<?, ?> binding = read(i);
+            if (binding == null) {
+                return false;
+            }
+            tmp.add(binding);
+        }
+        memory.addAll(0, tmp);
+        offsets.clear();
+        truncate(0);
+        return true;
+    }
+
+    /**
+     * Reads a spilled entry. If that fails, all spilled entries are dropped, because the file cannot be trusted anymore.
+     *
+     * @return the entry or null if it has been lost
+     */
+    @Nullable
+    private Binding<?, ?> read(int spilledIdx) {
+        try {
+            RandomAccessFile in = open();
+            long offset = offsets.get(spilledIdx);
+            in.seek(offset);
+            int length = in.readInt();
+            if (length < 0 || length > in.length() - offset - 4) {
+                throw new IOException("invalid length " + length + " at " + offset);
+            }
+            byte[] buf = new byte[length];
+            in.readFully(buf);
+            Binding<?, ?> binding = serializer.deserialize(new ByteArrayInputStream(buf), Binding.class);
+            if (binding == null) {
+                throw new IOException("the serializer " + serializer.getId() + " returned null");
+            }
+            return binding;
+        } catch (IOException | RuntimeException e) {
+            LoggerFactory.getLogger(getClass()).error("failed to restore spilled binding from {}, dropping {} spilled entries", file, offsets.size(), e);
+            offsets.clear();
+            modCount++;
+            truncate(0);
+            return null;
+        }
+    }
+
+    private RandomAccessFile open() throws IOException {
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+        }
+        return raf;
+    }
+
+    private void truncate(long length) {
+        if (raf == null) {
+            return;
+        }
+        try {
+            raf.setLength(length);
+        } catch (IOException e) {
+            LoggerFactory.getLogger(getClass()).error("failed to truncate {}", file, e);
+        }
+    }
+
+    private void close() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                LoggerFactory.getLogger(getClass()).error("failed to close {}", file, e);
+            }
+            raf = null;
+        }
+    }
+}
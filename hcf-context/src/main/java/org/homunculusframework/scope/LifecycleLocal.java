@@ -25,6 +25,8 @@ import javax.annotation.Nullable;
 /**
  * In the broadest sense this is related to a {@link ThreadLocal}. See also {@link LifecycleList}.
  * The lifetime is tied to that of the scope. If the scope is destroyed, the value is removed.
+ * Reads are lock free and only see a volatile snapshot, so that many background threads can read a value
+ * without contending with each other. Only writes and the destruction are serialized.
  *
  * @author Torben Schinke
  * @since 1.0
@@ -32,9 +34,9 @@ import javax.annotation.Nullable;
 public class LifecycleLocal<T> implements Reference<T>, Destroyable {
 
     @Nullable
-    private T value;
+    private volatile T value;
     private LifecycleOwner scope;
-    private boolean destroyed;
+    private volatile boolean destroyed;
     private final OnDestroyCallback callback;
 
     public LifecycleLocal(LifecycleOwner scope) {
@@ -45,10 +47,8 @@ public class LifecycleLocal<T> implements Reference<T>, Destroyable {
 
     @Override
     public T get() {
-        //update memory barrier
-        synchronized (this) {
-            return value;
-        }
+        //the volatile read is our memory barrier, no need to block other readers
+        return value;
     }
 
     @Override
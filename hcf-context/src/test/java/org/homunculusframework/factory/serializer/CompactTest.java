@@ -0,0 +1,291 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.factory.serializer;
+
+import org.homunculusframework.factory.serializer.SampleBindings.Detail;
+import org.homunculusframework.factory.serializer.SampleBindings.ExternalDetail;
+import org.homunculusframework.factory.serializer.SampleBindings.Mode;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trips and corrupted input of the {@link Compact} serializers and a comparison with "ser" and "ext".
+ *
+ * @since 1.0
+ */
+public class CompactTest {
+
+    private static byte[] write(Serializer serializer, Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(serializer.serialize(value, out));
+        return out.toByteArray();
+    }
+
+    private static <T> T read(Serializer serializer, byte[] data, Class<T> type) throws IOException {
+        return serializer.deserialize(new ByteArrayInputStream(data), type);
+    }
+
+    private static Object roundTrip(Serializer serializer, Object value) throws IOException {
+        return read(serializer, write(serializer, value), Object.class);
+    }
+
+    @Test
+    public void bindings() throws IOException {
+        Compact compact = new Compact();
+        Detail detail = SampleBindings.newDetail(42);
+        assertEquals(detail, roundTrip(compact, detail));
+        //a second value in the same stream
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compact.serialize(detail, out);
+        compact.serialize(SampleBindings.newDetail(43), out);
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertEquals(detail, compact.deserialize(in, Detail.class));
+        assertEquals(SampleBindings.newDetail(43), compact.deserialize(in, Detail.class));
+        assertEquals(-1, in.read());
+        //but no plain values
+        assertFalse(compact.serialize("text", new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void buffers() throws IOException {
+        Compact compact = new Compact();
+        Detail detail = SampleBindings.newDetail(7);
+        for (ByteBuffer buf : Arrays.asList(ByteBuffer.allocate(4096), ByteBuffer.allocateDirect(4096))) {
+            buf.put((byte) 99);
+            assertTrue(compact.serialize(detail, buf));
+            assertTrue(compact.serialize(detail, buf));
+            buf.flip();
+            buf.get();
+            assertEquals(detail, compact.deserialize(buf, Detail.class));
+            assertEquals(detail, compact.deserialize(buf, Detail.class));
+            assertFalse(buf.hasRemaining());
+        }
+    }
+
+    @Test
+    public void registeredIds() throws IOException {
+        Compact byId = new Compact().register(1, Detail.class);
+        Detail detail = SampleBindings.newDetail(1);
+        byte[] data = write(byId, detail);
+        assertTrue(data.length < write(new Compact(), detail).length);
+        assertEquals(detail, read(byId, data, Detail.class));
+        try {
+            read(new Compact(), data, Detail.class);
+            fail();
+        } catch (InvalidClassException e) {
+            //expected, the id is unknown
+        }
+    }
+
+    @Test
+    public void values() throws IOException {
+        CompactValues values = new CompactValues();
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("k", null);
+        LinkedHashMap<Object, Object> linked = new LinkedHashMap<>();
+        linked.put(2, "b");
+        linked.put(1, "a");
+        TreeMap<String, Long> tree = new TreeMap<>();
+        tree.put("x", Long.MIN_VALUE);
+        ArrayList<Object> list = new ArrayList<>();
+        list.add(null);
+        list.add(map);
+        for (Object value : Arrays.asList(true, false, (byte) -1, Short.MIN_VALUE, '￿', Integer.MIN_VALUE, Integer.MAX_VALUE,
+                Long.MIN_VALUE, Long.MAX_VALUE, -0f, Float.NaN, Double.MAX_VALUE, "", "äöü 😀", Mode.EDIT,
+                map, linked, tree, list, new Date(1), SampleBindings.newDetail(3))) {
+            assertEquals(value, roundTrip(values, value));
+        }
+        assertArrayEquals(new byte[]{0, -128, 127}, (byte[]) roundTrip(values, new byte[]{0, -128, 127}));
+        assertEquals(Arrays.asList(2, 1), new ArrayList<>(((LinkedHashMap<?, ?>) roundTrip(values, linked)).keySet()));
+    }
+
+    @Test
+    public void truncated() throws IOException {
+        byte[] data = write(new Compact(), SampleBindings.newDetail(5));
+        for (int len = 0; len < data.length; len++) {
+            try {
+                read(new Compact(), Arrays.copyOf(data, len), Detail.class);
+                fail("accepted a stream truncated to " + len);
+            } catch (EOFException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void malformedLengths() throws IOException {
+        //a payload length with more than 5 bytes
+        assertCorrupted(new byte[]{CompactWriter.MAGIC, CompactWriter.VERSION, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x8F, 1});
+        //a payload length which overflows into the sign bit
+        assertCorrupted(new byte[]{CompactWriter.MAGIC, CompactWriter.VERSION, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        //a string length which is negative as a long
+        byte[] negative = new byte[]{CompactWriter.T_STRING, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01};
+        assertCorrupted(payload(negative));
+        //a varint with more than 64 bits
+        byte[] overlong = new byte[12];
+        overlong[0] = CompactWriter.T_LONG;
+        Arrays.fill(overlong, 1, overlong.length, (byte) 0x80);
+        assertCorrupted(payload(overlong));
+    }
+
+    @Test
+    public void onlyInstantiatesBindings() throws IOException {
+        //a class which is not serializable at all
+        assertInvalidClass(payload(objectByName(Thread.class)));
+        //a serializable class, which is no binding and not registered
+        assertInvalidClass(payload(objectByName(Date.class)));
+        //an enum ordinal of a class, which is no enum
+        byte[] notAnEnum = objectByName(Date.class);
+        notAnEnum[0] = CompactWriter.T_ENUM;
+        assertInvalidClass(payload(Arrays.copyOf(notAnEnum, notAnEnum.length + 1)));
+    }
+
+    @Test
+    public void doesNotSwapConstructorArguments() throws IOException {
+        Compact compact = new Compact().register(1, Range.class);
+        Range range = new Range(1, 5);
+        Range res = read(compact, write(compact, range), Range.class);
+        assertEquals(1, res.min);
+        assertEquals(5, res.max);
+        assertEquals(4, res.span);
+    }
+
+    /**
+     * Validates and derives state in its only constructor, whose parameters have the same type, so that swapped
+     * arguments fail.
+     */
+    static final class Range {
+        final int min;
+        final int max;
+        final int span;
+
+        Range(int min, int max) {
+            if (min > max) {
+                throw new IllegalArgumentException(min + " > " + max);
+            }
+            this.min = min;
+            this.max = max;
+            this.span = max - min;
+        }
+    }
+
+    /**
+     * A size and speed comparison of a typical binding, which only asserts the obvious.
+     */
+    @Test
+    public void benchmark() throws IOException {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        Serializer ser = new Serializable();
+        Serializer ext = new Externalizable();
+        Serializer cbin = new Compact();
+        Detail detail = SampleBindings.newDetail(1234);
+        ExternalDetail external = new ExternalDetail(detail);
+        int rounds = 5_000;
+        long[] nanos = new long[3];
+        int[] sizes = new int[3];
+        for (int pass = 0; pass < 2; pass++) {
+            //the first pass is the warm up
+            nanos[0] = measure(ser, detail, Detail.class, rounds, sizes, 0);
+            nanos[1] = measure(ext, external, ExternalDetail.class, rounds, sizes, 1);
+            nanos[2] = measure(cbin, detail, Detail.class, rounds, sizes, 2);
+        }
+        String[] names = {"ser", "ext", "cbin"};
+        for (int i = 0; i < names.length; i++) {
+            System.out.printf("%s: %d bytes, %.1f us per round trip%n", names[i], sizes[i], nanos[i] / 1000d / rounds);
+        }
+        assertTrue(sizes[2] < sizes[0]);
+        assertTrue(sizes[2] < sizes[1]);
+    }
+
+    private static long measure(Serializer serializer, Object value, Class<?> type, int rounds, int[] sizes, int idx) throws IOException {
+        long start = System.nanoTime();
+        int size = 0;
+        for (int i = 0; i < rounds; i++) {
+            byte[] data = write(serializer, value);
+            size = data.length;
+            if (read(serializer, data, type) == null) {
+                fail();
+            }
+        }
+        sizes[idx] = size;
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Wraps the payload into the header of a compact stream.
+     */
+    private static byte[] payload(byte[] payload) {
+        assertTrue(payload.length < 128);
+        byte[] res = new byte[payload.length + 3];
+        res[0] = CompactWriter.MAGIC;
+        res[1] = CompactWriter.VERSION;
+        res[2] = (byte) payload.length;
+        System.arraycopy(payload, 0, res, 3, payload.length);
+        return res;
+    }
+
+    /**
+     * An object tag followed by a class name and no fields.
+     */
+    private static byte[] objectByName(Class<?> type) {
+        byte[] name = type.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] res = new byte[name.length + 3];
+        res[0] = CompactWriter.T_OBJECT;
+        res[1] = 0;
+        res[2] = (byte) name.length;
+        System.arraycopy(name, 0, res, 3, name.length);
+        return res;
+    }
+
+    private static void assertCorrupted(byte[] data) throws IOException {
+        try {
+            read(new CompactValues(), data, Object.class);
+            fail("accepted a corrupted stream");
+        } catch (StreamCorruptedException e) {
+            //expected
+        }
+    }
+
+    private static void assertInvalidClass(byte[] data) throws IOException {
+        try {
+            read(new CompactValues(), data, Object.class);
+            fail("accepted a foreign class");
+        } catch (InvalidClassException e) {
+            //expected
+        }
+    }
+}
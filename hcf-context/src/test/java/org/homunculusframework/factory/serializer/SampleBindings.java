@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.factory.serializer;
+
+import org.homunculusframework.factory.container.ObjectBinding;
+import org.homunculusframework.factory.scope.ContextScope;
+import org.homunculusframework.factory.scope.Scope;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+
+/**
+ * Typical bindings, as generated for a detail screen, to compare the serializers.
+ *
+ * @since 1.0
+ */
+final class SampleBindings {
+
+    private SampleBindings() {
+    }
+
+    enum Mode {
+        LIST, DETAIL, EDIT
+    }
+
+    static Detail newDetail(int id) {
+        ArrayList<String> tags = new ArrayList<>(Arrays.asList("news", "local", "tag" + id));
+        HashMap<String, Integer> counters = new HashMap<>();
+        counters.put("views", id * 3);
+        counters.put("likes", id);
+        Detail parent = new Detail("parent of " + id, id - 1, 0, 0, false, Mode.LIST, new ArrayList<String>(), new HashMap<String, Integer>(), null, null, null);
+        return new Detail("a title with some words #" + id, id, 1508000000000L + id, id / 7d, id % 2 == 0, Mode.DETAIL, tags, counters, new byte[]{1, 2, 3, (byte) id}, new Date(1508000000000L), parent);
+    }
+
+    /**
+     * A binding with the field types of a generated one, which has a constructor accepting all fields.
+     */
+    static class Detail extends ObjectBinding<ContextScope<?>, Scope> {
+        private final String title;
+        private final int id;
+        private final long timestamp;
+        private final double score;
+        private final boolean editable;
+        private final Mode mode;
+        private final ArrayList<String> tags;
+        private final HashMap<String, Integer> counters;
+        @Nullable
+        private final byte[] thumbnail;
+        @Nullable
+        private final Date created;
+        @Nullable
+        private final Detail parent;
+
+        Detail(String title, int id, long timestamp, double score, boolean editable, Mode mode, ArrayList<String> tags, HashMap<String, Integer> counters, @Nullable byte[] thumbnail, @Nullable Date created, @Nullable Detail parent) {
+            this.title = title;
+            this.id = id;
+            this.timestamp = timestamp;
+            this.score = score;
+            this.editable = editable;
+            this.mode = mode;
+            this.tags = tags;
+            this.counters = counters;
+            this.thumbnail = thumbnail;
+            this.created = created;
+            this.parent = parent;
+        }
+
+        @Override
+        public ContextScope<?> create(Scope scope) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Detail)) {
+                return false;
+            }
+            Detail other = (Detail) o;
+            return id == other.id && timestamp == other.timestamp && score == other.score && editable == other.editable
+                    && title.equals(other.title) && mode == other.mode && tags.equals(other.tags) && counters.equals(other.counters)
+                    && Arrays.equals(thumbnail, other.thumbnail) && Objects.equals(created, other.created) && Objects.equals(parent, other.parent);
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+    }
+
+    /**
+     * The same as {@link Detail} but written by hand for {@link java.io.Externalizable}.
+     */
+    public static class ExternalDetail implements java.io.Externalizable {
+        private String title;
+        private int id;
+        private long timestamp;
+        private double score;
+        private boolean editable;
+        private Mode mode;
+        private ArrayList<String> tags;
+        private HashMap<String, Integer> counters;
+        private byte[] thumbnail;
+        private Date created;
+        private ExternalDetail parent;
+
+        public ExternalDetail() {
+        }
+
+        ExternalDetail(Detail src) {
+            title = src.title;
+            id = src.id;
+            timestamp = src.timestamp;
+            score = src.score;
+            editable = src.editable;
+            mode = src.mode;
+            tags = src.tags;
+            counters = src.counters;
+            thumbnail = src.thumbnail;
+            created = src.created;
+            parent = src.parent == null ? null : new ExternalDetail(src.parent);
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeUTF(title);
+            out.writeInt(id);
+            out.writeLong(timestamp);
+            out.writeDouble(score);
+            out.writeBoolean(editable);
+            out.writeObject(mode);
+            out.writeObject(tags);
+            out.writeObject(counters);
+            out.writeObject(thumbnail);
+            out.writeObject(created);
+            out.writeObject(parent);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+            title = in.readUTF();
+            id = in.readInt();
+            timestamp = in.readLong();
+            score = in.readDouble();
+            editable = in.readBoolean();
+            mode = (Mode) in.readObject();
+            tags = (ArrayList<String>) in.readObject();
+            counters = (HashMap<String, Integer>) in.readObject();
+            thumbnail = (byte[]) in.readObject();
+            created = (Date) in.readObject();
+            parent = (ExternalDetail) in.readObject();
+        }
+    }
+}
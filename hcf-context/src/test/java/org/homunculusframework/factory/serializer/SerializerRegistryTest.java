@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.factory.serializer;
+
+import org.homunculusframework.factory.serializer.SampleBindings.Detail;
+import org.homunculusframework.factory.serializer.SampleBindings.ExternalDetail;
+import org.homunculusframework.factory.serializer.SampleBindings.Mode;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Values with and without header, especially the sniffing of headerless java serialization.
+ *
+ * @since 1.0
+ */
+public class SerializerRegistryTest {
+
+    private final SerializerRegistry registry = SerializerRegistry.createDefault();
+
+    private static byte[] withoutHeader(Serializer serializer, Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(serializer.serialize(value, out));
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the headerless data from a stream and from a buffer.
+     */
+    private <T> T sniffed(byte[] data, Class<T> type) throws IOException {
+        T fromStream = registry.deserialize(new ByteArrayInputStream(data), type);
+        T fromBuffer = registry.deserialize(ByteBuffer.wrap(data), type);
+        assertEquals(fromStream.getClass(), fromBuffer.getClass());
+        return fromStream;
+    }
+
+    @Test
+    public void sniffsEachTopLevelTypeOfJavaSerialization() throws IOException {
+        Serializer ser = new Serializable();
+        StringBuilder longString = new StringBuilder();
+        while (longString.length() <= 0xFFFF) {
+            longString.append("a longer string ");
+        }
+        Object[][] cases = {
+                {ObjectStreamConstants.TC_OBJECT, new Date(42)},
+                {ObjectStreamConstants.TC_OBJECT, SampleBindings.newDetail(1)},
+                {ObjectStreamConstants.TC_STRING, "hello"},
+                {ObjectStreamConstants.TC_LONGSTRING, longString.toString()},
+                {ObjectStreamConstants.TC_ENUM, Mode.EDIT},
+                {ObjectStreamConstants.TC_CLASS, String.class},
+        };
+        for (Object[] c : cases) {
+            byte[] data = withoutHeader(ser, c[1]);
+            assertEquals(c[1].toString(), (byte) c[0], data[4]);
+            Object res = sniffed(data, Object.class);
+            if (c[1] instanceof Enum || c[1] instanceof Class) {
+                assertSame(c[1], res);
+            } else {
+                assertEquals(c[1], res);
+            }
+        }
+
+        byte[] ints = withoutHeader(ser, new int[]{1, 2, 3});
+        assertEquals(ObjectStreamConstants.TC_ARRAY, ints[4]);
+        assertArrayEquals(new int[]{1, 2, 3}, (int[]) sniffed(ints, Object.class));
+        String[] strings = {"a", null, "c"};
+        assertArrayEquals(strings, (String[]) sniffed(withoutHeader(ser, strings), Object.class));
+        List<Object> list = new ArrayList<>(Arrays.asList("x", Mode.LIST, 3L));
+        assertEquals(list, sniffed(withoutHeader(ser, list), Object.class));
+    }
+
+    @Test
+    public void sniffsExternalizable() throws IOException {
+        ExternalDetail detail = new ExternalDetail(SampleBindings.newDetail(2));
+        byte[] data = withoutHeader(new Externalizable(), detail);
+        assertEquals(ObjectStreamConstants.TC_BLOCKDATA, data[4]);
+        assertSameExternal(detail, registry.deserialize(new ByteArrayInputStream(data), ExternalDetail.class));
+        assertSameExternal(detail, registry.deserialize(ByteBuffer.wrap(data), ExternalDetail.class));
+    }
+
+    @Test
+    public void sniffsTheOthers() throws IOException {
+        Detail detail = SampleBindings.newDetail(3);
+        assertEquals(detail, sniffed(withoutHeader(new Compact(), detail), Object.class));
+        assertEquals(Collections.singletonList("x"), sniffed(withoutHeader(new StreamingXml(), new ArrayList<>(Collections.singletonList("x"))), Object.class));
+        assertEquals("x", sniffed(withoutHeader(new Xml(), "x"), Object.class));
+    }
+
+    @Test
+    public void headers() throws IOException {
+        Detail detail = SampleBindings.newDetail(4);
+        for (String id : Arrays.asList("ser", "cbin", "cval")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(registry.serialize(detail, id, out));
+            assertEquals(id, detail, registry.deserialize(new ByteArrayInputStream(out.toByteArray()), Object.class));
+
+            ByteBuffer buf = registry.serialize(detail, id);
+            assertEquals(id, detail, registry.deserialize(buf, Object.class));
+            assertTrue(!buf.hasRemaining());
+        }
+        ExternalDetail external = new ExternalDetail(detail);
+        assertSameExternal(external, registry.deserialize(registry.serialize(external, "ext"), ExternalDetail.class));
+    }
+
+    @Test
+    public void rejectedValuesLeaveNoHeader() throws IOException {
+        //a thread is neither serializable nor a binding
+        Object rejected = new Thread();
+        for (String id : Arrays.asList("ser", "ext", "cbin", "cval")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(42);
+            assertFalse(id, registry.serialize(rejected, id, out));
+            assertArrayEquals(id, new byte[]{42}, out.toByteArray());
+
+            assertNull(id, registry.serialize(rejected, id));
+
+            for (ByteBuffer buf : Arrays.asList(ByteBuffer.allocate(64), ByteBuffer.allocateDirect(64))) {
+                buf.put((byte) 42);
+                assertFalse(id, registry.serialize(rejected, id, buf));
+                assertEquals(id, 1, buf.position());
+            }
+        }
+    }
+
+    /**
+     * Both have the same fields, if they write the same bytes.
+     */
+    private static void assertSameExternal(ExternalDetail expected, ExternalDetail actual) throws IOException {
+        assertArrayEquals(withoutHeader(new Externalizable(), expected), withoutHeader(new Externalizable(), actual));
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.factory.serializer;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips, references, escaping and the speed and peak heap of {@link StreamingXml} compared to {@link Xml}.
+ *
+ * @since 1.0
+ */
+public class StreamingXmlTest {
+
+    private static byte[] write(Serializer serializer, Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(serializer.serialize(value, out));
+        return out.toByteArray();
+    }
+
+    private static <T> T roundTrip(Serializer serializer, T value) throws IOException {
+        return (T) serializer.deserialize(new ByteArrayInputStream(write(serializer, value)), Object.class);
+    }
+
+    @Test
+    public void beans() throws IOException {
+        Node node = Node.tree(3, 3);
+        node.setTags(new String[]{"a", null, "c"});
+        node.setKind(Kind.LEAF);
+        Node res = roundTrip(new StreamingXml(), node);
+        assertEquals(node.getName(), res.getName());
+        assertEquals(node.getChildren().size(), res.getChildren().size());
+        assertEquals(node.getChildren().get(2).getChildren().get(1).getWeight(), res.getChildren().get(2).getChildren().get(1).getWeight(), 0);
+        assertArrayEquals(node.getTags(), res.getTags());
+        assertEquals(Kind.LEAF, res.getKind());
+        assertEquals(node.getAttributes(), res.getAttributes());
+        assertNull(res.getParent());
+    }
+
+    @Test
+    public void sharedReferences() throws IOException {
+        Node shared = new Node();
+        shared.setName("shared");
+        List<Object> list = new ArrayList<>(Arrays.asList(shared, "x", shared));
+        List<Object> res = roundTrip(new StreamingXml(), list);
+        assertEquals(3, res.size());
+        assertSame(res.get(0), res.get(2));
+    }
+
+    @Test
+    public void cycles() throws IOException {
+        Node root = Node.tree(2, 2);
+        for (Node child : root.getChildren()) {
+            child.setParent(root);
+        }
+        Node res = roundTrip(new StreamingXml(), root);
+        for (Node child : res.getChildren()) {
+            assertSame(res, child.getParent());
+        }
+
+        List<Object> list = new ArrayList<>();
+        list.add(list);
+        List<Object> resList = roundTrip(new StreamingXml(), list);
+        assertSame(resList, resList.get(0));
+
+        Object[] array = new Object[2];
+        array[1] = array;
+        Object[] resArray = roundTrip(new StreamingXml(), array);
+        assertSame(resArray, resArray[1]);
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("self", map);
+        Map<String, Object> resMap = roundTrip(new StreamingXml(), map);
+        assertSame(resMap, resMap.get("self"));
+    }
+
+    @Test
+    public void invalidCharacters() throws IOException {
+        String[] texts = {"\0", "a\u0001b", "line\r\nfeed", "\uFFFE\uFFFF", "unpaired \uD800 surrogate", "\uDC00", "\uD800",
+                "back\\slash\u0002", "\\u0041", "😀\u0007😀", "\t\n"};
+        for (String text : texts) {
+            assertEquals(text, roundTrip(new StreamingXml(), text));
+            assertEquals(text.charAt(0), (char) roundTrip(new StreamingXml(), text.charAt(0)));
+        }
+        //nothing to escape, so the backslashes are written as they are
+        assertNull(StreamingXml.escape("back\\slash 😀"));
+        assertEquals("\\\\u\\u0001", StreamingXml.escape("\\u\u0001"));
+        String xml = new String(write(new StreamingXml(), "\u0001"), StandardCharsets.UTF_8);
+        assertTrue(xml, xml.contains("escaped=\"true\""));
+        assertFalse(xml, xml.contains("\u0001"));
+    }
+
+    @Test
+    public void readsVersion1() throws IOException {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><beans version=\"1\"><array class=\"[Ljava.lang.String;\">"
+                + "<string>a</string><null></null><string>back\\slash</string></array></beans>";
+        Object res = new StreamingXml().deserialize(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), Object.class);
+        assertArrayEquals(new String[]{"a", null, "back\\slash"}, (String[]) res);
+    }
+
+    @Test
+    public void doesNotPinClasses() throws Exception {
+        URL classes = Node.class.getProtectionDomain().getCodeSource().getLocation();
+        WeakReference<ClassLoader> loaderRef = serializeInIsolatedLoader(classes);
+        for (int i = 0; i < 50 && loaderRef.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull("the class loader of a serialized bean is still reachable", loaderRef.get());
+    }
+
+    private static WeakReference<ClassLoader> serializeInIsolatedLoader(URL classes) throws Exception {
+        URLClassLoader loader = new URLClassLoader(new URL[]{classes}, null);
+        Class<?> type = loader.loadClass(Node.class.getName());
+        assertFalse(type == Node.class);
+        Object bean = type.getConstructor().newInstance();
+        type.getMethod("setName", String.class).invoke(bean, "isolated");
+        write(new StreamingXml(), bean);
+        loader.close();
+        return new WeakReference<ClassLoader>(loader);
+    }
+
+    /**
+     * Encodes and decodes a graph of 9,724 beans (depth 3 with a fan out of 21) and samples the peak heap usage of each
+     * operation. Only asserts that the streaming one is not slower.
+     */
+    @Test
+    public void benchmark() throws IOException {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        Serializer xml = new Xml();
+        Serializer sxml = new StreamingXml();
+        Node tree = Node.tree(3, 21);
+        assertEquals(9724, tree.count());
+        long[] xmlRes = null;
+        long[] sxmlRes = null;
+        //the first pass is the warm up
+        for (int pass = 0; pass < 2; pass++) {
+            xmlRes = measure(xml, tree);
+            sxmlRes = measure(sxml, tree);
+        }
+        System.out.printf("xml: %d bytes, encode %d ms / %d KiB peak heap, decode %d ms / %d KiB peak heap%n", xmlRes[0], xmlRes[1] / 1_000_000, xmlRes[2] / 1024, xmlRes[3] / 1_000_000, xmlRes[4] / 1024);
+        System.out.printf("sxml: %d bytes, encode %d ms / %d KiB peak heap, decode %d ms / %d KiB peak heap%n", sxmlRes[0], sxmlRes[1] / 1_000_000, sxmlRes[2] / 1024, sxmlRes[3] / 1_000_000, sxmlRes[4] / 1024);
+        assertTrue(sxmlRes[1] < xmlRes[1]);
+    }
+
+    /**
+     * Returns the size, the encoding nanos and peak heap bytes and the decoding nanos and peak heap bytes.
+     */
+    private static long[] measure(Serializer serializer, Node tree) throws IOException {
+        long[] res = new long[5];
+        resetHeapPeak();
+        long start = System.nanoTime();
+        byte[] data = write(serializer, tree);
+        res[1] = System.nanoTime() - start;
+        res[2] = heapPeak();
+        res[0] = data.length;
+
+        resetHeapPeak();
+        start = System.nanoTime();
+        Node decoded = serializer.deserialize(new ByteArrayInputStream(data), Node.class);
+        res[3] = System.nanoTime() - start;
+        res[4] = heapPeak();
+        assertEquals(tree.count(), decoded.count());
+        return res;
+    }
+
+    private static long heapBaseline;
+
+    /**
+     * Collects the garbage and resets the peak usage of the heap pools, the baseline is the heap used afterwards.
+     */
+    private static void resetHeapPeak() {
+        System.gc();
+        heapBaseline = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapBaseline += pool.getUsage().getUsed();
+            }
+        }
+    }
+
+    /**
+     * The sum of the peaks of the heap pools above the baseline. The pools may peak at different times, so this is an
+     * upper bound, which is comparable between serializers.
+     */
+    private static long heapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return Math.max(0, peak - heapBaseline);
+    }
+
+    public enum Kind {
+        INNER, LEAF
+    }
+
+    /**
+     * A bean in the sense of {@link java.beans.XMLEncoder}.
+     */
+    public static class Node {
+        private String name;
+        private double weight;
+        private Kind kind = Kind.INNER;
+        private String[] tags;
+        private Node parent;
+        private List<Node> children = new ArrayList<>();
+        private Map<String, Integer> attributes = new HashMap<>();
+
+        int count() {
+            int res = 1;
+            for (Node child : children) {
+                res += child.count();
+            }
+            return res;
+        }
+
+        static Node tree(int depth, int fanOut) {
+            Node node = new Node();
+            node.setName("node " + depth);
+            node.setWeight(depth / 3d);
+            node.getAttributes().put("depth", depth);
+            if (depth > 0) {
+                for (int i = 0; i < fanOut; i++) {
+                    node.getChildren().add(tree(depth - 1, fanOut));
+                }
+            }
+            return node;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        public void setWeight(double weight) {
+            this.weight = weight;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public void setKind(Kind kind) {
+            this.kind = kind;
+        }
+
+        public String[] getTags() {
+            return tags;
+        }
+
+        public void setTags(String[] tags) {
+            this.tags = tags;
+        }
+
+        public Node getParent() {
+            return parent;
+        }
+
+        public void setParent(Node parent) {
+            this.parent = parent;
+        }
+
+        public List<Node> getChildren() {
+            return children;
+        }
+
+        public void setChildren(List<Node> children) {
+            this.children = children;
+        }
+
+        public Map<String, Integer> getAttributes() {
+            return attributes;
+        }
+
+        public void setAttributes(Map<String, Integer> attributes) {
+            this.attributes = attributes;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.TableUtils;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates h2 databases for the tests.
+ *
+ * @since 1.0
+ */
+final class Databases {
+
+    private static final AtomicInteger names = new AtomicInteger();
+
+    private Databases() {
+    }
+
+    /**
+     * A new and unique in-memory database, which lives as long as the manager.
+     */
+    static String memory() {
+        return "jdbc:h2:mem:test" + names.incrementAndGet();
+    }
+
+    /**
+     * A database file in the given directory.
+     */
+    static String file(File dir) {
+        return "jdbc:h2:" + new File(dir, "test" + names.incrementAndGet()).getAbsolutePath();
+    }
+
+    static ORMLiteEntityManager newManager(String url, int poolSize, Class<?>... tables) throws SQLException {
+        ORMLiteEntityManager em = new ORMLiteEntityManager(url, poolSize);
+        for (Class<?> table : tables) {
+            TableUtils.createTable(em.getConnectionSource(), table);
+        }
+        return em;
+    }
+
+    /**
+     * Inserts the persons 0..count-1 in a single transaction, named "person i" and aged i % 100.
+     */
+    static void insertPersons(ORMLiteEntityManager em, final int count) throws SQLException {
+        final Dao<Person, Long> dao = em.getDao(Person.class);
+        ConnectionSource source = em.getConnectionSource();
+        TransactionManager.callInTransaction(source, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (int i = 0; i < count; i++) {
+                    dao.create(new Person(i, "person " + i, i % 100));
+                }
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.support.DatabaseConnection;
+
+import org.homunculusframework.concurrent.Task;
+import org.homunculusframework.factory.scope.EmptyScope;
+import org.homunculusframework.lang.Result;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Parameters, cancellation and the connection handling of the {@link ORMLiteAsyncEntityManager} against an h2
+ * database.
+ *
+ * @since 1.0
+ */
+public class ORMLiteAsyncEntityManagerTest {
+
+    private static final int ROWS = 300_000;
+    private static final String ALL = "SELECT id, name, age FROM person ORDER BY id";
+
+    private ORMLiteEntityManager em;
+    private ORMLiteConnectionPool pool;
+    private ORMLiteAsyncEntityManager async;
+
+    @Before
+    public void setUp() throws Exception {
+        em = Databases.newManager(Databases.memory(), 2, Person.class);
+        em.registerEntities(Person.class);
+        pool = (ORMLiteConnectionPool) em.getConnectionSource();
+        DatabaseConnection con = pool.getReadWriteConnection("person");
+        try {
+            con.executeStatement("INSERT INTO person (id, name, age) SELECT X, CONCAT('person ', X), MOD(X, 100) FROM SYSTEM_RANGE(0, " + (ROWS - 1) + ")",
+                    DatabaseConnection.DEFAULT_RESULT_FLAGS);
+        } finally {
+            pool.releaseConnection(con);
+        }
+        async = new ORMLiteAsyncEntityManager(em);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        async.shutdown();
+        pool.close();
+    }
+
+    private static <T> Result<T> await(Task<Result<T>> task) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!task.isDone()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("task has not completed");
+            }
+            Thread.sleep(1);
+        }
+        return task.peek();
+    }
+
+    private long count() throws SQLException {
+        return em.getDao(Person.class).countOf();
+    }
+
+    @Test
+    public void bindsTypedPositionalParameters() throws Exception {
+        EmptyScope scope = new EmptyScope();
+        List<Person> res = await(async.query(scope, Person.class, "SELECT id, name, age FROM person WHERE age = ? AND id < ? ORDER BY id", 7, 1000L)).get();
+        assertEquals(10, res.size());
+        assertEquals(107, res.get(1).getId());
+        //a date is not bindable by its string representation
+        res = await(async.query(scope, Person.class, "SELECT id, name, age FROM person WHERE id = ? AND ? < CURRENT_TIMESTAMP", 3, new Date(0))).get();
+        assertEquals(1, res.size());
+        assertEquals(3, res.get(0).getId());
+        assertEquals(Integer.valueOf(100), await(async.executeUpdate(scope, "DELETE FROM Person p WHERE p.id < ?1", 100L)).get());
+        assertEquals(ROWS - 100, count());
+    }
+
+    @Test
+    public void cancelledBeforeStartDoesNotTouchTheDatabase() throws Exception {
+        ORMLiteAsyncEntityManager single = new ORMLiteAsyncEntityManager(em, 1);
+        try {
+            final CountDownLatch blocked = new CountDownLatch(1);
+            Task<Result<Void>> blocker = single.submit(new EmptyScope(), e -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                return null;
+            });
+            EmptyScope scope = new EmptyScope();
+            Task<Result<Integer>> delete = single.executeUpdate(scope, "DELETE FROM Person");
+            Task<Result<List<Person>>> query = single.query(scope, Person.class, ALL);
+            scope.onDestroy();
+            blocked.countDown();
+            await(blocker);
+
+            Result<Integer> deleted = await(delete);
+            assertTrue(deleted.isCancelled());
+            assertNull(deleted.get());
+            Result<List<Person>> queried = await(query);
+            assertTrue(queried.isCancelled());
+            assertNull(queried.get());
+            assertEquals(ROWS, count());
+        } finally {
+            single.shutdown();
+        }
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void cancelledWhileReading() throws Exception {
+        EmptyScope scope = new EmptyScope();
+        long start = System.nanoTime();
+        Task<Result<List<Person>>> task = async.query(scope, Person.class, ALL);
+        //the connection is borrowed, when the statement is executed
+        while (pool.getActiveCount() == 0 && !task.isDone()) {
+            Thread.sleep(1);
+        }
+        scope.onDestroy();
+        Result<List<Person>> res = await(task);
+        long cancelledNanos = System.nanoTime() - start;
+        assertTrue(res.isCancelled());
+        assertNull(res.get());
+        assertEquals(0, pool.getActiveCount());
+
+        start = System.nanoTime();
+        assertEquals(ROWS, await(async.query(new EmptyScope(), Person.class, ALL)).get().size());
+        long completeNanos = System.nanoTime() - start;
+        assertTrue(cancelledNanos < completeNanos);
+    }
+
+    @Test
+    public void doesNotLeakConnections() throws Exception {
+        List<Task<Result<List<Person>>>> queries = new ArrayList<>();
+        List<Task<Result<List<Person>>>> failing = new ArrayList<>();
+        List<EmptyScope> scopes = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            EmptyScope scope = new EmptyScope();
+            scopes.add(scope);
+            queries.add(async.query(scope, Person.class, "SELECT id, name, age FROM person WHERE age = ? ORDER BY id", i));
+            failing.add(async.query(scope, Person.class, "SELECT id, name, age FROM nobody WHERE age = ?", i));
+        }
+        Task<Result<Integer>> failingUpdate = async.executeUpdate(new EmptyScope(), "DELETE FROM Person p WHERE p.nothing = ?1", 1);
+        //cancel every third scope, no matter whether its tasks are queued, running or done
+        for (int i = 0; i < scopes.size(); i += 3) {
+            scopes.get(i).onDestroy();
+        }
+        for (int i = 0; i < queries.size(); i++) {
+            Result<List<Person>> res = await(queries.get(i));
+            if (!res.isCancelled()) {
+                assertNull(res.getThrowable());
+                assertEquals(ROWS / 100, res.get().size());
+            }
+            Result<List<Person>> failed = await(failing.get(i));
+            assertNull(failed.get());
+            assertTrue(failed.isCancelled() || failed.getThrowable() != null);
+        }
+        assertNotNull(await(failingUpdate).getThrowable());
+        assertEquals(0, pool.getActiveCount());
+        assertTrue(pool.getIdleCount() <= pool.getMaxConnections());
+        //all connections are still usable
+        assertFalse(await(async.query(new EmptyScope(), Person.class, "SELECT id, name, age FROM person WHERE id = ?", 1L)).get().isEmpty());
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.table.DatabaseTable;
+import com.j256.ormlite.table.TableUtils;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import javax.persistence.Entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The entity names and the affected rows of {@link ORMLiteBulkQuery} against an h2 database and a benchmark against
+ * loading and removing the entities.
+ *
+ * @since 1.0
+ */
+public class ORMLiteBulkQueryTest {
+
+    private ORMLiteEntityManager em;
+
+    @Before
+    public void setUp() throws Exception {
+        em = Databases.newManager(Databases.memory(), 2, Person.class, Member.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        em.getConnectionSource().close();
+    }
+
+    /**
+     * Inserts the persons 0..count-1, aged i % 100, by a single statement.
+     */
+    private void insertPersons(int count) throws Exception {
+        ORMLiteConnectionPool pool = (ORMLiteConnectionPool) em.getConnectionSource();
+        DatabaseConnection con = pool.getReadWriteConnection("person");
+        try {
+            con.executeStatement("INSERT INTO person (id, name, age) SELECT X, CONCAT('person ', X), MOD(X, 100) FROM SYSTEM_RANGE(0, " + (count - 1) + ")",
+                    DatabaseConnection.DEFAULT_RESULT_FLAGS);
+        } finally {
+            pool.releaseConnection(con);
+        }
+    }
+
+    private static void assertUnknown(ORMLiteEntityManager em, String ql) {
+        try {
+            em.createQuery(ql);
+            fail("resolved " + ql);
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void onlyRegisteredEntitiesAreResolved() throws Exception {
+        //the tables exist, but the fresh manager does not know any entity
+        ORMLiteEntityManager fresh = new ORMLiteEntityManager(em.getConnectionSource());
+        assertUnknown(fresh, "DELETE FROM Person");
+        //a class name is never loaded
+        assertUnknown(fresh, "DELETE FROM " + Person.class.getName());
+        assertUnknown(fresh, "DELETE FROM java.lang.String");
+
+        fresh.registerEntities(Person.class, Member.class);
+        assertEquals(0, fresh.createQuery("DELETE FROM Person").executeUpdate());
+        assertEquals(0, fresh.createQuery("DELETE FROM " + Person.class.getName()).executeUpdate());
+        assertEquals(0, fresh.createQuery("DELETE FROM " + Member.class.getName()).executeUpdate());
+    }
+
+    @Test
+    public void usesTheEntityName() throws Exception {
+        em.registerEntities(Member.class);
+        em.persist(new Member(1, "a"));
+        assertUnknown(em, "DELETE FROM Member");
+        assertEquals(1, em.createQuery("DELETE FROM Club c WHERE c.name = 'a'").executeUpdate());
+    }
+
+    @Test
+    public void rejectsAmbiguousNames() throws Exception {
+        em.registerEntities(Person.class, Impostor.class);
+        assertUnknown(em, "DELETE FROM Person");
+        assertEquals(0, em.createQuery("DELETE FROM " + Person.class.getName()).executeUpdate());
+    }
+
+    @Test
+    public void returnsTheAffectedRows() throws Exception {
+        em.registerEntities(Person.class);
+        insertPersons(10_000);
+        assertEquals(5000, em.createQuery("UPDATE Person p SET p.name = 'young' WHERE p.age < :age").setParameter("age", 50).executeUpdate());
+        assertEquals(5000, em.getDao(Person.class).queryForEq("name", "young").size());
+        assertEquals(200, em.createQuery("DELETE FROM Person p WHERE p.age = 7 OR p.age = 8").executeUpdate());
+        assertEquals(0, em.createQuery("DELETE FROM Person p WHERE p.age = 7").executeUpdate());
+        assertEquals(9800, em.getDao(Person.class).countOf());
+        assertEquals(9800, em.createQuery("DELETE FROM Person").executeUpdate());
+        assertEquals(0, em.getDao(Person.class).countOf());
+    }
+
+    /**
+     * Deletes half of 100.000 rows by a bulk delete and by loading and removing the entities.
+     */
+    @Test
+    public void bulkDeleteBenchmark() throws Exception {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        em.registerEntities(Person.class);
+        Dao<Person, Long> dao = em.getDao(Person.class);
+        for (int round = 0; round < 2; round++) {
+            //the first round is the warm up
+            int rows = round == 0 ? 10_000 : 100_000;
+            insertPersons(rows);
+            long start = System.nanoTime();
+            int deleted = em.createQuery("DELETE FROM Person p WHERE p.age < :age").setParameter("age", 50).executeUpdate();
+            long bulkNanos = System.nanoTime() - start;
+            assertEquals(rows / 2, deleted);
+            assertEquals(rows / 2, dao.countOf());
+            em.createQuery("DELETE FROM Person").executeUpdate();
+
+            insertPersons(rows);
+            start = System.nanoTime();
+            List<Person> loaded = dao.queryBuilder().where().lt("age", 50).query();
+            em.removeAll(loaded);
+            long loadNanos = System.nanoTime() - start;
+            assertEquals(rows / 2, loaded.size());
+            assertEquals(rows / 2, dao.countOf());
+            em.createQuery("DELETE FROM Person").executeUpdate();
+            if (round == 1) {
+                System.out.printf("delete %d of %d rows: bulk delete %d ms, load and remove %d ms%n",
+                        rows / 2, rows, bulkNanos / 1_000_000, loadNanos / 1_000_000);
+                assertTrue(bulkNanos < loadNanos);
+            }
+        }
+    }
+
+    @Entity(name = "Club")
+    @DatabaseTable(tableName = "member")
+    static class Member {
+        @DatabaseField(id = true)
+        private long id;
+        @DatabaseField
+        private String name;
+
+        Member() {
+        }
+
+        Member(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    @Entity(name = "Person")
+    @DatabaseTable(tableName = "member")
+    static class Impostor {
+        @DatabaseField(id = true)
+        private long id;
+    }
+}
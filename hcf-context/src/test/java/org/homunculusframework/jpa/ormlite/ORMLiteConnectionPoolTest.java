@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Bounds, reuse and eviction of the {@link ORMLiteConnectionPool} and a concurrent find benchmark.
+ *
+ * @since 1.0
+ */
+public class ORMLiteConnectionPoolTest {
+
+    @Test
+    public void boundsTheConnections() throws Exception {
+        ORMLiteEntityManager em = Databases.newManager(Databases.memory(), 2, Person.class);
+        ORMLiteConnectionPool pool = (ORMLiteConnectionPool) em.getConnectionSource();
+        pool.setMaxWaitMillis(50);
+        DatabaseConnection a = pool.getReadWriteConnection("person");
+        DatabaseConnection b = pool.getReadWriteConnection("person");
+        assertEquals(2, pool.getActiveCount());
+        long start = System.currentTimeMillis();
+        try {
+            pool.getReadOnlyConnection("person");
+            fail("handed out a third connection");
+        } catch (SQLException e) {
+            assertTrue(System.currentTimeMillis() - start >= 40);
+        }
+        pool.releaseConnection(b);
+        assertEquals(1, pool.getIdleCount());
+        //the most recently released one is reused
+        assertSame(b, pool.getReadWriteConnection("person"));
+        pool.releaseConnection(a);
+        pool.releaseConnection(b);
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(2, pool.getIdleCount());
+        pool.close();
+    }
+
+    @Test
+    public void evictsIdleAndClosedConnections() throws Exception {
+        ORMLiteEntityManager em = Databases.newManager(Databases.memory(), 2, Person.class);
+        ORMLiteConnectionPool pool = (ORMLiteConnectionPool) em.getConnectionSource();
+        DatabaseConnection a = pool.getReadWriteConnection("person");
+        DatabaseConnection b = pool.getReadWriteConnection("person");
+        pool.releaseConnection(a);
+        pool.releaseConnection(b);
+        b.close();
+        //the closed one is discarded on borrow
+        assertSame(a, pool.getReadWriteConnection("person"));
+        pool.releaseConnection(a);
+
+        pool.setMaxIdleMillis(20);
+        Thread.sleep(40);
+        DatabaseConnection c = pool.getReadWriteConnection("person");
+        assertFalse(c == a);
+        assertTrue(a.isClosed());
+        pool.releaseConnection(c);
+        pool.close();
+        assertTrue(c.isClosed());
+    }
+
+    @Test
+    public void rollsBackUncommittedWorkOnRelease() throws Exception {
+        ORMLiteEntityManager em = Databases.newManager(Databases.memory(), 1, Person.class);
+        ORMLiteConnectionPool pool = (ORMLiteConnectionPool) em.getConnectionSource();
+        DatabaseConnection con = pool.getReadWriteConnection("person");
+        con.setAutoCommit(false);
+        con.executeStatement("INSERT INTO person (id, name, age) VALUES (1, 'dirty', 1)", DatabaseConnection.DEFAULT_RESULT_FLAGS);
+        pool.releaseConnection(con);
+        DatabaseConnection next = pool.getReadWriteConnection("person");
+        assertTrue(next.isAutoCommit());
+        pool.releaseConnection(next);
+        assertEquals(null, em.find(Person.class, 1L));
+    }
+
+    /**
+     * Concurrent finds of 16 threads with a single connection and with the pool. Only asserts the results, because
+     * the speedup depends on the amount of cores.
+     */
+    @Test
+    public void concurrentFindBenchmark() throws Exception {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        String url = Databases.memory();
+        ORMLiteEntityManager em = Databases.newManager(url, 8, Person.class);
+        Databases.insertPersons(em, 1000);
+        JdbcConnectionSource single = new JdbcConnectionSource(url);
+        Dao<Person, Long> singleDao = DaoManager.createDao(single, Person.class);
+        Dao<Person, Long> pooledDao = em.getDao(Person.class);
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            for (int round = 0; round < 2; round++) {
+                //the first round is the warm up
+                long singleNanos = findConcurrently(executor, singleDao, 2_000);
+                long pooledNanos = findConcurrently(executor, pooledDao, 2_000);
+                if (round == 1) {
+                    System.out.printf("16 threads x 2000 finds with %d cpus: single connection %d ms, pool of 8 %d ms%n",
+                            Runtime.getRuntime().availableProcessors(), singleNanos / 1_000_000, pooledNanos / 1_000_000);
+                }
+            }
+        } finally {
+            executor.shutdown();
+            single.close();
+        }
+        assertEquals(0, ((ORMLiteConnectionPool) em.getConnectionSource()).getActiveCount());
+    }
+
+    private static long findConcurrently(ExecutorService executor, final Dao<Person, Long> dao, final int finds) throws Exception {
+        List<Future<Void>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < 16; t++) {
+            final int seed = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < finds; i++) {
+                        long id = (seed * 31L + i) % 1000;
+                        Person person = dao.queryForId(id);
+                        assertNotNull(person);
+                        assertEquals(id, person.getId());
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        return System.nanoTime() - start;
+    }
+}
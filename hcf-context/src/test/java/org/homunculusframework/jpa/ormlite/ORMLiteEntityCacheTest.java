@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.persistence.EntityTransaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The second level cache of {@link ORMLiteEntityManager#find(Class, Object)} against an h2 database.
+ *
+ * @since 1.0
+ */
+public class ORMLiteEntityCacheTest {
+
+    private ORMLiteEntityManager em;
+    private ORMLiteEntityCache cache;
+    private ExecutorService other;
+
+    @Before
+    public void setUp() throws Exception {
+        em = Databases.newManager(Databases.memory(), 4, Person.class);
+        Databases.insertPersons(em, 10);
+        cache = em.setCache(Person.class, 4);
+        other = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        other.shutdownNow();
+        em.getConnectionSource().close();
+    }
+
+    /**
+     * Finds the person in another thread, which has no transaction.
+     */
+    private Person findInOtherThread(final long id) throws Exception {
+        return other.submit(new Callable<Person>() {
+            @Override
+            public Person call() {
+                return em.find(Person.class, id);
+            }
+        }).get();
+    }
+
+    @Test
+    public void entityLoadedBeforeAnInvalidationIsNotCached() {
+        Person stale = new Person(1, "stale", 1);
+        long generation = cache.getGeneration();
+        cache.invalidate(1L);
+        cache.put(1L, stale, generation);
+        assertNull(cache.get(1L));
+
+        cache.put(1L, stale, cache.getGeneration());
+        assertSame(stale, cache.get(1L));
+
+        //a clear is an invalidation of all entries
+        generation = cache.getGeneration();
+        cache.clear();
+        cache.put(2L, stale, generation);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void findIsCached() {
+        Person a = em.find(Person.class, 1L);
+        assertSame(a, em.find(Person.class, 1L));
+        //integral ids of another type address the same entry
+        assertSame(a, em.find(Person.class, 1));
+        assertEquals(1, cache.size());
+        assertNull(em.find(Person.class, 100L));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void isBoundedByTheLeastRecentlyUsed() {
+        Person first = em.find(Person.class, 0L);
+        for (long id = 1; id < 4; id++) {
+            em.find(Person.class, id);
+        }
+        //touch the first, so that the second is the eldest
+        assertSame(first, em.find(Person.class, 0L));
+        em.find(Person.class, 4L);
+        assertEquals(4, cache.size());
+        cache.resetStatistics();
+        assertSame(first, em.find(Person.class, 0L));
+        em.find(Person.class, 1L);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        assertEquals(0, cache.getHitRatio(), 0);
+        for (int round = 0; round < 3; round++) {
+            for (long id = 0; id < 4; id++) {
+                em.find(Person.class, id);
+            }
+        }
+        assertEquals(8, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        assertEquals(8 / 12d, cache.getHitRatio(), 1e-9);
+
+        //a missing entity is a miss each time
+        em.find(Person.class, 100L);
+        em.find(Person.class, 100L);
+        assertEquals(6, cache.getMissCount());
+
+        //statistics survive a clear, but not a reset
+        cache.clear();
+        assertEquals(8, cache.getHitCount());
+        cache.resetStatistics();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+        assertEquals(0, cache.getHitRatio(), 0);
+    }
+
+    @Test
+    public void mergeInvalidates() {
+        Person a = em.find(Person.class, 1L);
+        Person changed = new Person(1, "changed", 1);
+        em.merge(changed);
+        Person b = em.find(Person.class, 1L);
+        assertNotSame(a, b);
+        assertEquals("changed", b.getName());
+    }
+
+    @Test
+    public void uncommittedStateIsNotCached() throws Exception {
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+        em.merge(new Person(1, "uncommitted", 1));
+        assertEquals("uncommitted", em.find(Person.class, 1L).getName());
+        assertEquals(0, cache.size());
+        assertEquals("person 1", findInOtherThread(1).getName());
+        tx.rollback();
+        assertEquals("person 1", em.find(Person.class, 1L).getName());
+    }
+
+    @Test
+    public void invalidatedAfterCommit() throws Exception {
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+        em.merge(new Person(1, "committed", 1));
+        //another thread caches the previously committed state while the transaction is active
+        assertEquals("person 1", findInOtherThread(1).getName());
+        assertNotNull(cache.get(1L));
+        tx.commit();
+        assertNull(cache.get(1L));
+        assertEquals("committed", em.find(Person.class, 1L).getName());
+        assertEquals("committed", findInOtherThread(1).getName());
+    }
+
+    @Test
+    public void invalidatedAfterRollback() throws Exception {
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+        em.remove(em.find(Person.class, 2L));
+        assertNotNull(findInOtherThread(2));
+        tx.rollback();
+        assertNull(cache.get(2L));
+        assertEquals("person 2", findInOtherThread(2).getName());
+    }
+
+    @Test
+    public void bulkStatementsClear() {
+        for (long id = 0; id < 4; id++) {
+            em.find(Person.class, id);
+        }
+        assertEquals(10, em.createQuery("UPDATE Person p SET p.age = 0").executeUpdate());
+        assertEquals(0, cache.size());
+        assertEquals(0, em.find(Person.class, 1L).getAge());
+    }
+}
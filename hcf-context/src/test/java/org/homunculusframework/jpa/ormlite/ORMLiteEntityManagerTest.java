@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.dao.Dao;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.persistence.EntityExistsException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * The {@link ORMLiteEntityManager} against an in-memory h2 database.
+ *
+ * @since 1.0
+ */
+public class ORMLiteEntityManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ORMLiteEntityManager em;
+
+    @Before
+    public void setUp() throws Exception {
+        em = Databases.newManager(Databases.memory(), 4, Person.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        em.getConnectionSource().close();
+    }
+
+    @Test
+    public void createsOneDaoPerClass() throws Exception {
+        final ORMLiteEntityManager fresh = Databases.newManager(Databases.memory(), 1);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Dao>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<Dao>() {
+                @Override
+                public Dao call() throws Exception {
+                    start.await();
+                    return fresh.getDao(Person.class);
+                }
+            }));
+        }
+        start.countDown();
+        Dao first = futures.get(0).get();
+        for (Future<Dao> future : futures) {
+            assertSame(first, future.get());
+        }
+        executor.shutdown();
+        fresh.getConnectionSource().close();
+    }
+
+    /**
+     * 8 threads looking up daos, compared to a lookup which is guarded by a global lock as before.
+     */
+    @Test
+    public void getDaoBenchmark() throws Exception {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        em.getDao(Person.class);
+        final Map<Class, Dao> locked = new HashMap<>();
+        locked.put(Person.class, em.getDao(Person.class));
+        final Object lock = new Object();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        final int lookups = 1_000_000;
+        try {
+            for (int round = 0; round < 2; round++) {
+                //the first round is the warm up
+                long lockFree = run(executor, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        Object res = null;
+                        for (int i = 0; i < lookups; i++) {
+                            res = em.getDao(Person.class);
+                        }
+                        return res;
+                    }
+                });
+                long synchronizedNanos = run(executor, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        Object res = null;
+                        for (int i = 0; i < lookups; i++) {
+                            synchronized (lock) {
+                                res = locked.get(Person.class);
+                            }
+                        }
+                        return res;
+                    }
+                });
+                if (round == 1) {
+                    System.out.printf("8 threads x %d getDao with %d cpus: lock-free %d ms, global lock %d ms%n", lookups,
+                            Runtime.getRuntime().availableProcessors(), lockFree / 1_000_000, synchronizedNanos / 1_000_000);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static long run(ExecutorService executor, Callable<Object> work) throws Exception {
+        List<Future<Object>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(work));
+        }
+        Object first = futures.get(0).get();
+        for (Future<Object> future : futures) {
+            assertSame(first, future.get());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static List<Person> persons(int from, int count) {
+        List<Person> res = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            res.add(new Person(i, "person " + i, i % 100));
+        }
+        return res;
+    }
+
+    private static long count(ORMLiteEntityManager em) throws Exception {
+        return em.<Dao<Person, Long>, Person>getDao(Person.class).countOf();
+    }
+
+    @Test
+    public void persistAllIsAtomic() throws Exception {
+        em.persistAll(persons(0, 10));
+        assertEquals(10, count(em));
+        List<Person> clashing = persons(10, 5);
+        clashing.add(new Person(3, "duplicate", 1));
+        try {
+            em.persistAll(clashing);
+            fail();
+        } catch (EntityExistsException e) {
+            //expected
+        }
+        assertEquals(10, count(em));
+        assertNull(em.find(Person.class, 10L));
+        assertEquals(0, ((ORMLiteConnectionPool) em.getConnectionSource()).getActiveCount());
+    }
+
+    @Test
+    public void removeAllInChunks() throws Exception {
+        List<Person> all = persons(0, 1234);
+        em.persistAll(all);
+        //more than a single chunk of ids
+        em.removeAll(all.subList(0, 1201));
+        assertEquals(33, count(em));
+        assertNull(em.find(Person.class, 1200L));
+        assertEquals("person 1201", em.find(Person.class, 1201L).getName());
+        em.removeAll(Arrays.asList(all.get(1233)));
+        assertEquals(32, count(em));
+    }
+
+    /**
+     * 100k rows, inserted and deleted in batches and one by one, in memory and in a file. Only prints the timings,
+     * which depend on the machine, so it is skipped unless run with -Dhcf.benchmark=true.
+     */
+    @Test
+    public void batchBenchmark() throws Exception {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        int rows = 100_000;
+        String[] urls = {Databases.memory(), Databases.file(folder.getRoot())};
+        for (String url : urls) {
+            ORMLiteEntityManager db = Databases.newManager(url, 2, Person.class);
+            //warm up
+            db.persistAll(persons(0, 5_000));
+            db.removeAll(persons(0, 5_000));
+
+            List<Person> list = persons(0, rows);
+            long start = System.nanoTime();
+            db.persistAll(list);
+            long batchInsert = System.nanoTime() - start;
+            assertEquals(rows, count(db));
+            start = System.nanoTime();
+            db.removeAll(list);
+            long batchDelete = System.nanoTime() - start;
+            assertEquals(0, count(db));
+
+            start = System.nanoTime();
+            for (Person person : list) {
+                db.persist(person);
+            }
+            long singleInsert = System.nanoTime() - start;
+            assertEquals(rows, count(db));
+            start = System.nanoTime();
+            for (Person person : list) {
+                db.remove(person);
+            }
+            long singleDelete = System.nanoTime() - start;
+            assertEquals(0, count(db));
+            System.out.printf("%d rows %s: insert batch %d ms, single %d ms; delete batch %d ms, single %d ms%n", rows,
+                    url.startsWith("jdbc:h2:mem") ? "in memory" : "in a file", batchInsert / 1_000_000, singleInsert / 1_000_000,
+                    batchDelete / 1_000_000, singleDelete / 1_000_000);
+            db.getConnectionSource().close();
+        }
+    }
+}
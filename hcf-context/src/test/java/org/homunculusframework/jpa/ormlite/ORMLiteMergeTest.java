@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.OptimisticLockException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The statements of {@link ORMLiteEntityManager#merge(Object)} and its optimistic locking, counted by the query
+ * statistics of h2.
+ *
+ * @since 1.0
+ */
+public class ORMLiteMergeTest {
+
+    private String url;
+    private ORMLiteEntityManager em;
+    //a connection outside of the manager, which keeps the in-memory database alive and reads the statistics
+    private Connection admin;
+
+    @Before
+    public void setUp() throws Exception {
+        url = Databases.memory();
+        admin = DriverManager.getConnection(url);
+        em = Databases.newManager(url, 2, Person.class, Versioned.class);
+        em.persist(new Person(1, "a", 1));
+        em.persist(new Versioned(1, "a", 1));
+        resetStatistics();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        em.getConnectionSource().close();
+        admin.close();
+    }
+
+    private void resetStatistics() throws SQLException {
+        try (Statement stmt = admin.createStatement()) {
+            stmt.execute("SET QUERY_STATISTICS FALSE");
+            stmt.execute("SET QUERY_STATISTICS TRUE");
+        }
+    }
+
+    /**
+     * Returns the executed statements of the given kind (e.g. UPDATE), one entry per execution.
+     */
+    private List<String> executed(String kind) throws SQLException {
+        List<String> res = new ArrayList<>();
+        try (Statement stmt = admin.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT SQL_STATEMENT, EXECUTION_COUNT FROM INFORMATION_SCHEMA.QUERY_STATISTICS")) {
+            while (rs.next()) {
+                String sql = rs.getString(1);
+                if (sql.trim().toUpperCase().startsWith(kind) && !sql.contains("QUERY_STATISTICS")) {
+                    for (int i = 0; i < rs.getInt(2); i++) {
+                        res.add(sql);
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    @Test
+    public void unchangedEntityIsNotWritten() throws Exception {
+        em.merge(new Person(1, "a", 1));
+        assertEquals(1, executed("SELECT").size());
+        assertEquals(0, executed("UPDATE").size());
+        assertEquals(0, executed("INSERT").size());
+    }
+
+    @Test
+    public void onlyChangedColumnsAreWritten() throws Exception {
+        em.merge(new Person(1, "a", 2));
+        List<String> updates = executed("UPDATE");
+        assertEquals(1, executed("SELECT").size());
+        assertEquals(1, updates.size());
+        assertTrue(updates.get(0), updates.get(0).contains("age"));
+        assertTrue(updates.get(0), !updates.get(0).contains("name"));
+        assertEquals(2, em.find(Person.class, 1L).getAge());
+    }
+
+    @Test
+    public void newEntityIsInserted() throws Exception {
+        em.merge(new Person(2, "b", 2));
+        assertEquals(1, executed("SELECT").size());
+        assertEquals(1, executed("INSERT").size());
+        assertEquals(0, executed("UPDATE").size());
+    }
+
+    @Test
+    public void versionIsCheckedAndIncremented() throws Exception {
+        Versioned entity = em.find(Versioned.class, 1L);
+        int version = entity.getVersion();
+        entity.setAge(2);
+        resetStatistics();
+        em.merge(entity);
+        List<String> updates = executed("UPDATE");
+        assertEquals(1, updates.size());
+        //the version is set and restricted in the same statement
+        String update = updates.get(0);
+        assertTrue(update, update.indexOf("version") < update.indexOf("WHERE"));
+        assertTrue(update, update.lastIndexOf("version") > update.indexOf("WHERE"));
+        assertEquals(version + 1, entity.getVersion());
+        Versioned row = em.find(Versioned.class, 1L);
+        assertEquals(version + 1, row.getVersion());
+        assertEquals(2, row.getAge());
+
+        //nothing changed, so neither written nor incremented
+        resetStatistics();
+        em.merge(entity);
+        assertEquals(0, executed("UPDATE").size());
+        assertEquals(version + 1, em.find(Versioned.class, 1L).getVersion());
+    }
+
+    @Test
+    public void staleVersionIsRejected() throws Exception {
+        Versioned first = em.find(Versioned.class, 1L);
+        Versioned second = em.find(Versioned.class, 1L);
+        first.setAge(2);
+        em.merge(first);
+        second.setName("b");
+        resetStatistics();
+        try {
+            em.merge(second);
+            fail("merged a stale entity");
+        } catch (OptimisticLockException e) {
+            assertEquals(second, e.getEntity());
+        }
+        assertEquals(0, executed("UPDATE").size());
+        Versioned row = em.find(Versioned.class, 1L);
+        assertEquals("a", row.getName());
+        assertEquals(2, row.getAge());
+    }
+
+    @Test
+    public void staleVersionRollsBackTheTransaction() throws Exception {
+        Versioned stale = em.find(Versioned.class, 1L);
+        Versioned current = em.find(Versioned.class, 1L);
+        current.setAge(3);
+        em.merge(current);
+
+        em.getTransaction().begin();
+        em.persist(new Person(2, "b", 2));
+        stale.setAge(4);
+        try {
+            em.merge(stale);
+            fail("merged a stale entity");
+        } catch (OptimisticLockException e) {
+            assertTrue(em.getTransaction().getRollbackOnly());
+        }
+        em.getTransaction().rollback();
+        assertEquals(null, em.find(Person.class, 2L));
+        assertEquals(3, em.find(Versioned.class, 1L).getAge());
+    }
+}
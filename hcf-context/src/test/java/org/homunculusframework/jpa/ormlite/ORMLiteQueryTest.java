@@ -0,0 +1,218 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.support.DatabaseConnection;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.persistence.Query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Paging and parameter binding of native queries on a table with 10k rows, 1M rows for the benchmark.
+ *
+ * @since 1.0
+ */
+public class ORMLiteQueryTest {
+
+    //the paging benchmark needs a large table, the other tests do not
+    private static final int ROWS = Boolean.getBoolean("hcf.benchmark") ? 1_000_000 : 10_000;
+    private static final String SQL = "SELECT id, name, age FROM person WHERE name LIKE 'person %' ORDER BY id";
+
+    private static ORMLiteEntityManager em;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        em = Databases.newManager(Databases.memory(), 2, Person.class);
+        ORMLiteConnectionPool pool = (ORMLiteConnectionPool) em.getConnectionSource();
+        DatabaseConnection con = pool.getReadWriteConnection("person");
+        try {
+            //much faster than inserting each row
+            con.executeStatement("INSERT INTO person (id, name, age) SELECT X, CONCAT('person ', X), MOD(X, 100) FROM SYSTEM_RANGE(0, " + (ROWS - 1) + ")",
+                    DatabaseConnection.DEFAULT_RESULT_FLAGS);
+        } finally {
+            pool.releaseConnection(con);
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        em.getConnectionSource().close();
+        em = null;
+    }
+
+    private static List<Person> page(String sql, int first, int max) {
+        Query query = em.createNativeQuery(sql, Person.class);
+        query.setFirstResult(first);
+        query.setMaxResults(max);
+        return query.getResultList();
+    }
+
+    private static void assertIds(List<Person> persons, long first, int count) {
+        assertEquals(count, persons.size());
+        for (int i = 0; i < count; i++) {
+            Person person = persons.get(i);
+            assertEquals(first + i, person.getId());
+            assertEquals("person " + (first + i), person.getName());
+            assertEquals((first + i) % 100, person.getAge());
+        }
+    }
+
+    @Test
+    public void pages() {
+        assertIds(page(SQL, 0, 20), 0, 20);
+        assertIds(page(SQL, ROWS / 2, 20), ROWS / 2, 20);
+        assertIds(page(SQL + ";", ROWS / 2, 20), ROWS / 2, 20);
+        //the last partial page and beyond
+        assertIds(page(SQL, ROWS - 7, 20), ROWS - 7, 7);
+        assertIds(page(SQL, ROWS, 20), ROWS, 0);
+        assertIds(page(SQL, 10, 0), 10, 0);
+        //an own limit or a trailing comment
+        assertIds(page(SQL + " LIMIT 100", 90, 20), 90, 10);
+        assertIds(page(SQL + " -- by id", ROWS / 2, 20), ROWS / 2, 20);
+        //only an offset
+        assertIds(page(SQL, ROWS - 3, Integer.MAX_VALUE), ROWS - 3, 3);
+        //only a limit
+        assertIds(page("SELECT * FROM person WHERE age = 42 ORDER BY id", 0, 3).subList(0, 1), 42, 1);
+        assertEquals(3, page("SELECT * FROM person WHERE age = 42 ORDER BY id", 0, 3).size());
+    }
+
+    @Test
+    public void keepsTheConfiguration() {
+        Query query = em.createNativeQuery(SQL, Person.class);
+        assertEquals(Integer.MAX_VALUE, query.getMaxResults());
+        assertEquals(0, query.getFirstResult());
+        query.setFirstResult(5).setMaxResults(10);
+        assertEquals(10, query.getMaxResults());
+        assertEquals(5, query.getFirstResult());
+        assertIds(query.getResultList(), 5, 10);
+        //executing it again gives the same page
+        assertIds(query.getResultList(), 5, 10);
+    }
+
+    /**
+     * A page in the middle, pushed down into the sql, compared to skipping the rows while reading.
+     */
+    @Test
+    public void latency() {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        for (int round = 0; round < 2; round++) {
+            //the first round is the warm up
+            long start = System.nanoTime();
+            List<Person> paged = page(SQL, ROWS / 2, 20);
+            long pagedNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ORMLiteResultIterator<Person> it = ((ORMLiteQuery<Person>) em.createNativeQuery(SQL, Person.class)).getResultIterator();
+            try {
+                for (int i = 0; i < ROWS / 2; i++) {
+                    it.next();
+                }
+                assertEquals(ROWS / 2, it.next().getId());
+            } finally {
+                it.closeQuietly();
+            }
+            long skippedNanos = System.nanoTime() - start;
+
+            assertIds(paged, ROWS / 2, 20);
+            if (round == 1) {
+                System.out.printf("page %d of %d rows: in sql %d ms, skipped while reading %d ms%n", ROWS / 2, ROWS, pagedNanos / 1_000_000, skippedNanos / 1_000_000);
+                assertTrue(pagedNanos < skippedNanos);
+            }
+        }
+        assertEquals(0, ((ORMLiteConnectionPool) em.getConnectionSource()).getActiveCount());
+    }
+
+    private static List<Person> query(String sql, Object... parameters) {
+        Query query = em.createNativeQuery(sql, Person.class);
+        for (int i = 0; i < parameters.length; i++) {
+            query.setParameter(i + 1, parameters[i]);
+        }
+        return query.getResultList();
+    }
+
+    @Test
+    public void bindsPositionalParameters() {
+        List<Person> res = query("SELECT id, name, age FROM person WHERE age = ? AND id < ? ORDER BY id", 7, 1000L);
+        assertEquals(10, res.size());
+        assertEquals(7, res.get(0).getId());
+        assertEquals(107, res.get(1).getId());
+        assertIds(query("SELECT id, name, age FROM person WHERE name = ?", "person 42"), 42, 1);
+        assertEquals(0, query("SELECT id, name, age FROM person WHERE name = ?", (Object) null).size());
+    }
+
+    /**
+     * Dates and byte arrays cannot be bound by their string representation, so these prove the typed binding.
+     */
+    @Test
+    public void bindsByJavaType() {
+        assertIds(query("SELECT id, name, age FROM person WHERE id = 3 AND ? < CURRENT_TIMESTAMP", new Date(0)), 3, 1);
+        assertIds(query("SELECT id, name, age FROM person WHERE id = 3 AND LENGTH(?) = 3", (Object) new byte[]{1, 2, 3}), 3, 1);
+        assertIds(query("SELECT id, name, age FROM person WHERE id = 3 AND ?", true), 3, 1);
+        assertIds(query("SELECT id, name, age FROM person WHERE id = ?", 2.0), 2, 1);
+    }
+
+    @Test
+    public void bindsNamedParametersInTheOrderOfTheirNames() {
+        Query query = em.createNativeQuery("SELECT id, name, age FROM person WHERE age = ? AND id < ? ORDER BY id", Person.class);
+        query.setParameter("b", 200L);
+        query.setParameter("a", 7);
+        List<Person> res = query.getResultList();
+        assertEquals(2, res.size());
+        assertEquals(107, res.get(1).getId());
+    }
+
+    @Test
+    public void rejectsInvalidParameters() {
+        Query mixed = em.createNativeQuery("SELECT id, name, age FROM person WHERE age = ? AND id = ?", Person.class);
+        mixed.setParameter(1, 7);
+        mixed.setParameter("a", 7);
+        try {
+            mixed.getResultList();
+            fail("mixed named and positional parameters");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        Query gap = em.createNativeQuery("SELECT id, name, age FROM person WHERE age = ? AND id = ?", Person.class);
+        gap.setParameter(2, 7);
+        try {
+            gap.getResultList();
+            fail("accepted an unbound parameter");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        try {
+            gap.setParameter(0, 7);
+            fail("accepted position 0");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        assertEquals(0, ((ORMLiteConnectionPool) em.getConnectionSource()).getActiveCount());
+    }
+}
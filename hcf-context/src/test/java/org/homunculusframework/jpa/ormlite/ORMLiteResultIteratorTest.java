@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Connection handling and memory consumption of the {@link ORMLiteResultIterator}.
+ *
+ * @since 1.0
+ */
+public class ORMLiteResultIteratorTest {
+
+    private static final String SQL = "SELECT id, name, age FROM person ORDER BY id";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ORMLiteResultIterator<Person> iterate(ORMLiteEntityManager em, String sql) {
+        return ((ORMLiteQuery<Person>) em.createNativeQuery(sql, Person.class)).getResultIterator();
+    }
+
+    private static int active(ORMLiteEntityManager em) {
+        return ((ORMLiteConnectionPool) em.getConnectionSource()).getActiveCount();
+    }
+
+    @Test
+    public void exhaustionReleasesTheConnection() throws Exception {
+        ORMLiteEntityManager em = Databases.newManager(Databases.memory(), 2, Person.class);
+        Databases.insertPersons(em, 3);
+        ORMLiteResultIterator<Person> it = iterate(em, SQL);
+        assertEquals(1, active(em));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(it.hasNext());
+            assertEquals(i, it.next().getId());
+            assertEquals(1, active(em));
+        }
+        assertFalse(it.hasNext());
+        assertEquals(0, active(em));
+        try {
+            it.next();
+            fail();
+        } catch (NoSuchElementException e) {
+            //expected
+        }
+        //closing an exhausted iterator does not release the connection a second time
+        it.close();
+        assertEquals(0, active(em));
+        em.getConnectionSource().close();
+    }
+
+    @Test
+    public void closeReleasesTheConnection() throws Exception {
+        ORMLiteEntityManager em = Databases.newManager(Databases.memory(), 1, Person.class);
+        Databases.insertPersons(em, 10);
+        ORMLiteResultIterator<Person> it = iterate(em, SQL);
+        assertEquals(0, it.next().getId());
+        it.close();
+        it.close();
+        assertEquals(0, active(em));
+        assertFalse(it.hasNext());
+        //the single connection is usable again, also for a paged query
+        javax.persistence.Query query = em.createNativeQuery(SQL, Person.class).setFirstResult(8);
+        assertEquals(2, query.getResultList().size());
+        assertEquals(0, active(em));
+        em.getConnectionSource().close();
+    }
+
+    @Test
+    public void failureReleasesTheConnection() throws Exception {
+        ORMLiteEntityManager em = Databases.newManager(Databases.memory(), 1, Person.class);
+        try {
+            iterate(em, "SELECT * FROM missing");
+            fail();
+        } catch (RuntimeException e) {
+            //expected
+        }
+        assertEquals(0, active(em));
+        em.getConnectionSource().close();
+    }
+
+    @Test
+    public void worksWithoutThePool() throws Exception {
+        String url = Databases.memory();
+        ORMLiteEntityManager pooled = Databases.newManager(url, 1, Person.class);
+        Databases.insertPersons(pooled, 5);
+        JdbcConnectionSource single = new JdbcConnectionSource(url);
+        ORMLiteEntityManager em = new ORMLiteEntityManager(single);
+        ORMLiteResultIterator<Person> it = iterate(em, SQL);
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(count++, it.next().getId());
+        }
+        assertEquals(5, count);
+        it.close();
+        single.close();
+        pooled.getConnectionSource().close();
+    }
+
+    /**
+     * Iterates 1M rows of a lazily executing h2 file database and samples the used heap.
+     */
+    @Test
+    public void boundedHeap() throws Exception {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        int rows = 1_000_000;
+        ORMLiteEntityManager em = Databases.newManager(Databases.file(folder.getRoot()) + ";LAZY_QUERY_EXECUTION=1", 1, Person.class);
+        ORMLiteConnectionPool pool = (ORMLiteConnectionPool) em.getConnectionSource();
+        DatabaseConnection con = pool.getReadWriteConnection("person");
+        con.executeStatement("INSERT INTO person (id, name, age) SELECT X, CONCAT('person ', X), MOD(X, 100) FROM SYSTEM_RANGE(0, " + (rows - 1) + ")",
+                DatabaseConnection.DEFAULT_RESULT_FLAGS);
+        pool.releaseConnection(con);
+
+        long before = usedHeap();
+        long max = 0;
+        long start = System.nanoTime();
+        ORMLiteResultIterator<Person> it = iterate(em, SQL);
+        int count = 0;
+        try {
+            while (it.hasNext()) {
+                Person person = it.next();
+                if (person.getId() != count) {
+                    fail("unexpected " + person + " at " + count);
+                }
+                count++;
+                if (count % 200_000 == 0) {
+                    max = Math.max(max, usedHeap() - before);
+                }
+            }
+        } finally {
+            it.closeQuietly();
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(rows, count);
+        assertEquals(0, pool.getActiveCount());
+        System.out.printf("iterated %d rows in %d ms, heap growth at most %d KiB%n", rows, millis, max / 1024);
+        //a materialized result would need more than 100 MiB
+        assertTrue("heap grew by " + max, max < 32 * 1024 * 1024);
+        pool.close();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
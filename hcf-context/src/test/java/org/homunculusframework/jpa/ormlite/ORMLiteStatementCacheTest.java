@@ -0,0 +1,257 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.dao.ObjectCache;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.support.CompiledStatement;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.support.DatabaseResults;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The per connection {@link ORMLiteStatementCache}, its lifecycle within the {@link ORMLiteConnectionPool} and an
+ * h2 benchmark of repeated native queries.
+ *
+ * @since 1.0
+ */
+public class ORMLiteStatementCacheTest {
+
+    private static final String BY_ID = "SELECT id, name, age FROM person WHERE id = ?";
+
+    @Test
+    public void evictsAndClosesTheLeastRecentlyUsed() {
+        ORMLiteStatementCache cache = new ORMLiteStatementCache(2);
+        FakeStatement a = new FakeStatement();
+        FakeStatement b = new FakeStatement();
+        FakeStatement c = new FakeStatement();
+        cache.offer("a", a);
+        cache.offer("b", b);
+        //touch a, so that b is the eldest
+        assertSame(a, cache.take("a"));
+        cache.offer("a", a);
+        cache.offer("c", c);
+        assertTrue(b.closed);
+        assertFalse(a.closed);
+        assertFalse(c.closed);
+        assertNull(cache.take("b"));
+        assertSame(a, cache.take("a"));
+        assertSame(c, cache.take("c"));
+        assertFalse(a.closed);
+        assertFalse(c.closed);
+    }
+
+    @Test
+    public void closesADuplicate() {
+        ORMLiteStatementCache cache = new ORMLiteStatementCache(2);
+        FakeStatement first = new FakeStatement();
+        FakeStatement second = new FakeStatement();
+        cache.offer("a", first);
+        cache.offer("a", second);
+        assertFalse(first.closed);
+        assertTrue(second.closed);
+        //a statement in use is not in the cache anymore
+        assertSame(first, cache.take("a"));
+        assertNull(cache.take("a"));
+    }
+
+    @Test
+    public void closeClosesAllIdleStatements() {
+        ORMLiteStatementCache cache = new ORMLiteStatementCache(4);
+        FakeStatement a = new FakeStatement();
+        FakeStatement b = new FakeStatement();
+        cache.offer("a", a);
+        cache.offer("b", b);
+        cache.close();
+        assertTrue(a.closed);
+        assertTrue(b.closed);
+        assertNull(cache.take("a"));
+    }
+
+    @Test
+    public void idleEvictionClosesTheCache() throws Exception {
+        ORMLiteEntityManager em = Databases.newManager(Databases.memory(), 2, Person.class);
+        ORMLiteConnectionPool pool = (ORMLiteConnectionPool) em.getConnectionSource();
+        FakeStatement stmt = new FakeStatement();
+        DatabaseConnection con = pool.getReadWriteConnection("person");
+        ORMLiteStatementCache cache = pool.getStatementCache(con);
+        assertSame(cache, pool.getStatementCache(con));
+        cache.offer("a", stmt);
+        pool.releaseConnection(con);
+        assertFalse(stmt.closed);
+
+        pool.setMaxIdleMillis(20);
+        Thread.sleep(40);
+        DatabaseConnection next = pool.getReadWriteConnection("person");
+        assertTrue(con.isClosed());
+        assertTrue(stmt.closed);
+        //the discarded connection has no cache anymore
+        assertFalse(cache == pool.getStatementCache(next));
+        pool.releaseConnection(next);
+        pool.close();
+    }
+
+    @Test
+    public void discardAndCloseCloseTheCache() throws Exception {
+        ORMLiteEntityManager em = Databases.newManager(Databases.memory(), 2, Person.class);
+        ORMLiteConnectionPool pool = (ORMLiteConnectionPool) em.getConnectionSource();
+        DatabaseConnection broken = pool.getReadWriteConnection("person");
+        DatabaseConnection idle = pool.getReadWriteConnection("person");
+        FakeStatement ofBroken = new FakeStatement();
+        FakeStatement ofIdle = new FakeStatement();
+        pool.getStatementCache(broken).offer("a", ofBroken);
+        pool.getStatementCache(idle).offer("a", ofIdle);
+
+        //a connection, which is closed while in use, is discarded on release
+        broken.close();
+        pool.releaseConnection(broken);
+        assertTrue(ofBroken.closed);
+        assertEquals(0, pool.getIdleCount());
+
+        pool.releaseConnection(idle);
+        assertFalse(ofIdle.closed);
+        pool.close();
+        assertTrue(ofIdle.closed);
+    }
+
+    @Test
+    public void queriesReuseTheStatement() throws Exception {
+        ORMLiteEntityManager em = Databases.newManager(Databases.memory(), 1, Person.class);
+        Databases.insertPersons(em, 10);
+        ORMLiteConnectionPool pool = (ORMLiteConnectionPool) em.getConnectionSource();
+        for (int i = 0; i < 10; i++) {
+            List<Person> list = em.createNativeQuery(BY_ID, Person.class).setParameter("id", i).getResultList();
+            assertEquals(1, list.size());
+            assertEquals(i, list.get(0).getId());
+        }
+        DatabaseConnection con = pool.getReadWriteConnection("person");
+        try {
+            ORMLiteStatementCache cache = pool.getStatementCache(con);
+            assertNotNull(cache.take(BY_ID));
+            assertNull(cache.take(BY_ID));
+        } finally {
+            pool.releaseConnection(con);
+        }
+        pool.close();
+    }
+
+    /**
+     * 100.000 single row queries with and without statement cache.
+     */
+    @Test
+    public void repeatedQueryBenchmark() throws Exception {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        String url = Databases.memory();
+        ORMLiteEntityManager cached = Databases.newManager(url, 1, Person.class);
+        Databases.insertPersons(cached, 1000);
+        ORMLiteEntityManager uncached = new ORMLiteEntityManager(url, 1);
+        ((ORMLiteConnectionPool) uncached.getConnectionSource()).setStatementCacheSize(0);
+        try {
+            for (int round = 0; round < 2; round++) {
+                //the first round is the warm up
+                int executions = round == 0 ? 10_000 : 100_000;
+                long uncachedNanos = queryRepeatedly(uncached, executions);
+                long cachedNanos = queryRepeatedly(cached, executions);
+                if (round == 1) {
+                    System.out.printf("%d executions of a single row query: without statement cache %d ms (%.1f us each), with cache %d ms (%.1f us each)%n",
+                            executions, uncachedNanos / 1_000_000, uncachedNanos / 1000d / executions,
+                            cachedNanos / 1_000_000, cachedNanos / 1000d / executions);
+                }
+            }
+        } finally {
+            uncached.getConnectionSource().close();
+            cached.getConnectionSource().close();
+        }
+    }
+
+    private static long queryRepeatedly(ORMLiteEntityManager em, int executions) {
+        long start = System.nanoTime();
+        for (int i = 0; i < executions; i++) {
+            List<Person> list = em.createNativeQuery(BY_ID, Person.class).setParameter("id", i % 1000).getResultList();
+            assertEquals(1, list.size());
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Only records whether it has been closed.
+     */
+    private static final class FakeStatement implements CompiledStatement {
+        private boolean closed;
+
+        @Override
+        public int getColumnCount() {
+            return 0;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return null;
+        }
+
+        @Override
+        public int runUpdate() {
+            return 0;
+        }
+
+        @Override
+        public DatabaseResults runQuery(ObjectCache objectCache) {
+            return null;
+        }
+
+        @Override
+        public int runExecute() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public void closeQuietly() {
+            close();
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public void setObject(int parameterIndex, Object obj, SqlType sqlType) {
+        }
+
+        @Override
+        public void setMaxRows(int max) {
+        }
+
+        @Override
+        public void setQueryTimeout(long millis) {
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.persistence.EntityTransaction;
+import javax.persistence.RollbackException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Per thread transactions of the {@link ORMLiteEntityManager} against an h2 file database.
+ *
+ * @since 1.0
+ */
+public class ORMLiteTransactionTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String url;
+    private ORMLiteEntityManager em;
+
+    @Before
+    public void setUp() throws Exception {
+        url = Databases.file(folder.getRoot());
+        em = Databases.newManager(url, 4, Person.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        em.getConnectionSource().close();
+    }
+
+    /**
+     * Counts the persons using a connection, which is not part of the entity manager.
+     */
+    private long committedCount() throws SQLException {
+        try (Connection con = DriverManager.getConnection(url);
+             ResultSet rs = con.createStatement().executeQuery("SELECT COUNT(*) FROM person")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Test
+    public void commitIsDurable() throws Exception {
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+        assertSame(tx, em.getTransaction());
+        em.persist(new Person(1, "a", 1));
+        em.persist(new Person(2, "b", 2));
+        assertEquals(0, committedCount());
+        tx.commit();
+        assertFalse(tx.isActive());
+        assertEquals(2, committedCount());
+        assertEquals(0, ((ORMLiteConnectionPool) em.getConnectionSource()).getActiveCount());
+    }
+
+    @Test
+    public void rollbackDiscards() throws Exception {
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+        em.persist(new Person(1, "a", 1));
+        assertEquals("a", em.find(Person.class, 1L).getName());
+        tx.rollback();
+        assertNull(em.find(Person.class, 1L));
+        assertEquals(0, committedCount());
+
+        tx = em.getTransaction();
+        tx.begin();
+        em.persist(new Person(1, "a", 1));
+        tx.setRollbackOnly();
+        try {
+            tx.commit();
+            fail();
+        } catch (RollbackException e) {
+            //expected
+        }
+        assertEquals(0, committedCount());
+    }
+
+    @Test
+    public void otherThreadsAreNotAffected() throws Exception {
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+        em.persist(new Person(1, "a", 1));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Callable<Object> other = new Callable<Object>() {
+                @Override
+                public Object call() {
+                    assertFalse(em.getTransaction().isActive());
+                    return em.find(Person.class, 1L);
+                }
+            };
+            assertNull(executor.submit(other).get());
+            tx.commit();
+            assertEquals("a", ((Person) executor.submit(other).get()).getName());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void completedTransactionsAreNotBoundToTheThread() throws Exception {
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+        em.persist(new Person(1, "a", 1));
+        tx.commit();
+        //a new one, because the completed one is not the active one anymore
+        EntityTransaction next = em.getTransaction();
+        assertNotSame(tx, next);
+        assertFalse(next.isActive());
+
+        //a held transaction can be used again and is bound again
+        tx.begin();
+        assertSame(tx, em.getTransaction());
+        tx.rollback();
+        assertNotSame(tx, em.getTransaction());
+
+        WeakReference<EntityTransaction> ref = new WeakReference<>(tx);
+        tx = null;
+        for (int i = 0; i < 20 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("the thread still references the completed transaction", ref.get());
+    }
+
+    @Test
+    public void onlyOneActiveTransactionPerThread() throws Exception {
+        EntityTransaction tx = em.getTransaction();
+        EntityTransaction unbound = em.getTransaction();
+        tx.begin();
+        try {
+            unbound.begin();
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        try {
+            tx.begin();
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        tx.commit();
+        unbound.begin();
+        assertTrue(unbound.isActive());
+        unbound.rollback();
+    }
+
+    @Test
+    public void batchesJoinTheActiveTransaction() throws Exception {
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+        em.persistAll(Arrays.asList(new Person(1, "a", 1), new Person(2, "b", 2)));
+        assertEquals(0, committedCount());
+        tx.rollback();
+        assertEquals(0, committedCount());
+        em.persistAll(Arrays.asList(new Person(1, "a", 1), new Person(2, "b", 2)));
+        assertEquals(2, committedCount());
+        assertFalse(em.getTransaction().isActive());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.jpa.ormlite;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * An entity with an optimistic lock version for the h2 tests.
+ *
+ * @since 1.0
+ */
+@DatabaseTable(tableName = "versioned")
+public class Versioned {
+    @DatabaseField(id = true)
+    private long id;
+    @DatabaseField
+    private String name;
+    @DatabaseField
+    private int age;
+    @DatabaseField(version = true)
+    private int version;
+
+    Versioned() {
+    }
+
+    Versioned(long id, String name, int age) {
+        this.id = id;
+        this.name = name;
+        this.age = age;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    int getAge() {
+        return age;
+    }
+
+    void setAge(int age) {
+        this.age = age;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "Versioned(" + id + ", " + name + ", " + age + ", v" + version + ")";
+    }
+}
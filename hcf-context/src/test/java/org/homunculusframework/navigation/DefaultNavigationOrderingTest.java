@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.navigation;
+
+import org.homunculusframework.factory.container.Binding;
+import org.homunculusframework.navigation.NavigationFixture.BeanScope;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Issues bursts of requests against handlers with random delays, so that the requests overtake each other, and
+ * checks that only the newest one is applied and every other created scope is destroyed exactly once.
+ *
+ * @since 1.0
+ */
+public class DefaultNavigationOrderingTest {
+
+    @Test
+    public void onlyTheNewestRequestIsApplied() throws Exception {
+        for (long seed = 0; seed < 20; seed++) {
+            runBurst(seed, false);
+        }
+    }
+
+    @Test
+    public void onlyTheNewestMethodRequestIsApplied() throws Exception {
+        for (long seed = 0; seed < 20; seed++) {
+            runBurst(seed, true);
+        }
+    }
+
+    /**
+     * A method binding, which has finished but whose result has not yet been processed on the main thread, must not
+     * be cancelled by interrupting its pooled thread, which may already execute an unrelated job.
+     */
+    @Test
+    public void finishedMethodRequestDoesNotInterruptTheNextJob() throws Exception {
+        NavigationFixture fixture = new NavigationFixture(0, 0);
+        ExecutorService methodThread = Executors.newSingleThreadExecutor();
+        try {
+            DefaultNavigation navigation = new DefaultNavigation(fixture.scope, methodThread::execute, fixture.newBackgroundHandler());
+            CountDownLatch mainBlocked = new CountDownLatch(1);
+            CountDownLatch releaseMain = new CountDownLatch(1);
+            fixture.main.execute(() -> {
+                mainBlocked.countDown();
+                try {
+                    releaseMain.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(mainBlocked.await(10, TimeUnit.SECONDS));
+            navigation.forward(fixture.new MethodRequest("a"));
+
+            //runs after the method binding on the same thread, while its result waits for the main thread
+            CountDownLatch jobStarted = new CountDownLatch(1);
+            AtomicBoolean interrupted = new AtomicBoolean();
+            methodThread.submit(() -> {
+                jobStarted.countDown();
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            });
+            assertTrue(jobStarted.await(10, TimeUnit.SECONDS));
+            navigation.forward(fixture.new Request("b"));
+            releaseMain.countDown();
+            methodThread.shutdown();
+            assertTrue(methodThread.awaitTermination(10, TimeUnit.SECONDS));
+            fixture.awaitIdle();
+
+            assertFalse(interrupted.get());
+            assertEquals("b", fixture.onMain(() -> fixture.current(navigation)).name);
+        } finally {
+            methodThread.shutdownNow();
+            fixture.shutdown();
+        }
+    }
+
+    private void runBurst(long seed, boolean methodRequests) throws Exception {
+        NavigationFixture fixture = new NavigationFixture(seed, 3);
+        try {
+            DefaultNavigation navigation = new DefaultNavigation(fixture.scope, fixture.newBackgroundHandler(), fixture.newBackgroundHandler());
+            Random random = new Random(seed);
+            Binding<?, ?> last = null;
+            for (int i = 0; i < 20; i++) {
+                last = methodRequests ? fixture.new MethodRequest("r" + i) : fixture.new Request("r" + i);
+                Binding<?, ?> request = last;
+                fixture.onMain(() -> navigation.forward(request));
+                if (random.nextBoolean()) {
+                    Thread.sleep(random.nextInt(4));
+                }
+            }
+            fixture.awaitIdle();
+
+            BeanScope current = fixture.onMain(() -> fixture.current(navigation));
+            assertEquals("seed " + seed, last.toString(), current.name);
+            assertEquals("seed " + seed, 0, current.destroyed.get());
+            for (BeanScope bean : fixture.created) {
+                if (bean != current) {
+                    assertEquals("seed " + seed + " " + bean, 1, bean.destroyed.get());
+                }
+            }
+            assertEquals("seed " + seed + " destroyed twice", 0, fixture.failures.get());
+            assertSame(last, navigation.getTop());
+        } finally {
+            fixture.shutdown();
+        }
+    }
+}
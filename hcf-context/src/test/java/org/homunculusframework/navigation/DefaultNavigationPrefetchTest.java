@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.navigation;
+
+import org.homunculusframework.navigation.NavigationFixture.BeanScope;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Adoption and expiry of prefetched requests.
+ *
+ * @since 1.0
+ */
+public class DefaultNavigationPrefetchTest {
+
+    private NavigationFixture fixture;
+    private DefaultNavigation navigation;
+
+    @Before
+    public void setUp() {
+        fixture = new NavigationFixture(1, 2);
+        navigation = new DefaultNavigation(fixture.scope, fixture.newBackgroundHandler(), fixture.newBackgroundHandler());
+    }
+
+    @After
+    public void tearDown() {
+        fixture.shutdown();
+    }
+
+    @Test
+    public void adoptsAnEqualRequest() throws Exception {
+        fixture.onMain(() -> navigation.prefetch(fixture.new Request("detail")));
+        fixture.awaitIdle();
+        assertEquals(1, fixture.created.size());
+
+        //another instance with equal arguments, like a binding which is generated again by a click
+        fixture.onMain(() -> navigation.forward(fixture.new Request("detail")));
+        fixture.awaitIdle();
+
+        assertEquals("the prefetch has not been adopted", 1, fixture.created.size());
+        assertSame(fixture.created.get(0), fixture.onMain(() -> fixture.current(navigation)));
+        assertEquals(0, fixture.created.get(0).destroyed.get());
+    }
+
+    @Test
+    public void doesNotAdoptOtherArguments() throws Exception {
+        navigation.setPrefetchTimeToLive(60_000);
+        fixture.onMain(() -> navigation.prefetch(fixture.new Request("a")));
+        fixture.onMain(() -> navigation.forward(fixture.new Request("b")));
+        fixture.awaitIdle();
+
+        assertEquals(2, fixture.created.size());
+        assertEquals("b", fixture.onMain(() -> fixture.current(navigation)).name);
+        assertTrue(navigation.cancelPrefetch(fixture.new Request("a")));
+        fixture.awaitIdle();
+        assertEquals(1, fixture.created.get(0).destroyed.get());
+    }
+
+    @Test
+    public void expiresWithoutNavigation() throws Exception {
+        navigation.setPrefetchTimeToLive(50);
+        fixture.onMain(() -> navigation.prefetch(fixture.new Request("unused")));
+        fixture.awaitIdle();
+        BeanScope prefetched = fixture.created.get(0);
+
+        //the app is idle, nobody navigates
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (prefetched.destroyed.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("the expired prefetch has not been destroyed", 1, prefetched.destroyed.get());
+        assertEquals(0, fixture.failures.get());
+    }
+
+    @Test
+    public void destroyingTheScopeCancelsPrefetches() throws Exception {
+        navigation.setPrefetchTimeToLive(60_000);
+        fixture.onMain(() -> navigation.prefetch(fixture.new Request("a")));
+        fixture.awaitIdle();
+        fixture.onMain(() -> fixture.scope.onDestroy());
+        fixture.awaitIdle();
+        assertEquals(1, fixture.created.get(0).destroyed.get());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.navigation;
+
+import org.homunculusframework.navigation.NavigationFixture.BeanScope;
+import org.homunculusframework.navigation.NavigationFixture.Request;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reattachment of retained states by {@link DefaultNavigation#backward()} and the budget of the weigher.
+ *
+ * @since 1.0
+ */
+public class DefaultNavigationRetentionTest {
+
+    private NavigationFixture fixture;
+    private List<BeanScope> reattached;
+    private DefaultNavigation navigation;
+
+    @Before
+    public void setUp() {
+        fixture = new NavigationFixture(1, 2);
+        reattached = new ArrayList<>();
+        navigation = new DefaultNavigation(fixture.scope, fixture.newBackgroundHandler(), fixture.newBackgroundHandler()) {
+            @Override
+            protected void onReattach(UserInterfaceState uis) {
+                reattached.add((BeanScope) uis.getScope());
+            }
+        };
+        //the weight is the length of the name, "none" is never retained
+        navigation.setRetainedScopeCache(10, request -> request.toString().equals("none") ? null : (long) request.toString().length());
+    }
+
+    @After
+    public void tearDown() {
+        fixture.shutdown();
+    }
+
+    private void go(Runnable action) throws Exception {
+        fixture.onMain(action);
+        fixture.awaitIdle();
+    }
+
+    @Test
+    public void backwardReattaches() throws Exception {
+        go(() -> navigation.forward(fixture.new Request("a")));
+        go(() -> navigation.forward(fixture.new Request("b")));
+        BeanScope a = fixture.created.get(0);
+        assertEquals(0, a.destroyed.get());
+
+        go(() -> navigation.backward());
+        assertEquals("a retained state has been created again", 2, fixture.created.size());
+        assertSame(a, fixture.onMain(() -> fixture.current(navigation)));
+        assertEquals(1, reattached.size());
+        assertSame(a, reattached.get(0));
+        assertEquals(0, a.destroyed.get());
+        //b has been popped from the stack, so it can never be reattached and is not retained
+        assertEquals(1, fixture.created.get(1).destroyed.get());
+        assertEquals(0, fixture.failures.get());
+    }
+
+    @Test
+    public void backwardReattachesAnEqualRequest() throws Exception {
+        go(() -> navigation.forward(fixture.new Request("a")));
+        go(() -> navigation.forward(fixture.new Request("b")));
+        BeanScope a = fixture.created.get(0);
+
+        //another instance with the same arguments, e.g. restored from a file
+        go(() -> navigation.backward(fixture.new Request("a")));
+        assertEquals(2, fixture.created.size());
+        assertSame(a, fixture.onMain(() -> fixture.current(navigation)));
+        assertEquals(1, reattached.size());
+        assertEquals(0, a.destroyed.get());
+        assertEquals(1, fixture.created.get(1).destroyed.get());
+        assertEquals(0, fixture.failures.get());
+    }
+
+    @Test
+    public void poppedStatesDoNotTakeTheBudget() throws Exception {
+        go(() -> navigation.forward(fixture.new Request("aaaa")));
+        go(() -> navigation.forward(fixture.new Request("bbbb")));
+        go(() -> navigation.forward(fixture.new Request("cccc")));
+        //leaving cccc backwards must not evict aaaa, which is still reachable
+        go(() -> navigation.backward());
+        go(() -> navigation.backward());
+        assertEquals(3, fixture.created.size());
+        assertEquals(2, reattached.size());
+        assertEquals("aaaa", fixture.onMain(() -> fixture.current(navigation)).name);
+        assertEquals(0, fixture.created.get(0).destroyed.get());
+        assertEquals(1, fixture.created.get(1).destroyed.get());
+        assertEquals(1, fixture.created.get(2).destroyed.get());
+        assertEquals(0, fixture.failures.get());
+    }
+
+    @Test
+    public void evictsBeyondTheBudget() throws Exception {
+        go(() -> navigation.forward(fixture.new Request("aaaa")));
+        go(() -> navigation.forward(fixture.new Request("bbbb")));
+        go(() -> navigation.forward(fixture.new Request("cccc")));
+        go(() -> navigation.forward(fixture.new Request("d")));
+        //aaaa + bbbb + cccc exceed the budget of 10, so the least recently left one is destroyed
+        assertEquals(1, fixture.created.get(0).destroyed.get());
+        assertEquals(0, fixture.created.get(1).destroyed.get());
+        assertEquals(0, fixture.created.get(2).destroyed.get());
+
+        go(() -> navigation.backward());
+        go(() -> navigation.backward());
+        go(() -> navigation.backward());
+        assertEquals(2, reattached.size());
+        //the left states have not been retained, but destroyed
+        assertEquals(1, fixture.created.get(1).destroyed.get());
+        assertEquals(1, fixture.created.get(2).destroyed.get());
+        assertEquals(1, fixture.created.get(3).destroyed.get());
+        //the evicted one is created again
+        assertEquals(5, fixture.created.size());
+        assertEquals("aaaa", fixture.onMain(() -> fixture.current(navigation)).name);
+        assertEquals(0, fixture.failures.get());
+    }
+
+    @Test
+    public void notRetainedIsDestroyed() throws Exception {
+        go(() -> navigation.forward(fixture.new Request("none")));
+        go(() -> navigation.forward(fixture.new Request("b")));
+        assertEquals(1, fixture.created.get(0).destroyed.get());
+        go(() -> navigation.backward());
+        assertTrue(reattached.isEmpty());
+        assertEquals(3, fixture.created.size());
+    }
+
+    @Test
+    public void reloadDoesNotRetain() throws Exception {
+        go(() -> navigation.forward(fixture.new Request("a")));
+        go(() -> navigation.reload());
+        assertEquals(2, fixture.created.size());
+        BeanScope old = fixture.created.get(0);
+        assertEquals("the reloaded state is still alive", 1, old.destroyed.get());
+        assertNotSame(old, fixture.onMain(() -> fixture.current(navigation)));
+
+        //and it is not reattached later on
+        go(() -> navigation.forward(fixture.new Request("b")));
+        go(() -> navigation.backward());
+        assertEquals(1, reattached.size());
+        assertSame(fixture.created.get(1), reattached.get(0));
+        assertEquals(0, fixture.failures.get());
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.navigation;
+
+import org.homunculusframework.factory.container.Handler;
+import org.homunculusframework.factory.container.MainHandler;
+import org.homunculusframework.factory.container.MethodBinding;
+import org.homunculusframework.factory.container.ObjectBinding;
+import org.homunculusframework.factory.scope.ContextScope;
+import org.homunculusframework.factory.scope.EmptyScope;
+import org.homunculusframework.factory.scope.Scope;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A jvm replacement of the android environment of a {@link DefaultNavigation}: a single threaded main handler and
+ * background handlers, which execute each runnable after a random delay, so that requests overtake each other.
+ *
+ * @since 1.0
+ */
+final class NavigationFixture {
+
+    final ScheduledThreadPoolExecutor main = new ScheduledThreadPoolExecutor(1);
+    final ScheduledThreadPoolExecutor background = new ScheduledThreadPoolExecutor(4);
+    final Random random;
+    final int maxDelayMillis;
+    final RootScope scope = new RootScope();
+    //all bean scopes ever created, in order of creation
+    final List<BeanScope> created = new CopyOnWriteArrayList<>();
+    final AtomicInteger failures = new AtomicInteger();
+
+    NavigationFixture(long seed, int maxDelayMillis) {
+        this.random = new Random(seed);
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    Handler newBackgroundHandler() {
+        return r -> background.schedule(r, delay(), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized int delay() {
+        return maxDelayMillis == 0 ? 0 : random.nextInt(maxDelayMillis + 1);
+    }
+
+    /**
+     * Executes the closure on the main thread and waits for it.
+     */
+    <T> T onMain(Callable<T> closure) throws Exception {
+        try {
+            return main.submit(closure).get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    void onMain(Runnable runnable) throws Exception {
+        onMain(Executors.callable(runnable));
+    }
+
+    /**
+     * Waits until neither the main thread nor the background handlers have pending work for a while.
+     */
+    void awaitIdle() throws InterruptedException, TimeoutException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        int stable = 0;
+        while (stable < 5) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new TimeoutException("handlers did not become idle");
+            }
+            if (isIdle(main) && isIdle(background)) {
+                stable++;
+            } else {
+                stable = 0;
+            }
+            Thread.sleep(Math.max(5, maxDelayMillis));
+        }
+    }
+
+    private static boolean isIdle(ScheduledThreadPoolExecutor executor) {
+        return executor.getQueue().isEmpty() && executor.getActiveCount() == 0;
+    }
+
+    void shutdown() {
+        main.shutdownNow();
+        background.shutdownNow();
+    }
+
+    BeanScope current(DefaultNavigation navigation) {
+        DefaultNavigation.UserInterfaceState uis = navigation.getUserInterfaceState();
+        return uis == null ? null : (BeanScope) uis.getScope();
+    }
+
+    /**
+     * The scope of the navigation, which provides the main handler to the tasks.
+     */
+    final class RootScope extends EmptyScope {
+        private final MainHandler mainHandler = r -> main.execute(r);
+
+        @Nullable
+        @Override
+        public <T> T resolve(Class<T> type) {
+            if (type == MainHandler.class) {
+                return type.cast(mainHandler);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The scope of a created state, whose bean is the name of its request.
+     */
+    final class BeanScope extends EmptyScope implements ContextScope<String> {
+        final String name;
+        final AtomicInteger destroyed = new AtomicInteger();
+
+        BeanScope(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getContext() {
+            return name;
+        }
+
+        @Nullable
+        @Override
+        public Scope getParent() {
+            return scope;
+        }
+
+        @Override
+        public void onDestroy() {
+            if (destroyed.incrementAndGet() > 1) {
+                failures.incrementAndGet();
+            }
+            super.onDestroy();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * A request, which creates a {@link BeanScope}. Does not implement equals like the generated bindings, so requests
+     * of the same name are only equal by their {@link RequestKey}.
+     */
+    final class Request extends ObjectBinding<BeanScope, Scope> {
+        final String name;
+
+        Request(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public BeanScope create(Scope parent) {
+            BeanScope bean = new BeanScope(name);
+            created.add(bean);
+            return bean;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * A request, which is resolved into a {@link Request} of the same name after a random delay, like a controller
+     * method. Raw, because the scope of the navigation is not a context scope.
+     */
+    @SuppressWarnings("rawtypes")
+    final class MethodRequest extends MethodBinding {
+        final String name;
+
+        MethodRequest(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object create(Object scope) throws Exception {
+            Thread.sleep(delay());
+            return new Request(name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
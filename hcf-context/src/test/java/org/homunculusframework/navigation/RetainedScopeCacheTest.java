@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.navigation;
+
+import org.homunculusframework.navigation.DefaultNavigation.UserInterfaceState;
+import org.homunculusframework.navigation.NavigationFixture.BeanScope;
+import org.homunculusframework.navigation.NavigationFixture.Request;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Eviction order and weight accounting of the {@link RetainedScopeCache}.
+ *
+ * @since 1.0
+ */
+public class RetainedScopeCacheTest {
+
+    private final NavigationFixture fixture = new NavigationFixture(1, 0);
+
+    @After
+    public void tearDown() {
+        fixture.shutdown();
+    }
+
+    private UserInterfaceState uis(Request request) {
+        BeanScope scope = fixture.new BeanScope(request.name);
+        return new UserInterfaceState(request, request, scope, scope.getContext());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() {
+        RetainedScopeCache cache = new RetainedScopeCache(3);
+        Request a = fixture.new Request("a");
+        Request b = fixture.new Request("b");
+        Request c = fixture.new Request("c");
+        Request d = fixture.new Request("d");
+        UserInterfaceState uisA = uis(a);
+        UserInterfaceState uisB = uis(b);
+        UserInterfaceState uisC = uis(c);
+        assertEquals(Collections.emptyList(), cache.put(a, uisA, 1));
+        assertEquals(Collections.emptyList(), cache.put(b, uisB, 1));
+        assertEquals(Collections.emptyList(), cache.put(c, uisC, 1));
+
+        //a is taken and retained again, so b is the eldest now
+        assertSame(uisA, cache.take(a));
+        assertEquals(Collections.emptyList(), cache.put(a, uisA, 1));
+        assertEquals(Collections.singletonList(uisB), cache.put(d, uis(d), 1));
+        assertNull(cache.take(b));
+        assertSame(uisC, cache.take(c));
+    }
+
+    @Test
+    public void keepsTheBudget() {
+        RetainedScopeCache cache = new RetainedScopeCache(10);
+        Request a = fixture.new Request("a");
+        Request b = fixture.new Request("b");
+        Request c = fixture.new Request("c");
+        UserInterfaceState uisA = uis(a);
+        UserInterfaceState uisB = uis(b);
+        cache.put(a, uisA, 4);
+        cache.put(b, uisB, 4);
+
+        //6 more do not fit, both older ones have to go
+        List<UserInterfaceState> evicted = cache.put(c, uis(c), 7);
+        assertEquals(Arrays.asList(uisA, uisB), evicted);
+
+        //a state heavier than the entire budget is not kept at all
+        Request heavy = fixture.new Request("heavy");
+        UserInterfaceState uisHeavy = uis(heavy);
+        assertEquals(2, cache.put(heavy, uisHeavy, 11).size());
+        assertNull(cache.take(heavy));
+        assertEquals(0, cache.clear().size());
+    }
+
+    @Test
+    public void replacesAnEqualRequest() {
+        RetainedScopeCache cache = new RetainedScopeCache(10);
+        Request a = fixture.new Request("a");
+        UserInterfaceState first = uis(a);
+        UserInterfaceState second = uis(a);
+        cache.put(a, first, 6);
+        assertEquals(Collections.singletonList(first), cache.put(a, second, 6));
+        assertSame(second, cache.take(a));
+        assertNull(cache.take(a));
+
+        //the weight of the replaced state is not counted anymore
+        cache.put(a, first, 10);
+        assertEquals(Collections.singletonList(first), cache.clear());
+    }
+
+    @Test
+    public void findsEqualRequestsOfAnotherInstance() {
+        RetainedScopeCache cache = new RetainedScopeCache(10);
+        Request a = fixture.new Request("a");
+        UserInterfaceState uisA = uis(a);
+        cache.put(a, uisA, 1);
+        assertNull(cache.take(fixture.new Request("b")));
+        assertSame(uisA, cache.take(fixture.new Request("a")));
+        assertNull(cache.take(a));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.navigation;
+
+import org.homunculusframework.factory.container.Binding;
+import org.homunculusframework.factory.serializer.Serializable;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Order, bounded heap, latency and the failure mode of the {@link SpillingStack}.
+ *
+ * @since 1.0
+ */
+public class SpillingStackTest {
+
+    private static final int DEPTH = 1000;
+    private static final int MAX_DEPTH = 16;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File file;
+    private SpillingStack stack;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(tmp.getRoot(), "stack.bin");
+        stack = new SpillingStack(MAX_DEPTH, file, new Serializable());
+    }
+
+    @After
+    public void tearDown() {
+        stack.destroy();
+    }
+
+    @Test
+    public void keepsTheOrder() {
+        for (int i = 0; i < DEPTH; i++) {
+            stack.add(new Request(i, 16));
+        }
+        assertEquals(DEPTH, stack.size());
+        assertEquals(DEPTH - MAX_DEPTH, stack.getSpilledSize());
+        assertEquals(3, ((Request) stack.get(3)).id);
+
+        List<Binding<?, ?>> snapshot = stack.snapshot();
+        for (int i = 0; i < DEPTH; i++) {
+            assertEquals(i, ((Request) snapshot.get(i)).id);
+        }
+        for (int i = DEPTH - 1; i >= 0; i--) {
+            assertEquals(i, ((Request) stack.remove(stack.size() - 1)).id);
+        }
+        assertTrue(stack.isEmpty());
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void boundsTheHeap() {
+        //1000 entries of 64 KiB are 64 MiB, but only 16 of them (1 MiB) must be in memory
+        long before = usedHeap();
+        for (int i = 0; i < DEPTH; i++) {
+            stack.add(new Request(i, 64 * 1024));
+        }
+        long growth = usedHeap() - before;
+        assertTrue("heap grew by " + growth, growth < 16 * 1024 * 1024);
+    }
+
+    @Test
+    public void latency() {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        long start = System.nanoTime();
+        for (int i = 0; i < DEPTH; i++) {
+            stack.add(new Request(i, 1024));
+        }
+        long push = System.nanoTime() - start;
+        start = System.nanoTime();
+        while (!stack.isEmpty()) {
+            stack.remove(stack.size() - 1);
+        }
+        long pop = System.nanoTime() - start;
+        System.out.printf("SpillingStack depth %d: %.1f us per push, %.1f us per pop%n", DEPTH, push / 1000.0 / DEPTH, pop / 1000.0 / DEPTH);
+    }
+
+    @Test
+    public void dropsTheHistoryIfTheFileIsLost() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            stack.add(new Request(i, 16));
+        }
+        //e.g. the storage has been wiped while the app is running
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+        }
+        //going backwards must not crash, the history just ends earlier
+        int popped = 0;
+        while (!stack.isEmpty()) {
+            Request request = (Request) stack.remove(stack.size() - 1);
+            assertEquals(99 - popped, request.id);
+            popped++;
+        }
+        assertTrue(popped >= MAX_DEPTH / 2 && popped < 100);
+        assertEquals(0, stack.getSpilledSize());
+    }
+
+    @Test
+    public void explicitAccessToALostEntryFails() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            stack.add(new Request(i, 16));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(0);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        try {
+            stack.get(0);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            //expected
+        }
+        assertEquals(MAX_DEPTH, stack.size());
+        assertEquals(MAX_DEPTH, stack.snapshot().size());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static final class Request implements Binding<Object, Object> {
+        private static final long serialVersionUID = 1L;
+        final int id;
+        final byte[] payload;
+
+        Request(int id, int size) {
+            this.id = id;
+            this.payload = new byte[size];
+            Arrays.fill(payload, (byte) id);
+        }
+
+        @Override
+        public Object create(Object scope) {
+            return null;
+        }
+    }
+}
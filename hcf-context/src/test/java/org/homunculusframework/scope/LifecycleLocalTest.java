@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.homunculusframework.scope;
+
+import org.homunculusframework.factory.scope.EmptyScope;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Correctness of {@link LifecycleLocal} and a contention benchmark of 32 reading threads, which is the amount of
+ * threads of the AndroidBackgroundHandler.
+ *
+ * @since 1.0
+ */
+public class LifecycleLocalTest {
+
+    private static final int THREADS = 32;
+    private static final int READS = 200_000;
+
+    @Test
+    public void destroyClearsValue() {
+        EmptyScope scope = new EmptyScope();
+        LifecycleLocal<String> local = new LifecycleLocal<>(scope);
+        local.set("a");
+        assertEquals("a", local.get());
+        scope.onDestroy();
+        assertNull(local.get());
+        //a destroyed local ignores writes
+        local.set("b");
+        assertNull(local.get());
+    }
+
+    @Test
+    public void readersSeeWrites() throws InterruptedException {
+        LifecycleLocal<Integer> local = new LifecycleLocal<>(new EmptyScope());
+        local.set(0);
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 100_000; i++) {
+                local.set(i);
+            }
+        });
+        writer.start();
+        //values never go backwards for a single reader
+        int last = 0;
+        while (writer.isAlive() || last < 100_000) {
+            int v = local.get();
+            if (v < last) {
+                throw new AssertionError("went backwards " + v + " < " + last);
+            }
+            last = v;
+        }
+        writer.join();
+        assertEquals(100_000, (int) local.get());
+    }
+
+    @Test
+    public void contentionBenchmark() throws InterruptedException {
+        Assume.assumeTrue("benchmark, run with -Dhcf.benchmark=true", Boolean.getBoolean("hcf.benchmark"));
+        LifecycleLocal<Object> local = new LifecycleLocal<>(new EmptyScope());
+        local.set(new Object());
+        SynchronizedLocal locked = new SynchronizedLocal();
+        locked.set(new Object());
+        //warm up both
+        measure(local::get);
+        measure(locked::get);
+        long lockFree = measure(local::get);
+        long synced = measure(locked::get);
+        System.out.printf("LifecycleLocal %d threads x %d reads: lock free %d ms, synchronized %d ms%n", THREADS, READS, lockFree, synced);
+    }
+
+    private static long measure(Read read) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        AtomicLong sink = new AtomicLong();
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long h = 0;
+                for (int i = 0; i < READS; i++) {
+                    h += System.identityHashCode(read.get());
+                }
+                sink.addAndGet(h);
+                done.countDown();
+            }).start();
+        }
+        long time = System.nanoTime();
+        start.countDown();
+        done.await();
+        return (System.nanoTime() - time) / 1_000_000;
+    }
+
+    private interface Read {
+        Object get();
+    }
+
+    /**
+     * The previous implementation, which entered the monitor for each read.
+     */
+    private static final class SynchronizedLocal {
+        private Object value;
+
+        synchronized Object get() {
+            return value;
+        }
+
+        synchronized void set(Object value) {
+            this.value = value;
+        }
+    }
+}